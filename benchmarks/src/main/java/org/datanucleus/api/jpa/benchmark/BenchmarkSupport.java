@@ -0,0 +1,88 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.datanucleus.api.jpa.benchmark.model.Address;
+import org.datanucleus.api.jpa.benchmark.model.Person;
+
+/**
+ * Convenience methods for setting up the datastore of the benchmarks.
+ */
+public final class BenchmarkSupport
+{
+    /** Name of the persistence-unit used by all benchmarks (in-memory H2). */
+    public static final String PERSISTENCE_UNIT = "benchmark";
+
+    private BenchmarkSupport()
+    {
+    }
+
+    /**
+     * Method to create the EMF for the benchmark persistence-unit.
+     * @return The EMF
+     */
+    public static EntityManagerFactory createEntityManagerFactory()
+    {
+        return Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
+    }
+
+    /**
+     * Method to delete all data and persist the specified number of Person objects (each with its own Address).
+     * @param emf The EMF
+     * @param number Number of Person objects
+     * @return The ids of the persisted Person objects
+     */
+    public static long[] populate(EntityManagerFactory emf, int number)
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            em.createQuery("DELETE FROM Person p").executeUpdate();
+            em.createQuery("DELETE FROM Address a").executeUpdate();
+            em.getTransaction().commit();
+
+            long[] ids = new long[number];
+            Person[] persons = new Person[number];
+            em.getTransaction().begin();
+            for (int i=0;i<number;i++)
+            {
+                persons[i] = new Person("First" + i, "Last" + (i % 100), 20 + (i % 50), new Address(i + " High Street", "City" + (i % 10)));
+                em.persist(persons[i]);
+            }
+            em.getTransaction().commit();
+            for (int i=0;i<number;i++)
+            {
+                ids[i] = persons[i].getId();
+            }
+            return ids;
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jpa.JPACallbackHandler;
+import org.datanucleus.api.jpa.benchmark.model.Address;
+import org.datanucleus.api.jpa.benchmark.model.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of lifecycle callback dispatch in JPACallbackHandler, for a class with callbacks (entity methods and a listener)
+ * and for a class without callbacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmark
+{
+    EntityManagerFactory emf;
+
+    EntityManager em;
+
+    JPACallbackHandler handler;
+
+    Person person;
+
+    Address address;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        emf = BenchmarkSupport.createEntityManagerFactory();
+        long[] ids = BenchmarkSupport.populate(emf, 1);
+        em = emf.createEntityManager();
+        person = em.find(Person.class, ids[0]);
+        address = person.getAddress();
+        handler = new JPACallbackHandler((ExecutionContext)em.getDelegate());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public int postLoadWithCallbacks()
+    {
+        handler.postLoad(person);
+        return person.getCallbackCount();
+    }
+
+    @Benchmark
+    public Address postLoadWithoutCallbacks()
+    {
+        handler.postLoad(address);
+        return address;
+    }
+
+    @Benchmark
+    public Person postDeleteWithoutCallbacks()
+    {
+        handler.postDelete(person);
+        return person;
+    }
+}
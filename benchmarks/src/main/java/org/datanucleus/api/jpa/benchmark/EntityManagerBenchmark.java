@@ -0,0 +1,203 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.datanucleus.api.jpa.JPAEntityManager;
+import org.datanucleus.api.jpa.benchmark.model.Address;
+import org.datanucleus.api.jpa.benchmark.model.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the EntityManager operations find/persist/merge/remove, each in its own EntityManager (and transaction where required).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityManagerBenchmark
+{
+    @Param({"1000"})
+    int numberOfObjects;
+
+    EntityManagerFactory emf;
+
+    long[] ids;
+
+    Person detachedPerson;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        emf = BenchmarkSupport.createEntityManagerFactory();
+        ids = BenchmarkSupport.populate(emf, numberOfObjects);
+
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            detachedPerson = em.find(Person.class, ids[0]);
+            em.detach(detachedPerson);
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        emf.close();
+    }
+
+    private long randomId()
+    {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public Person find()
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            return em.find(Person.class, randomId());
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public List<Person> findAll()
+    {
+        List<Long> keys = new ArrayList<>(50);
+        for (int i=0;i<50;i++)
+        {
+            keys.add(randomId());
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            return em.unwrap(JPAEntityManager.class).findAll(Person.class, keys, null);
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public Person persistAndRemove()
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            Person p = new Person("Benchmark", "Person", 42, new Address("1 Benchmark Road", "Benchmark City"));
+            em.persist(p);
+            em.flush();
+            em.remove(p);
+            em.remove(p.getAddress());
+            em.getTransaction().commit();
+            return p;
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public Person persist()
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            Person p = new Person("Benchmark", "Person", 42, new Address("1 Benchmark Road", "Benchmark City"));
+            em.persist(p);
+            em.getTransaction().commit();
+            return p;
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Merge of a detached object with a changed field. Not thread-safe, so run with a single thread.
+     * @return The merged object
+     */
+    @Benchmark
+    public Person merge()
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            detachedPerson.setLastName("Last" + ThreadLocalRandom.current().nextInt(100));
+            Person p = em.merge(detachedPerson);
+            em.getTransaction().commit();
+
+            // Merge the updated (detached at close) object next time, so its version is current
+            detachedPerson = p;
+            return p;
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.datanucleus.api.jpa.JPAEntityManagerFactory;
+import org.datanucleus.api.jpa.benchmark.model.Person;
+import org.datanucleus.api.jpa.metamodel.MetamodelImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the Metamodel : creation, type lookup, and lookup of declared and inherited attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetamodelBenchmark
+{
+    EntityManagerFactory emf;
+
+    Metamodel metamodel;
+
+    EntityType<Person> personType;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        emf = BenchmarkSupport.createEntityManagerFactory();
+        metamodel = emf.getMetamodel();
+        personType = metamodel.entity(Person.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        emf.close();
+    }
+
+    @Benchmark
+    public Metamodel createMetamodel()
+    {
+        return new MetamodelImpl(((JPAEntityManagerFactory)emf).getNucleusContext().getMetaDataManager());
+    }
+
+    @Benchmark
+    public EntityType<Person> entityLookup()
+    {
+        return metamodel.entity(Person.class);
+    }
+
+    @Benchmark
+    public Attribute<? super Person, ?> declaredAttribute()
+    {
+        return personType.getAttribute("lastName");
+    }
+
+    @Benchmark
+    public Attribute<? super Person, ?> inheritedAttribute()
+    {
+        return personType.getAttribute("id");
+    }
+
+    @Benchmark
+    public Set<Attribute<? super Person, ?>> allAttributes()
+    {
+        return personType.getAttributes();
+    }
+}
@@ -0,0 +1,124 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Root;
+
+import org.datanucleus.api.jpa.benchmark.model.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of querying : tuple results of JPQL, building of criteria (CriteriaBuilderImpl), and creation of a query from criteria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark
+{
+    @Param({"1000"})
+    int numberOfObjects;
+
+    EntityManagerFactory emf;
+
+    EntityManager em;
+
+    CriteriaQuery<Person> criteria;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        emf = BenchmarkSupport.createEntityManagerFactory();
+        BenchmarkSupport.populate(emf, numberOfObjects);
+        em = emf.createEntityManager();
+        criteria = buildCriteria();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public void tupleResultList(Blackhole bh)
+    {
+        TypedQuery<Tuple> q = em.createQuery("SELECT p.firstName AS first, p.lastName AS last, p.age AS age FROM Person p", Tuple.class);
+        List<Tuple> results = q.getResultList();
+        for (Tuple t : results)
+        {
+            bh.consume(t.get("first"));
+            bh.consume(t.get(1));
+            bh.consume(t.get("age", Integer.class));
+        }
+    }
+
+    @Benchmark
+    public CriteriaQuery<Person> buildCriteria()
+    {
+        CriteriaBuilder cb = emf.getCriteriaBuilder();
+        CriteriaQuery<Person> cq = cb.createQuery(Person.class);
+        Root<Person> root = cq.from(Person.class);
+        ParameterExpression<Integer> minAge = cb.parameter(Integer.class, "minAge");
+        cq.select(root).where(cb.and(cb.greaterThanOrEqualTo(root.<Integer>get("age"), minAge), cb.like(root.<String>get("lastName"), "Last1%")));
+        cq.orderBy(cb.asc(root.get("lastName")), cb.desc(root.get("id")));
+        return cq;
+    }
+
+    @Benchmark
+    public TypedQuery<Person> createQueryFromCriteria()
+    {
+        TypedQuery<Person> q = em.createQuery(criteria);
+        q.setParameter("minAge", 30);
+        return q;
+    }
+
+    @Benchmark
+    public List<Person> criteriaResultList()
+    {
+        TypedQuery<Person> q = em.createQuery(criteria);
+        q.setParameter("minAge", 30);
+        return q.getResultList();
+    }
+}
@@ -0,0 +1,51 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark.model;
+
+import javax.persistence.Entity;
+
+/**
+ * Benchmark entity related to Person.
+ */
+@Entity
+public class Address extends BaseEntity
+{
+    String street;
+
+    String city;
+
+    public Address()
+    {
+    }
+
+    public Address(String street, String city)
+    {
+        this.street = street;
+        this.city = city;
+    }
+
+    public String getStreet()
+    {
+        return street;
+    }
+
+    public String getCity()
+    {
+        return city;
+    }
+}
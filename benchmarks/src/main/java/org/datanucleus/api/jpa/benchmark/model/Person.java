@@ -0,0 +1,98 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark.model;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
+import javax.persistence.ManyToOne;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+
+/**
+ * Benchmark entity, with a relation, an entity listener and callback methods.
+ */
+@Entity
+@EntityListeners(PersonListener.class)
+public class Person extends BaseEntity
+{
+    String firstName;
+
+    String lastName;
+
+    int age;
+
+    @ManyToOne(cascade=CascadeType.PERSIST)
+    Address address;
+
+    transient int callbackCount;
+
+    public Person()
+    {
+    }
+
+    public Person(String firstName, String lastName, int age, Address address)
+    {
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.age = age;
+        this.address = address;
+    }
+
+    @PrePersist
+    void prePersist()
+    {
+        callbackCount++;
+    }
+
+    @PostLoad
+    void postLoad()
+    {
+        callbackCount++;
+    }
+
+    public String getFirstName()
+    {
+        return firstName;
+    }
+
+    public String getLastName()
+    {
+        return lastName;
+    }
+
+    public void setLastName(String lastName)
+    {
+        this.lastName = lastName;
+    }
+
+    public int getAge()
+    {
+        return age;
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public int getCallbackCount()
+    {
+        return callbackCount;
+    }
+}
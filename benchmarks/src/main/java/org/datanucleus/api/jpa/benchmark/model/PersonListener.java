@@ -0,0 +1,39 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.benchmark.model;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+
+/**
+ * Entity listener for Person, so that callback dispatch to a separate listener is exercised.
+ */
+public class PersonListener
+{
+    @PrePersist
+    public void prePersist(Object pc)
+    {
+        ((Person)pc).callbackCount++;
+    }
+
+    @PostLoad
+    public void postLoad(Person pc)
+    {
+        pc.callbackCount++;
+    }
+}
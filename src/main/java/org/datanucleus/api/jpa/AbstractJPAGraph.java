@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.persistence.AttributeNode;
 import javax.persistence.Subgraph;
@@ -231,8 +232,7 @@ public abstract class AbstractJPAGraph<T> implements Subgraph<T>
             throw new IllegalStateException("This Graph is not mutable");
         }
 
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Not yet implemented");
+        return addKeySubgraph(attribute.getName(), (Class<X>) type);
     }
 
     @Override
@@ -260,7 +260,128 @@ public abstract class AbstractJPAGraph<T> implements Subgraph<T>
             throw new IllegalStateException("This Graph is not mutable");
         }
 
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Not yet implemented");
+        if (attributeNodeMap == null)
+        {
+            attributeNodeMap = new HashMap<String, JPAAttributeNode<?>>();
+        }
+        JPAAttributeNode node = attributeNodeMap.get(attributeName);
+        if (node == null)
+        {
+            node = new JPAAttributeNode<T>(mmgr, this, attributeName);
+            attributeNodeMap.put(node.getAttributeName(), node);
+        }
+
+        JPASubgraph<X> subgraph = new JPASubgraph<X>(mmgr, type);
+        node.addKeySubgraph(subgraph);
+        return subgraph;
+    }
+
+    /**
+     * Accessor for the subgraph of the specified attribute, adding the attribute node and a subgraph of its declared type if not yet present.
+     * @param attributeName Name of the attribute
+     * @return The subgraph
+     */
+    AbstractJPAGraph<?> getOrAddSubgraph(String attributeName)
+    {
+        JPAAttributeNode<?> node = (attributeNodeMap != null) ? attributeNodeMap.get(attributeName) : null;
+        if (node != null && !node.getSubgraphs().isEmpty())
+        {
+            return (AbstractJPAGraph<?>) node.getSubgraphs().values().iterator().next();
+        }
+        return (AbstractJPAGraph<?>) addSubgraph(attributeName);
+    }
+
+    /**
+     * Method to append a canonical form of the structure of this graph to the provided buffer.
+     * Graphs with the same type, attributes and subgraphs have the same canonical form regardless of the order they were built in.
+     * @param str The buffer to append to
+     */
+    protected void appendCanonicalForm(StringBuilder str)
+    {
+        str.append(classType.getName()).append('[');
+        if (attributeNodeMap != null)
+        {
+            // Order by attribute name, and subgraphs by type name
+            Map<String, JPAAttributeNode<?>> sortedNodes = new TreeMap<>(attributeNodeMap);
+            boolean first = true;
+            for (JPAAttributeNode<?> node : sortedNodes.values())
+            {
+                if (!first)
+                {
+                    str.append(',');
+                }
+                first = false;
+                str.append(node.getAttributeName());
+
+                Map<Class, Subgraph> subgraphs = node.getSubgraphs();
+                if (!subgraphs.isEmpty())
+                {
+                    str.append('{');
+                    appendCanonicalForm(str, subgraphs);
+                    str.append('}');
+                }
+
+                Map<Class, Subgraph> keySubgraphs = node.getKeySubgraphs();
+                if (!keySubgraphs.isEmpty())
+                {
+                    str.append("{key:");
+                    appendCanonicalForm(str, keySubgraphs);
+                    str.append('}');
+                }
+            }
+        }
+        str.append(']');
+    }
+
+    /**
+     * Method to append the canonical form of the provided subgraphs, in order of their type name.
+     * @param str The buffer to append to
+     * @param subgraphsByType The subgraphs keyed by their type
+     */
+    protected static void appendCanonicalForm(StringBuilder str, Map<Class, Subgraph> subgraphsByType)
+    {
+        Map<String, Subgraph> sortedSubgraphs = new TreeMap<>();
+        for (Map.Entry<Class, Subgraph> entry : subgraphsByType.entrySet())
+        {
+            sortedSubgraphs.put(entry.getKey().getName(), entry.getValue());
+        }
+        for (Subgraph subgraph : sortedSubgraphs.values())
+        {
+            ((AbstractJPAGraph)subgraph).appendCanonicalForm(str);
+        }
+    }
+
+    /**
+     * Accessor for the number of levels of related objects that this graph spans.
+     * A graph with no subgraphs has a depth of 1, and each level of subgraph (or key subgraph) adds 1.
+     * @return The depth of the graph
+     */
+    protected int getDepth()
+    {
+        int depth = 1;
+        if (attributeNodeMap != null)
+        {
+            for (JPAAttributeNode<?> node : attributeNodeMap.values())
+            {
+                depth = Math.max(depth, 1 + getDepth(node.getSubgraphs()));
+                depth = Math.max(depth, 1 + getDepth(node.getKeySubgraphs()));
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Method to return the maximum depth of the provided subgraphs.
+     * @param subgraphsByType The subgraphs keyed by their type
+     * @return The maximum depth, or 0 if there are no subgraphs
+     */
+    protected static int getDepth(Map<Class, Subgraph> subgraphsByType)
+    {
+        int depth = 0;
+        for (Subgraph subgraph : subgraphsByType.values())
+        {
+            depth = Math.max(depth, ((AbstractJPAGraph)subgraph).getDepth());
+        }
+        return depth;
     }
-}
\ No newline at end of file
+}
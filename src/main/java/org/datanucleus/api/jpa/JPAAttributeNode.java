@@ -39,6 +39,8 @@ public class JPAAttributeNode<T> implements AttributeNode<T>
 
     Map<Class, Subgraph> subgraphsByType = null;
 
+    Map<Class, Subgraph> keySubgraphsByType = null;
+
     public JPAAttributeNode(MetaDataManager mmgr, AbstractJPAGraph parent, String name)
     {
         this.mmgr = mmgr;
@@ -72,10 +74,22 @@ public class JPAAttributeNode<T> implements AttributeNode<T>
         return subgraphsByType;
     }
 
+    public void addKeySubgraph(JPASubgraph<T> subgraph)
+    {
+        if (keySubgraphsByType == null)
+        {
+            keySubgraphsByType = new HashMap<Class, Subgraph>();
+        }
+        keySubgraphsByType.put(subgraph.getClassType(), subgraph);
+    }
+
     public Map<Class, Subgraph> getKeySubgraphs()
     {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Not yet implemented");
+        if (keySubgraphsByType == null)
+        {
+            return Collections.EMPTY_MAP;
+        }
+        return keySubgraphsByType;
     }
 
     public String toString()
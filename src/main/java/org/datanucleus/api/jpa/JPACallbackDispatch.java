@@ -0,0 +1,347 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreRemove;
+import javax.persistence.PreUpdate;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jpa.metadata.JPAMetaDataManager;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.EventListenerMetaData;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Dispatch table of the JPA lifecycle callbacks for an entity class.
+ * Resolved once from the metadata of the class (default listeners, entity listeners, and callback methods of the entity itself),
+ * holding the methods to invoke for each callback type as MethodHandles taking the entity as the only argument.
+ * Instances are cached by the JPAMetaDataManager, so this is shared by all EntityManagers of the persistence-unit.
+ */
+public final class JPACallbackDispatch
+{
+    /** Callback types, where the position defines the index of the handles for that type. */
+    static final Class[] CALLBACK_TYPES = new Class[] {PrePersist.class, PostPersist.class, PreRemove.class, PostRemove.class,
+        PreUpdate.class, PostUpdate.class, PostLoad.class};
+
+    static final int PRE_PERSIST = 0;
+    static final int POST_PERSIST = 1;
+    static final int PRE_REMOVE = 2;
+    static final int POST_REMOVE = 3;
+    static final int PRE_UPDATE = 4;
+    static final int POST_UPDATE = 5;
+    static final int POST_LOAD = 6;
+
+    private static final MethodHandle[] NO_HANDLES = new MethodHandle[0];
+
+    private static final MethodType CALLBACK_METHOD_TYPE = MethodType.methodType(void.class, Object.class);
+
+    /** Dispatch for a class that has no callbacks of any type. */
+    static final JPACallbackDispatch NONE = new JPACallbackDispatch(null);
+
+    /** Handles to invoke, indexed by callback type. Each handle is of type (Object)void. */
+    private final MethodHandle[][] handlesByType;
+
+    private JPACallbackDispatch(MethodHandle[][] handlesByType)
+    {
+        this.handlesByType = handlesByType;
+    }
+
+    /**
+     * Method to invoke the callbacks of the specified type for the provided entity.
+     * @param pc The entity causing the event
+     * @param callbackType Index of the callback type
+     */
+    void invoke(Object pc, int callbackType)
+    {
+        if (handlesByType == null)
+        {
+            return;
+        }
+
+        for (MethodHandle handle : handlesByType[callbackType])
+        {
+            try
+            {
+                handle.invokeExact(pc);
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Throwable thr)
+            {
+                // Checked exceptions and Errors are wrapped, as with reflective invocation of the callback
+                throw new RuntimeException(thr);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the dispatch table for the class of the provided entity, resolving it from the metadata if not yet cached.
+     * @param ec ExecutionContext
+     * @param pcClass The entity class
+     * @return The dispatch table
+     */
+    static JPACallbackDispatch getDispatchForClass(ExecutionContext ec, Class pcClass)
+    {
+        JPAMetaDataManager mmgr = (JPAMetaDataManager)ec.getMetaDataManager();
+        JPACallbackDispatch dispatch = mmgr.getCallbackDispatch(pcClass);
+        if (dispatch == null)
+        {
+            dispatch = newDispatchForClass(ec, pcClass);
+            mmgr.setCallbackDispatch(pcClass, dispatch);
+        }
+        return dispatch;
+    }
+
+    /**
+     * Method to resolve the dispatch table for the specified class from its metadata.
+     * Follows the order of invocation of JPA : default listeners, then listeners of this class and its superclasses, then the callback methods of the entity.
+     * @param ec ExecutionContext
+     * @param pcClass The entity class
+     * @return The dispatch table
+     */
+    private static JPACallbackDispatch newDispatchForClass(ExecutionContext ec, Class pcClass)
+    {
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        JPAMetaDataManager mmgr = (JPAMetaDataManager)ec.getMetaDataManager();
+        AbstractClassMetaData cmd = mmgr.getMetaDataForClass(pcClass, clr);
+        if (cmd == null)
+        {
+            return NONE;
+        }
+
+        // Listener instances are stateless, so share one per listener class across all callback types
+        Map<Class, Object> listenerByClass = new HashMap<>();
+
+        boolean hasCallbacks = false;
+        MethodHandle[][] handlesByType = new MethodHandle[CALLBACK_TYPES.length][];
+        for (int i=0;i<CALLBACK_TYPES.length;i++)
+        {
+            String callbackClassName = CALLBACK_TYPES[i].getName();
+            List<MethodHandle> handles = new ArrayList<>();
+
+            if (!cmd.isExcludeDefaultListeners())
+            {
+                // Global listeners for all classes
+                List<EventListenerMetaData> listenerMetaData = mmgr.getEventListeners();
+                if (listenerMetaData != null)
+                {
+                    for (EventListenerMetaData elmd : listenerMetaData)
+                    {
+                        String methodName = elmd.getMethodNameForCallbackClass(callbackClassName);
+                        if (methodName != null)
+                        {
+                            addHandle(handles, getListenerMethodHandle(ec, listenerByClass, elmd.getClassName(), methodName, pcClass));
+                        }
+                    }
+                }
+            }
+
+            // Class listeners for this class and its superclasses
+            List<String> entityMethodNames = null;
+            AbstractClassMetaData acmd = cmd;
+            while (acmd != null)
+            {
+                List<EventListenerMetaData> listenerMetaData = acmd.getListeners();
+                if (listenerMetaData != null && !listenerMetaData.isEmpty())
+                {
+                    for (EventListenerMetaData elmd : listenerMetaData)
+                    {
+                        String methodName = elmd.getMethodNameForCallbackClass(callbackClassName);
+                        if (methodName != null)
+                        {
+                            if (elmd.getClassName().equals(acmd.getFullClassName()))
+                            {
+                                // Class itself is the listener
+                                if (entityMethodNames == null)
+                                {
+                                    entityMethodNames = new ArrayList<>();
+                                }
+                                if (!entityMethodNames.contains(methodName))
+                                {
+                                    // Only add the method if is not already present (allows for inherited listener methods)
+                                    entityMethodNames.add(methodName);
+                                }
+                            }
+                            else
+                            {
+                                // Separate listener class taking the entity as input
+                                addHandle(handles, getListenerMethodHandle(ec, listenerByClass, elmd.getClassName(), methodName, pcClass));
+                            }
+                        }
+                    }
+                    if (acmd.isExcludeSuperClassListeners())
+                    {
+                        break;
+                    }
+                }
+
+                // Move up to superclass
+                acmd = acmd.getSuperAbstractClassMetaData();
+            }
+
+            if (entityMethodNames != null)
+            {
+                // Callback methods on the entity itself, invoked last
+                for (String methodName : entityMethodNames)
+                {
+                    addHandle(handles, getEntityMethodHandle(clr, methodName, pcClass));
+                }
+            }
+
+            if (handles.isEmpty())
+            {
+                handlesByType[i] = NO_HANDLES;
+            }
+            else
+            {
+                handlesByType[i] = handles.toArray(new MethodHandle[handles.size()]);
+                hasCallbacks = true;
+            }
+        }
+
+        return hasCallbacks ? new JPACallbackDispatch(handlesByType) : NONE;
+    }
+
+    private static void addHandle(List<MethodHandle> handles, MethodHandle handle)
+    {
+        if (handle != null)
+        {
+            handles.add(handle);
+        }
+    }
+
+    /**
+     * Method to return a handle for a callback method where the entity is the listener, so the method takes no arguments.
+     * @param clr ClassLoader resolver
+     * @param methodName Fully-qualified name of the method ("{className}.{methodName}")
+     * @param pcClass The entity class
+     * @return The handle, of type (Object)void, or null if the method cannot be resolved
+     */
+    private static MethodHandle getEntityMethodHandle(ClassLoaderResolver clr, String methodName, Class pcClass)
+    {
+        String callbackClassName = methodName.substring(0, methodName.lastIndexOf('.'));
+        String callbackMethodName = methodName.substring(methodName.lastIndexOf('.')+1);
+        try
+        {
+            Class callbackClass = callbackClassName.equals(pcClass.getName()) ? pcClass : clr.classForName(callbackClassName);
+            Method m = callbackClass.getDeclaredMethod(callbackMethodName, (Class[])null);
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m).asType(CALLBACK_METHOD_TYPE);
+        }
+        catch (Exception e)
+        {
+            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
+            return null;
+        }
+    }
+
+    /**
+     * Method to return a handle for a callback method of a separate EntityListener (not an Entity), bound to the listener instance.
+     * The method takes the entity causing the event as input.
+     * @param ec ExecutionContext
+     * @param listenerByClass Map of the listener instances created so far, keyed by listener class
+     * @param listenerClassName Name of the listener class
+     * @param methodName Fully-qualified name of the method ("{className}.{methodName}")
+     * @param pcClass The entity class
+     * @return The handle, of type (Object)void, or null if the method cannot be resolved
+     */
+    private static MethodHandle getListenerMethodHandle(ExecutionContext ec, Map<Class, Object> listenerByClass, String listenerClassName, String methodName,
+            Class pcClass)
+    {
+        String callbackClassName = methodName.substring(0, methodName.lastIndexOf('.'));
+        String callbackMethodName = methodName.substring(methodName.lastIndexOf('.')+1);
+        try
+        {
+            ClassLoaderResolver clr = ec.getClassLoaderResolver();
+            Class listenerClass = clr.classForName(listenerClassName);
+            Object listener = listenerByClass.get(listenerClass);
+            if (listener == null)
+            {
+                listener = getListenerInstance(ec, listenerClass);
+                listenerByClass.put(listenerClass, listener);
+            }
+            Class callbackClass = callbackClassName.equals(listener.getClass().getName()) ? listener.getClass() : clr.classForName(callbackClassName);
+
+            Method m = null;
+            try
+            {
+                m = callbackClass.getDeclaredMethod(callbackMethodName, new Class[]{Object.class});
+            }
+            catch (NoSuchMethodException ex)
+            {
+                // Method takes a more specific type (or an interface) so find the method accepting this entity type
+                for (Method method : callbackClass.getDeclaredMethods())
+                {
+                    if (method.getName().equals(callbackMethodName) && method.getParameterTypes().length == 1 &&
+                        method.getParameterTypes()[0].isAssignableFrom(pcClass))
+                    {
+                        m = method;
+                        break;
+                    }
+                }
+            }
+            if (m == null)
+            {
+                return null;
+            }
+
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m).bindTo(listener).asType(CALLBACK_METHOD_TYPE);
+        }
+        catch (Exception e)
+        {
+            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
+            return null;
+        }
+    }
+
+    private static Object getListenerInstance(ExecutionContext ec, Class listenerCls) throws Exception
+    {
+        if (ec.getNucleusContext().getCDIHandler() != null)
+        {
+            try
+            {
+                return ec.getNucleusContext().getCDIHandler().createObjectWithInjectedDependencies(listenerCls);
+            }
+            catch (Exception e)
+            {
+                NucleusLogger.PERSISTENCE.warn("Error creating listener of type " + listenerCls.getName() + " using CDI BeanHandler", e);
+            }
+        }
+
+        // Return stateless listener
+        return listenerCls.getDeclaredConstructor().newInstance();
+    }
+}
@@ -19,29 +19,14 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.api.jpa;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import javax.persistence.PostLoad;
-import javax.persistence.PostPersist;
-import javax.persistence.PostRemove;
-import javax.persistence.PostUpdate;
-import javax.persistence.PrePersist;
-import javax.persistence.PreRemove;
-import javax.persistence.PreUpdate;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import org.datanucleus.BeanValidationHandler;
-import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
-import org.datanucleus.api.jpa.metadata.JPAMetaDataManager;
-import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.metadata.EventListenerMetaData;
 import org.datanucleus.state.CallbackHandler;
 import org.datanucleus.state.DNStateManager;
-import org.datanucleus.util.NucleusLogger;
 
 /**
  * CallbackHandler implementation for JPA.
@@ -52,6 +37,9 @@ public class JPACallbackHandler implements CallbackHandler
 
     BeanValidationHandler beanValidationHandler;
 
+    /** The innermost active recording of loaded objects, or null if none. */
+    LoadRecording loadRecording = null;
+
     public JPACallbackHandler(ExecutionContext ec)
     {
         this.ec = ec;
@@ -66,7 +54,7 @@ public class JPACallbackHandler implements CallbackHandler
     {
         if (ec.getApiAdapter().isNew(pc))
         {
-            invokeCallback(pc, PrePersist.class);
+            invokeCallback(pc, JPACallbackDispatch.PRE_PERSIST);
         }
         if (beanValidationHandler != null)
         {
@@ -82,7 +70,7 @@ public class JPACallbackHandler implements CallbackHandler
     {
         if (!ec.getApiAdapter().isNew(pc))
         {
-            invokeCallback(pc, PreUpdate.class);
+            invokeCallback(pc, JPACallbackDispatch.PRE_UPDATE);
         }
         if (beanValidationHandler != null)
         {
@@ -103,11 +91,11 @@ public class JPACallbackHandler implements CallbackHandler
     {
         if (ec.getApiAdapter().isNew(pc))
         {
-            invokeCallback(pc, PostPersist.class);
+            invokeCallback(pc, JPACallbackDispatch.POST_PERSIST);
         }
         else
         {
-            invokeCallback(pc, PostUpdate.class);
+            invokeCallback(pc, JPACallbackDispatch.POST_UPDATE);
         }
     }
 
@@ -117,7 +105,7 @@ public class JPACallbackHandler implements CallbackHandler
      */
     public void preDelete(Object pc)
     {
-        invokeCallback(pc, PreRemove.class);
+        invokeCallback(pc, JPACallbackDispatch.PRE_REMOVE);
         if (beanValidationHandler != null)
         {
             beanValidationHandler.preDelete(pc);
@@ -130,7 +118,7 @@ public class JPACallbackHandler implements CallbackHandler
      */
     public void postDelete(Object pc)
     {
-        invokeCallback(pc, PostRemove.class);
+        invokeCallback(pc, JPACallbackDispatch.POST_REMOVE);
     }
 
     /**
@@ -139,279 +127,97 @@ public class JPACallbackHandler implements CallbackHandler
      */
     public void postLoad(Object pc)
     {
-        invokeCallback(pc, PostLoad.class);
+        for (LoadRecording recording = loadRecording; recording != null; recording = recording.outer)
+        {
+            if (!recording.finished)
+            {
+                recording.loaded.add(pc);
+            }
+        }
+        invokeCallback(pc, JPACallbackDispatch.POST_LOAD);
     }
 
     /**
-     * Adds a new listener to this handler. 
-     * @param listener the listener instance.
-     * @param classes this parameter is ignored in this implementation  
+     * Method to start recording the objects whose fields are loaded from the datastore, until the returned recording is finished.
+     * Used by read-only queries to find the objects they loaded, without taking a copy of the persistence context beforehand.
+     * Recordings can be nested, in which case the objects are recorded by all active recordings.
+     * @return The recording
      */
-    public void addListener(Object listener, Class[] classes)
+    LoadRecording startLoadRecording()
     {
+        loadRecording = new LoadRecording(this, loadRecording);
+        return loadRecording;
     }
 
     /**
-     * Remove a listener for this handler.
-     * @param listener the listener instance
+     * Record of the objects loaded from the datastore while it is active (see JPACallbackHandler.startLoadRecording()).
      */
-    public void removeListener(Object listener)
+    static class LoadRecording
     {
-    }
+        final JPACallbackHandler handler;
+        final LoadRecording outer;
 
-    /**
-     * Clear any objects to release resources.
-     */
-    public void close()
-    {
-    }
+        /** The loaded objects, compared by identity (so regardless of any equals() of the entity). */
+        final Set<Object> loaded = Collections.newSetFromMap(new IdentityHashMap<>());
 
-    /**
-     * Method to invoke all listeners for a particular callback.
-     * @param pc The PC object causing the event
-     * @param callbackClass The callback type to call
-     */
-    private void invokeCallback(final Object pc, final Class callbackClass)
-    {
-        final ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        boolean finished = false;
 
-        AbstractClassMetaData acmd = ec.getMetaDataManager().getMetaDataForClass(pc.getClass(), clr);
-        try
+        LoadRecording(JPACallbackHandler handler, LoadRecording outer)
         {
-            if (!acmd.isExcludeDefaultListeners())
-            {
-                // Global listeners for all classes
-                List<EventListenerMetaData> listenerMetaData = ((JPAMetaDataManager)ec.getMetaDataManager()).getEventListeners();
-                if (listenerMetaData != null && !listenerMetaData.isEmpty())
-                {
-                    // Files have listeners so go through them in the same order
-                    Iterator<EventListenerMetaData> listenerIter = listenerMetaData.iterator();
-                    while (listenerIter.hasNext())
-                    {
-                        EventListenerMetaData elmd = listenerIter.next();
-                        Class listenerClass = clr.classForName(elmd.getClassName());
-                        String methodName = elmd.getMethodNameForCallbackClass(callbackClass.getName());
-                        if (methodName != null)
-                        {
-                            // Separate listener class taking the PC object as input
-                            Object listener = getListenerInstance(listenerClass);
-                            invokeCallbackMethod(listener, methodName, pc, clr);
-                        }
-                    }
-                }
-            }
-
-            // Class listeners for this class
-            List<String> entityMethodsToInvoke = null;
-            while (acmd != null)
-            {
-                List<EventListenerMetaData> listenerMetaData = acmd.getListeners();
-                if (listenerMetaData != null && !listenerMetaData.isEmpty())
-                {
-                    // Class has listeners so go through them in the same order
-                    Iterator<EventListenerMetaData> listenerIter = listenerMetaData.iterator();
-                    while (listenerIter.hasNext())
-                    {
-                        EventListenerMetaData elmd = listenerIter.next();
-                        Class listenerClass = clr.classForName(elmd.getClassName());
-                        String methodName = elmd.getMethodNameForCallbackClass(callbackClass.getName());
-                        if (methodName != null)
-                        {
-                            if (elmd.getClassName().equals(acmd.getFullClassName()))
-                            {
-                                // Class itself is the listener
-                                if (entityMethodsToInvoke == null)
-                                {
-                                    entityMethodsToInvoke = new ArrayList<String>();
-                                }
-                                if (!entityMethodsToInvoke.contains(methodName))
-                                {
-                                    // Only add the method if is not already present (allows for inherited listener methods)
-                                    entityMethodsToInvoke.add(methodName);
-                                }
-                            }
-                            else
-                            {
-                                // Separate listener class taking the PC object as input
-                                Object listener = getListenerInstance(listenerClass);
-                                invokeCallbackMethod(listener, methodName, pc, clr);
-                            }
-                        }
-                    }
-                    if (acmd.isExcludeSuperClassListeners())
-                    {
-                        break;
-                    }
-                }
-
-                // Move up to superclass
-                acmd = acmd.getSuperAbstractClassMetaData();
-            }
+            this.handler = handler;
+            this.outer = outer;
+        }
 
-            if (entityMethodsToInvoke != null && !entityMethodsToInvoke.isEmpty())
+        /**
+         * Method to stop recording. Has no effect if already finished.
+         * @return The objects loaded while recording
+         */
+        Set<Object> finish()
+        {
+            if (!finished)
             {
-                // Invoke all listener methods on the entity
-                for (int i=0;i<entityMethodsToInvoke.size();i++)
+                finished = true;
+                if (handler.loadRecording == this)
                 {
-                    String methodName = entityMethodsToInvoke.get(i);
-                    invokeCallbackMethod(pc, methodName, clr);
+                    handler.loadRecording = outer;
                 }
             }
-        }
-        catch (SecurityException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (IllegalArgumentException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (IllegalAccessException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (InstantiationException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (NoSuchMethodException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (InvocationTargetException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
+            return loaded;
         }
     }
 
     /**
-     * Method to invoke a method of a listener where the Entity is the listener.
-     * Means that the method invoked takes no arguments as input.
-     * @param listener Listener object
-     * @param methodName The method name
+     * Adds a new listener to this handler. 
+     * @param listener the listener instance.
+     * @param classes this parameter is ignored in this implementation  
      */
-    private void invokeCallbackMethod(final Object listener, final String methodName, ClassLoaderResolver clr)
+    public void addListener(Object listener, Class[] classes)
     {
-        final String callbackClassName = methodName.substring(0, methodName.lastIndexOf('.'));
-        final String callbackMethodName = methodName.substring(methodName.lastIndexOf('.')+1);
-        final Class callbackClass;
-        if (callbackClassName.equals(listener.getClass().getName()))
-        {
-            callbackClass = listener.getClass();
-        }
-        else
-        {
-            callbackClass = clr.classForName(callbackClassName);
-        }
-
-        try
-        {
-            Method m = callbackClass.getDeclaredMethod(callbackMethodName, (Class[])null);
-            if (!m.canAccess(listener))
-            {
-                m.setAccessible(true);
-            }
-            m.invoke(listener, (Object[])null);
-        }
-        catch (NoSuchMethodException | IllegalArgumentException | IllegalAccessException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (InvocationTargetException e)
-        {
-            if (e.getTargetException() instanceof RuntimeException)
-            {
-                throw (RuntimeException) e.getTargetException();
-            }
-            throw new RuntimeException(e.getTargetException());
-        }
     }
 
     /**
-     * Method to invoke a method of a listener where listener is a separate EntityListener (not an Entity).
-     * Means that the method invoked takes the object causing the event as input.
-     * @param listener Listener object
-     * @param methodName The method name
-     * @param obj The object causing the callback
+     * Remove a listener for this handler.
+     * @param listener the listener instance
      */
-    private void invokeCallbackMethod(final Object listener, final String methodName, final Object obj, ClassLoaderResolver clr)
+    public void removeListener(Object listener)
     {
-        final String callbackClassName = methodName.substring(0, methodName.lastIndexOf('.'));
-        final String callbackMethodName = methodName.substring(methodName.lastIndexOf('.')+1);
-        final Class callbackClass;
-        if (callbackClassName.equals(listener.getClass().getName()))
-        {
-            callbackClass = listener.getClass();
-        }
-        else
-        {
-            callbackClass = clr.classForName(callbackClassName);
-        }
-
-        try
-        {
-            try
-            {
-                Class[] argTypes = new Class[]{Object.class};
-                Object[] args = new Object[]{obj};
-                Method m = callbackClass.getDeclaredMethod(callbackMethodName, argTypes);
-                if (!m.canAccess(listener))
-                {
-                    m.setAccessible(true);
-                }
-                m.invoke(listener, args);
-            }
-            catch (NoSuchMethodException ex)
-            {
-                //either this method does not exist with the arguments, or is an interface type
-                //if interface type, the following block will solve it
-                Object[] args = new Object[]{obj};
-                Method[] methods = callbackClass.getDeclaredMethods();
-                for (int i=0; i<methods.length; i++)
-                {
-                    Method m = methods[i];
-                    if (m.getName().equals(callbackMethodName) && m.getParameterTypes().length == 1 && 
-                            m.getParameterTypes()[0].isAssignableFrom(obj.getClass()))
-                    {
-                        if (!m.canAccess(listener))
-                        {
-                            m.setAccessible(true);
-                        }
-                        m.invoke(listener, args);
-                        break;
-                    }
-                }
-            }
-        }
-        catch (IllegalArgumentException | IllegalAccessException e)
-        {
-            JPAEntityManagerFactory.LOGGER.debug("Exception in JPACallbackHandler", e);
-        }
-        catch (InvocationTargetException e)
-        {
-            if (e.getTargetException() instanceof RuntimeException)
-            {
-                throw (RuntimeException) e.getTargetException();
-            }
-            throw new RuntimeException(e.getTargetException());
-        }
     }
 
-    protected Object getListenerInstance(Class listenerCls) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
+    /**
+     * Clear any objects to release resources.
+     */
+    public void close()
     {
-        if (ec.getNucleusContext().getCDIHandler() != null)
-        {
-            try
-            {
-                return ec.getNucleusContext().getCDIHandler().createObjectWithInjectedDependencies(listenerCls);
-            }
-            catch (Exception e)
-            {
-                NucleusLogger.PERSISTENCE.warn("Error creating listener of type " + listenerCls.getName() + " using CDI BeanHandler", e);
-            }
-        }
+    }
 
-        // Return stateless listener
-        return listenerCls.getDeclaredConstructor().newInstance();
+    /**
+     * Method to invoke all listeners for a particular callback.
+     * The listeners are resolved once per class into a {@link JPACallbackDispatch}, cached by the metadata manager.
+     * @param pc The PC object causing the event
+     * @param callbackType The callback type to call (index in JPACallbackDispatch)
+     */
+    private void invokeCallback(final Object pc, final int callbackType)
+    {
+        JPACallbackDispatch.getDispatchForClass(ec, pc.getClass()).invoke(pc, callbackType);
     }
-}
\ No newline at end of file
+}
@@ -136,6 +136,55 @@ public class JPAEntityGraph<T> extends AbstractJPAGraph<T> implements EntityGrap
         return subclassSubgraphsByType;
     }
 
+    @Override
+    protected int getDepth()
+    {
+        if (includeAllAttributes)
+        {
+            return 1;
+        }
+        return Math.max(super.getDepth(), getDepth(getSubclassSubgraphs()));
+    }
+
+    /**
+     * Accessor for the max fetch depth to use so that all levels of this graph are fetched.
+     * @param maxFetchDepth The current max fetch depth of the fetch plan (-1 meaning unlimited)
+     * @return The max fetch depth to use
+     */
+    public int getMaxFetchDepth(int maxFetchDepth)
+    {
+        if (maxFetchDepth < 0)
+        {
+            return maxFetchDepth;
+        }
+        return Math.max(maxFetchDepth, getDepth());
+    }
+
+    /**
+     * Accessor for a canonical form of the structure of this graph, excluding its name.
+     * Graphs with the same type, attributes and (subclass) subgraphs have the same canonical form, so can share the same FetchGroups.
+     * @return The canonical form
+     */
+    public String getCanonicalForm()
+    {
+        StringBuilder str = new StringBuilder();
+        if (includeAllAttributes)
+        {
+            str.append(classType.getName()).append("[*]");
+        }
+        else
+        {
+            appendCanonicalForm(str);
+            if (subclassSubgraphsByType != null && !subclassSubgraphsByType.isEmpty())
+            {
+                str.append("<");
+                appendCanonicalForm(str, subclassSubgraphsByType);
+                str.append(">");
+            }
+        }
+        return str.toString();
+    }
+
     public String toString()
     {
         StringBuilder str = new StringBuilder("Graph(");
@@ -21,12 +21,18 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.api.jpa;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityGraph;
@@ -76,6 +82,7 @@ import org.datanucleus.metadata.StoredProcQueryParameterMetaData;
 import org.datanucleus.metadata.TransactionType;
 import org.datanucleus.state.LockMode;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.state.LifeCycleState;
 import org.datanucleus.store.NucleusConnection;
 import org.datanucleus.store.query.AbstractStoredProcedureQuery;
 import org.datanucleus.store.query.compiler.QueryCompilation;
@@ -88,6 +95,11 @@ import org.datanucleus.util.StringUtils;
  */
 public class JPAEntityManager implements EntityManager
 {
+    /** Property for the number of objects retrieved from the datastore in a single call by findAll. */
+    public static final String PROPERTY_FIND_ALL_BATCH_SIZE = "datanucleus.findAll.batchSize";
+
+    private static final int FIND_ALL_BATCH_SIZE_DEFAULT = 500;
+
     protected boolean closed = false;
 
     /** The underlying ExecutionContext managing the persistence. */
@@ -110,6 +122,15 @@ public class JPAEntityManager implements EntityManager
     /** Fetch Plan (extension). */
     protected JPAFetchPlan fetchPlan = null;
 
+    /** Limit on the number of entities in the persistence context, when "datanucleus.jpa.maxManagedObjects" is set. */
+    private ManagedObjectLimit managedObjectLimit = null;
+
+    /** Comma-separated names of classes whose instances are not released by the managedObjectLimit. */
+    private String managedObjectRetainedClasses = null;
+
+    /** Executor for asynchronous operations of this EntityManager, running them one at a time. Created on first use. */
+    private Executor asyncExecutor = null;
+
     /**
      * Constructor.
      * @param theEMF The parent EntityManagerFactory
@@ -140,6 +161,11 @@ public class JPAEntityManager implements EntityManager
         }
 
         fetchPlan = new JPAFetchPlan(ec.getFetchPlan());
+
+        Configuration conf = nucleusCtx.getConfiguration();
+        managedObjectRetainedClasses = conf.getStringProperty(JPAPropertyNames.PROPERTY_JPA_MAX_MANAGED_OBJECTS_RETAINED_CLASSES);
+        ManagedObjectLimit.getRetainedClasses(ec.getClassLoaderResolver(), managedObjectRetainedClasses); // Fail now for an invalid class, even with no limit set yet
+        setManagedObjectLimit(conf.getIntProperty(JPAPropertyNames.PROPERTY_JPA_MAX_MANAGED_OBJECTS));
     }
 
     /**
@@ -152,6 +178,10 @@ public class JPAEntityManager implements EntityManager
         ec.detachAll();
         ec.clearDirty();
         ec.evictAllObjects();
+        if (managedObjectLimit != null)
+        {
+            managedObjectLimit.clear();
+        }
     }
 
     public boolean isContainerManaged()
@@ -193,6 +223,7 @@ public class JPAEntityManager implements EntityManager
         }
 
         fetchPlan = null;
+        asyncExecutor = null;
         ec = null;
         emf = null;
 
@@ -279,6 +310,8 @@ public class JPAEntityManager implements EntityManager
 
     /**
      * Method to return the persistent object of the specified entity type with the provided PK.
+     * If the property "datanucleus.query.readOnly" is true (and no lock is specified) then an object that was not already
+     * managed is returned detached, so it is not held in the persistence context.
      * @param entityClass Entity type
      * @param primaryKey PK. Can be an instanceof the PK type, or the key when using single-field
      * @param lock Any locking to apply
@@ -293,38 +326,15 @@ public class JPAEntityManager implements EntityManager
         assertEntity(entityClass);
 
         Object pc;
-        String tmpEntityGraphName = null;
+        int maxFetchDepth = ec.getFetchPlan().getMaxFetchDepth();
         try
         {
             boolean fetchGraphSpecified = false;
+            boolean readOnly = false;
             if (properties != null)
             {
-                if (properties.containsKey(JPAEntityGraph.FETCHGRAPH_PROPERTY))
-                {
-                    EntityGraph eg = (EntityGraph) properties.get(JPAEntityGraph.FETCHGRAPH_PROPERTY);
-                    String egName = eg.getName();
-                    if (eg.getName() == null)
-                    {
-                        tmpEntityGraphName = emf.getDefinedEntityGraphName();
-                        emf.registerEntityGraph((JPAEntityGraph) eg, tmpEntityGraphName);
-                        egName = tmpEntityGraphName;
-                    }
-                    ec.getFetchPlan().setGroup(egName);
-                    fetchGraphSpecified = true;
-                }
-                if (properties.containsKey(JPAEntityGraph.LOADGRAPH_PROPERTY))
-                {
-                    EntityGraph eg = (EntityGraph) properties.get(JPAEntityGraph.LOADGRAPH_PROPERTY);
-                    String egName = eg.getName();
-                    if (eg.getName() == null)
-                    {
-                        tmpEntityGraphName = emf.getDefinedEntityGraphName();
-                        emf.registerEntityGraph((JPAEntityGraph) eg, tmpEntityGraphName);
-                        egName = tmpEntityGraphName;
-                    }
-                    ec.getFetchPlan().addGroup(egName);
-                    fetchGraphSpecified = true;
-                }
+                fetchGraphSpecified = applyEntityGraphProperties(properties);
+                readOnly = (lock == null || lock == LockModeType.NONE) && isReadOnlyProperty(properties);
                 ec.setProperties(properties);
             }
 
@@ -334,31 +344,18 @@ public class JPAEntityManager implements EntityManager
                 throwException(new EntityNotFoundException());
             }
 
+            if (readOnly && ec.getObjectFromCache(getIdentityForPrimaryKey(cmd, entityClass, primaryKey)) != null)
+            {
+                // Already managed, so return the managed object as normal
+                readOnly = false;
+            }
+
             try
             {
                 if (lock != null && lock != LockModeType.NONE)
                 {
                     // Get the identity so that we can lock it
-                    Object id = primaryKey;
-                    if (cmd.getIdentityType() == IdentityType.DATASTORE)
-                    {
-                        if (!IdentityUtils.isDatastoreIdentity(id))
-                        {
-                            id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), primaryKey);
-                        }
-                    }
-                    else if (!primaryKey.getClass().getName().equals(cmd.getObjectidClass()))
-                    {
-                        // primaryKey is just the key (when using single-field identity), so create a PK object
-                        try
-                        {
-                            id = ec.newObjectId(entityClass, primaryKey);
-                        }
-                        catch (NucleusException ne)
-                        {
-                            throw new IllegalArgumentException(ne);
-                        }
-                    }
+                    Object id = getIdentityForPrimaryKey(cmd, entityClass, primaryKey);
 
                     // Register the object for locking
                     ec.getLockManager().lock(id, getLockModeForJPALockModeType(lock));
@@ -395,16 +392,344 @@ public class JPAEntityManager implements EntityManager
                     }
                 }
             }
+
+            if (readOnly && pc != null)
+            {
+                JPAQuery.releaseResults(ec, Collections.singletonList(pc));
+            }
+            else if (managedObjectLimit != null)
+            {
+                managedObjectLimit.managed(pc);
+            }
         }
         finally
         {
-            if (tmpEntityGraphName != null)
+            ec.getFetchPlan().setGroup(FetchPlan.DEFAULT);
+            ec.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
+        }
+        return (T)pc;
+    }
+
+    /**
+     * Method to return the persistent objects of the specified entity type with the provided PKs.
+     * This is a DataNucleus extension, accessible by unwrapping the EntityManager as JPAEntityManager.
+     * Any objects present in the L1/L2 caches are returned from there, and the remainder are retrieved from the datastore in batches,
+     * with the batch size controllable using the property "datanucleus.findAll.batchSize".
+     * Any entity graph specified in the properties is applied once for all objects.
+     * @param entityClass Entity type
+     * @param primaryKeys PKs. Each can be an instanceof the PK type, or the key when using single-field
+     * @param properties Any optional properties to control the operation
+     * @return The objects, in the same order as the provided PKs, with null for any PK that has no object
+     * @throws IllegalArgumentException if the first argument does not denote an entity type or any PK is null or not a valid type for that entity's primary key
+     * @param <T> Type of the persistable
+     */
+    public <T> List<T> findAll(Class<T> entityClass, Collection<?> primaryKeys, Map<String, Object> properties)
+    {
+        assertIsOpen();
+        assertEntity(entityClass);
+        if (primaryKeys == null)
+        {
+            throw new IllegalArgumentException("Primary keys to find must be specified");
+        }
+
+        int maxFetchDepth = ec.getFetchPlan().getMaxFetchDepth();
+        try
+        {
+            boolean fetchGraphSpecified = false;
+            int batchSize = FIND_ALL_BATCH_SIZE_DEFAULT;
+            if (properties != null)
+            {
+                fetchGraphSpecified = applyEntityGraphProperties(properties);
+
+                Object batchSizeValue = properties.get(PROPERTY_FIND_ALL_BATCH_SIZE);
+                if (batchSizeValue instanceof Number)
+                {
+                    batchSize = ((Number)batchSizeValue).intValue();
+                }
+                else if (batchSizeValue instanceof String)
+                {
+                    try
+                    {
+                        batchSize = Integer.parseInt(((String)batchSizeValue).trim());
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                        throw new IllegalArgumentException("Property '" + PROPERTY_FIND_ALL_BATCH_SIZE + "' value=" + batchSizeValue + " invalid", nfe);
+                    }
+                }
+                if (batchSize <= 0)
+                {
+                    throw new IllegalArgumentException("Property " + PROPERTY_FIND_ALL_BATCH_SIZE + " must be positive but is " + batchSizeValue);
+                }
+                ec.setProperties(properties);
+            }
+
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(entityClass, ec.getClassLoaderResolver());
+            if (cmd == null)
             {
-                emf.deregisterEntityGraph(tmpEntityGraphName);
+                throwException(new EntityNotFoundException());
             }
+
+            Object[] ids = new Object[primaryKeys.size()];
+            int i = 0;
+            for (Object primaryKey : primaryKeys)
+            {
+                if (primaryKey == null)
+                {
+                    throw new IllegalArgumentException("Primary key at position " + i + " is null");
+                }
+                ids[i++] = getIdentityForPrimaryKey(cmd, entityClass, primaryKey);
+            }
+
+            List<T> results = new ArrayList<>(ids.length);
+            for (int start = 0; start < ids.length; start += batchSize)
+            {
+                Object[] batchIds = Arrays.copyOfRange(ids, start, Math.min(start + batchSize, ids.length));
+                // Find without validation (so a missing object doesn't fail the batch), then check those not yet read together
+                Object[] batchPCs = ec.findObjectsById(batchIds, false);
+                removeMissingObjects(cmd, batchPCs);
+
+                for (Object pc : batchPCs)
+                {
+                    if (pc != null)
+                    {
+                        if (ec.getApiAdapter().isTransactional(pc) && ec.getApiAdapter().isDeleted(pc))
+                        {
+                            // transactional instances are not validated, so we check if a deleted instance has been flushed
+                            try
+                            {
+                                ec.findStateManager(pc).locate();
+                            }
+                            catch (NucleusObjectNotFoundException ex)
+                            {
+                                pc = null;
+                            }
+                        }
+                        if (pc != null && fetchGraphSpecified)
+                        {
+                            // Force loading of FetchPlan fields of primary object since entity graph specified
+                            ec.findStateManager(pc).loadUnloadedFieldsInFetchPlan();
+                        }
+                    }
+                    results.add((T)pc);
+                }
+            }
+            if (JPALazyLoadGroup.isBatchLoaded(ec, entityClass))
+            {
+                JPALazyLoadGroup.register(ec, results);
+            }
+            return results;
+        }
+        catch (NucleusException ne)
+        {
+            throw JPAAdapter.getJPAExceptionForNucleusException(ne);
+        }
+        finally
+        {
             ec.getFetchPlan().setGroup(FetchPlan.DEFAULT);
+            ec.getFetchPlan().setMaxFetchDepth(maxFetchDepth);
         }
-        return (T)pc;
+    }
+
+    /**
+     * Accessor for the executor running the asynchronous operations of this EntityManager.
+     * Operations run one at a time in the order submitted, on the executor of the EntityManagerFactory (see JPAEntityManagerFactory.getAsyncExecutor()),
+     * so the underlying persistence context is never used by two threads at once.
+     * This is a DataNucleus extension, accessible by unwrapping the EntityManager as JPAEntityManager.
+     * @return The executor
+     */
+    public synchronized Executor getAsyncExecutor()
+    {
+        assertIsOpen();
+        if (asyncExecutor == null)
+        {
+            asyncExecutor = new SerialExecutor(emf.getAsyncExecutor());
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Method to find the persistent object of the specified entity type with the provided PK asynchronously.
+     * This is a DataNucleus extension, accessible by unwrapping the EntityManager as JPAEntityManager.
+     * The EntityManager should not be used directly until the returned future has completed.
+     * @param entityClass Entity type
+     * @param primaryKey PK. Can be an instanceof the PK type, or the key when using single-field
+     * @return Future for the object, completing with null if the entity does not exist
+     * @param <T> Type of the persistable
+     */
+    public <T> CompletableFuture<T> findAsync(Class<T> entityClass, Object primaryKey)
+    {
+        return findAsync(entityClass, primaryKey, null);
+    }
+
+    /**
+     * Method to find the persistent object of the specified entity type with the provided PK asynchronously, using the specified properties.
+     * This is a DataNucleus extension, accessible by unwrapping the EntityManager as JPAEntityManager.
+     * The EntityManager should not be used directly until the returned future has completed.
+     * @param entityClass Entity type
+     * @param primaryKey PK. Can be an instanceof the PK type, or the key when using single-field
+     * @param properties standard and vendor-specific properties
+     * @return Future for the object, completing with null if the entity does not exist
+     * @param <T> Type of the persistable
+     */
+    public <T> CompletableFuture<T> findAsync(final Class<T> entityClass, final Object primaryKey, final Map<String, Object> properties)
+    {
+        assertIsOpen();
+        return CompletableFuture.supplyAsync(new Supplier<T>()
+        {
+            public T get()
+            {
+                return find(entityClass, primaryKey, null, properties);
+            }
+        }, getAsyncExecutor());
+    }
+
+    /**
+     * Convenience method to apply any fetch/load graph defined in the provided properties to the FetchPlan of the ExecutionContext.
+     * The max fetch depth is raised where needed so that all levels of the graph are fetched.
+     * @param properties The properties
+     * @return Whether an entity graph was specified
+     */
+    private boolean applyEntityGraphProperties(Map<String, Object> properties)
+    {
+        boolean fetchGraphSpecified = false;
+        if (properties.containsKey(JPAEntityGraph.FETCHGRAPH_PROPERTY))
+        {
+            JPAEntityGraph eg = (JPAEntityGraph) properties.get(JPAEntityGraph.FETCHGRAPH_PROPERTY);
+            ec.getFetchPlan().setGroup(emf.getFetchGroupNameForEntityGraph(eg));
+            ec.getFetchPlan().setMaxFetchDepth(eg.getMaxFetchDepth(ec.getFetchPlan().getMaxFetchDepth()));
+            fetchGraphSpecified = true;
+        }
+        if (properties.containsKey(JPAEntityGraph.LOADGRAPH_PROPERTY))
+        {
+            JPAEntityGraph eg = (JPAEntityGraph) properties.get(JPAEntityGraph.LOADGRAPH_PROPERTY);
+            ec.getFetchPlan().addGroup(emf.getFetchGroupNameForEntityGraph(eg));
+            ec.getFetchPlan().setMaxFetchDepth(eg.getMaxFetchDepth(ec.getFetchPlan().getMaxFetchDepth()));
+            fetchGraphSpecified = true;
+        }
+        return fetchGraphSpecified;
+    }
+
+    /**
+     * Convenience method to return whether the provided properties specify "datanucleus.query.readOnly" as true.
+     * @param properties The properties
+     * @return Whether read-only
+     */
+    private static boolean isReadOnlyProperty(Map<String, Object> properties)
+    {
+        for (Map.Entry<String, Object> entry : properties.entrySet())
+        {
+            if (entry.getKey() != null && entry.getKey().toLowerCase().equals(JPAQuery.QUERY_HINT_READ_ONLY))
+            {
+                Object value = entry.getValue();
+                return value instanceof Boolean ? (Boolean)value : (value instanceof String && Boolean.valueOf((String)value));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to check that the provided objects, found without validation, exist in the datastore, replacing any that don't with null.
+     * Objects not yet read from the datastore (hollow) are selected (with the fetch plan) in one query by primary key when the class has
+     * a single primary key field, and otherwise are located individually. Any that don't exist are evicted from the persistence context.
+     * @param cmd Metadata for the class of the objects
+     * @param pcs The objects
+     */
+    private void removeMissingObjects(AbstractClassMetaData cmd, Object[] pcs)
+    {
+        List<Integer> unread = new ArrayList<>();
+        for (int i = 0; i < pcs.length; i++)
+        {
+            DNStateManager sm = (pcs[i] != null) ? ec.findStateManager(pcs[i]) : null;
+            if (sm != null && sm.getLifecycleState().stateType() == LifeCycleState.HOLLOW)
+            {
+                unread.add(i);
+            }
+        }
+        if (unread.isEmpty())
+        {
+            return;
+        }
+
+        Set<Object> existing = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (cmd.getIdentityType() == IdentityType.APPLICATION && cmd.usesSingleFieldIdentityClass())
+        {
+            String pkName = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]).getName();
+            List<Object> keys = new ArrayList<>(unread.size());
+            for (int i : unread)
+            {
+                keys.add(IdentityUtils.getTargetKeyForSingleFieldIdentity(ec.getApiAdapter().getIdForObject(pcs[i])));
+            }
+            org.datanucleus.store.query.Query query = ec.getStoreManager().newQuery(QueryLanguage.JPQL.name(), ec,
+                "SELECT dnFind FROM " + cmd.getEntityName() + " dnFind WHERE dnFind." + pkName + " IN :keys");
+            try
+            {
+                Map<String, Object> params = new HashMap<>();
+                params.put("keys", keys);
+                existing.addAll((Collection)query.executeWithMap(params));
+            }
+            finally
+            {
+                query.closeAll();
+            }
+        }
+        else
+        {
+            for (int i : unread)
+            {
+                try
+                {
+                    ec.findStateManager(pcs[i]).locate();
+                    existing.add(pcs[i]);
+                }
+                catch (NucleusObjectNotFoundException onfe)
+                {
+                    // Doesn't exist
+                }
+            }
+        }
+
+        for (int i : unread)
+        {
+            if (!existing.contains(pcs[i]))
+            {
+                ec.evictObject(pcs[i]);
+                pcs[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Convenience method to return the identity for the provided primary key of the specified entity type.
+     * @param cmd Metadata for the entity
+     * @param entityClass Entity type
+     * @param primaryKey PK. Can be an instanceof the PK type, or the key when using single-field
+     * @return The identity
+     * @throws IllegalArgumentException if the primary key is not valid for this entity type
+     */
+    private Object getIdentityForPrimaryKey(AbstractClassMetaData cmd, Class entityClass, Object primaryKey)
+    {
+        Object id = primaryKey;
+        if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        {
+            if (!IdentityUtils.isDatastoreIdentity(id))
+            {
+                id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), primaryKey);
+            }
+        }
+        else if (!primaryKey.getClass().getName().equals(cmd.getObjectidClass()))
+        {
+            // primaryKey is just the key (when using single-field identity), so create a PK object
+            try
+            {
+                id = ec.newObjectId(entityClass, primaryKey);
+            }
+            catch (NucleusException ne)
+            {
+                throw new IllegalArgumentException(ne);
+            }
+        }
+        return id;
     }
 
     /**
@@ -474,6 +799,11 @@ public class JPAEntityManager implements EntityManager
         {
             return (T)ec.getStoreManager().getNucleusConnection(ec);
         }
+        if (cls.isInstance(this))
+        {
+            // Provide access to DataNucleus extensions e.g findAll
+            return (T) this;
+        }
 
         return (T)throwException(new PersistenceException("We don't support accessing object of type " + cls.getName() + " using unwrap() method"));
     }
@@ -622,6 +952,10 @@ public class JPAEntityManager implements EntityManager
         try
         {
             ec.persistObject(entity, false);
+            if (managedObjectLimit != null)
+            {
+                managedObjectLimit.managed(entity);
+            }
         }
         catch (NucleusException ne)
         {
@@ -650,6 +984,13 @@ public class JPAEntityManager implements EntityManager
         try
         {
             ec.persistObjects(entities);
+            if (managedObjectLimit != null)
+            {
+                for (Object entity : entities)
+                {
+                    managedObjectLimit.managed(entity);
+                }
+            }
         }
         catch (NucleusException ne)
         {
@@ -691,7 +1032,12 @@ public class JPAEntityManager implements EntityManager
 
         try
         {
-            return ec.persistObject(entity, true);
+            Object merged = ec.persistObject(entity, true);
+            if (managedObjectLimit != null)
+            {
+                managedObjectLimit.managed(merged);
+            }
+            return merged;
         }
         catch (NucleusException ne)
         {
@@ -719,7 +1065,15 @@ public class JPAEntityManager implements EntityManager
 
         try
         {
-            return ec.persistObjects(entities);
+            Object[] merged = ec.persistObjects(entities);
+            if (managedObjectLimit != null)
+            {
+                for (Object pc : merged)
+                {
+                    managedObjectLimit.managed(pc);
+                }
+            }
+            return merged;
         }
         catch (NucleusException ne)
         {
@@ -1064,7 +1418,16 @@ public class JPAEntityManager implements EntityManager
         CriteriaQueryImpl<T> criteria = (CriteriaQueryImpl<T>)cq;
         String jpqlString = criteria.toString();
         TypedQuery<T> query = null;
-        QueryCompilation compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+        String fingerprint = criteria.getFingerprint();
+        QueryCompilation compilation = (fingerprint != null) ? emf.getCriteriaCompilation(fingerprint) : null;
+        if (compilation == null)
+        {
+            compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+            if (fingerprint != null)
+            {
+                emf.addCriteriaCompilation(fingerprint, compilation);
+            }
+        }
         if (criteria.getResultType() != null && criteria.getResultType() != compilation.getCandidateClass())
         {
             query = createQuery(jpqlString, criteria.getResultType());
@@ -1080,6 +1443,7 @@ public class JPAEntityManager implements EntityManager
             internalQuery.setResult(null);
         }
         internalQuery.setCompilation(compilation);
+        setLiteralParameterValues(internalQuery, criteria.getLiteralParameterValues());
 
         return query;
     }
@@ -1088,10 +1452,20 @@ public class JPAEntityManager implements EntityManager
     {
         CriteriaUpdateImpl criteria = (CriteriaUpdateImpl)crit;
         String jpqlString = criteria.toString();
-        QueryCompilation compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+        String fingerprint = criteria.getFingerprint();
+        QueryCompilation compilation = (fingerprint != null) ? emf.getCriteriaCompilation(fingerprint) : null;
+        if (compilation == null)
+        {
+            compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+            if (fingerprint != null)
+            {
+                emf.addCriteriaCompilation(fingerprint, compilation);
+            }
+        }
         TypedQuery query = createQuery(jpqlString);
         org.datanucleus.store.query.Query internalQuery = ((JPAQuery)query).getInternalQuery();
         internalQuery.setCompilation(compilation);
+        setLiteralParameterValues(internalQuery, criteria.getLiteralParameterValues());
         return query;
     }
 
@@ -1099,13 +1473,36 @@ public class JPAEntityManager implements EntityManager
     {
         CriteriaDeleteImpl criteria = (CriteriaDeleteImpl)crit;
         String jpqlString = criteria.toString();
-        QueryCompilation compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+        String fingerprint = criteria.getFingerprint();
+        QueryCompilation compilation = (fingerprint != null) ? emf.getCriteriaCompilation(fingerprint) : null;
+        if (compilation == null)
+        {
+            compilation = criteria.getCompilation(ec.getMetaDataManager(), ec.getClassLoaderResolver());
+            if (fingerprint != null)
+            {
+                emf.addCriteriaCompilation(fingerprint, compilation);
+            }
+        }
         TypedQuery query = createQuery(jpqlString);
         org.datanucleus.store.query.Query internalQuery = ((JPAQuery)query).getInternalQuery();
         internalQuery.setCompilation(compilation);
+        setLiteralParameterValues(internalQuery, criteria.getLiteralParameterValues());
         return query;
     }
 
+    /**
+     * Method to bind the values of the parameters that were generated in place of literals of a criteria query.
+     * @param internalQuery The query
+     * @param paramValues The values, keyed by parameter name
+     */
+    private static void setLiteralParameterValues(org.datanucleus.store.query.Query internalQuery, Map<String, Object> paramValues)
+    {
+        for (Map.Entry<String, Object> paramEntry : paramValues.entrySet())
+        {
+            internalQuery.setImplicitParameter(paramEntry.getKey(), paramEntry.getValue());
+        }
+    }
+
     /**
      * Return an instance of QueryBuilder for the creation of Criteria API QueryDefinition objects.
      * @return QueryBuilder instance
@@ -1171,7 +1568,7 @@ public class JPAEntityManager implements EntityManager
                     internalQuery.addExtension(org.datanucleus.store.query.Query.EXTENSION_FLUSH_BEFORE_EXECUTION, Boolean.TRUE);
                 }
 
-                return new JPAQuery(this, internalQuery, qmd.getLanguage());
+                return newNamedQuery(internalQuery, qmd);
             }
 
             // "named-native-query" so return native query
@@ -1198,7 +1595,7 @@ public class JPAEntityManager implements EntityManager
                         internalQuery.addExtension(org.datanucleus.store.query.Query.EXTENSION_FLUSH_BEFORE_EXECUTION, Boolean.TRUE);
                     }
 
-                    return new JPAQuery(this, internalQuery, qmd.getLanguage());
+                    return newNamedQuery(internalQuery, qmd);
                 }
                 catch (Exception e)
                 {
@@ -1220,11 +1617,11 @@ public class JPAEntityManager implements EntityManager
                     internalQuery.addExtension(org.datanucleus.store.query.Query.EXTENSION_FLUSH_BEFORE_EXECUTION, Boolean.TRUE);
                 }
 
-                return new JPAQuery(this, internalQuery, qmd.getLanguage());
+                return newNamedQuery(internalQuery, qmd);
             }
             else
             {
-                return new JPAQuery(this, internalQuery, qmd.getLanguage());
+                return newNamedQuery(internalQuery, qmd);
             }
         }
         catch (NucleusException ne)
@@ -1233,6 +1630,19 @@ public class JPAEntityManager implements EntityManager
         }
     }
 
+    /**
+     * Convenience method to wrap the internal query of a named query, using the query name as its signature in the query statistics.
+     * @param internalQuery The internal query
+     * @param qmd Metadata for the named query
+     * @return The JPA query
+     */
+    private JPAQuery newNamedQuery(org.datanucleus.store.query.Query internalQuery, QueryMetaData qmd)
+    {
+        JPAQuery jpaQuery = new JPAQuery(this, internalQuery, qmd.getLanguage());
+        jpaQuery.signature = qmd.getName();
+        return jpaQuery;
+    }
+
     /**
      * Create an instance of Query for executing a native query statement.
      * @param queryString a native query string
@@ -1502,12 +1912,42 @@ public class JPAEntityManager implements EntityManager
     /**
      * Set an entity manager property.
      * If a vendor-specific property is not recognized, it is silently ignored.
+     * The DataNucleus properties "datanucleus.jpa.maxManagedObjects" and "datanucleus.jpa.maxManagedObjectsRetainedClasses" bound the number
+     * of entities held in the persistence context (see ManagedObjectLimit).
      * @param propertyName Name of the property
      * @param value The value
      * @throws IllegalArgumentException if the second argument is not valid for the implementation
      */
     public void setProperty(String propertyName, Object value)
     {
+        if (propertyName != null)
+        {
+            String name = propertyName.toLowerCase();
+            if (name.equals(JPAPropertyNames.PROPERTY_JPA_MAX_MANAGED_OBJECTS))
+            {
+                try
+                {
+                    setManagedObjectLimit((value instanceof Number) ? ((Number)value).intValue() : Integer.parseInt(((String)value).trim()));
+                    return;
+                }
+                catch (RuntimeException e)
+                {
+                    throw new IllegalArgumentException("Property '" + propertyName + "' value=" + value + " invalid");
+                }
+            }
+            else if (name.equals(JPAPropertyNames.PROPERTY_JPA_MAX_MANAGED_OBJECTS_RETAINED_CLASSES))
+            {
+                // Resolve the classes before accepting them, so an invalid class leaves the current setting
+                ManagedObjectLimit.getRetainedClasses(ec.getClassLoaderResolver(), (String)value);
+                managedObjectRetainedClasses = (String)value;
+                if (managedObjectLimit != null)
+                {
+                    setManagedObjectLimit(managedObjectLimit.getMaxManagedObjects());
+                }
+                return;
+            }
+        }
+
         try
         {
             ec.setProperty(propertyName, value);
@@ -1518,6 +1958,16 @@ public class JPAEntityManager implements EntityManager
         }
     }
 
+    /**
+     * Method to set the maximum number of entities held in the persistence context, replacing any previous limit.
+     * @param maxManagedObjects The maximum, or 0 for no limit
+     * @throws IllegalArgumentException if a retained class cannot be found
+     */
+    private void setManagedObjectLimit(int maxManagedObjects)
+    {
+        managedObjectLimit = (maxManagedObjects > 0) ? new ManagedObjectLimit(ec, maxManagedObjects, managedObjectRetainedClasses) : null;
+    }
+
     /**
      * Get the properties and associated values that are in effect for the entity manager. 
      * Changing the contents of the map does not change the configuration in effect.
@@ -24,20 +24,31 @@ import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 import javax.persistence.AttributeNode;
 import javax.persistence.Cache;
 import javax.persistence.EntityGraph;
@@ -56,6 +67,7 @@ import javax.persistence.spi.PersistenceUnitTransactionType;
 
 import org.datanucleus.AbstractNucleusContext;
 import org.datanucleus.ClassConstants;
+import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ClassLoaderResolverImpl;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.FetchGroup;
@@ -83,8 +95,10 @@ import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.connection.ConnectionResourceType;
 import org.datanucleus.store.query.cache.QueryCompilationCache;
 import org.datanucleus.store.query.cache.QueryDatastoreCompilationCache;
+import org.datanucleus.store.query.compiler.QueryCompilation;
 import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.util.Localiser;
+import org.datanucleus.util.StringUtils;
 
 /**
  * EntityManagerFactory implementation.
@@ -126,8 +140,29 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
 
     private transient Map<String, JPAEntityGraph> entityGraphsByName = null;
 
+    /** Name of the FetchGroups registered for unnamed EntityGraphs, keyed by the canonical form of the graph. */
+    private transient Map<String, String> unnamedEntityGraphFetchGroupNames = null;
+
     private transient JPAClassTransformer transformer = null;
 
+    /** Cache of generic compilations of criteria queries, keyed by the criteria fingerprint. Null if not caching. */
+    private transient Map<String, QueryCompilation> criteriaCompilationCache = null;
+
+    /** Executor for asynchronous operations of the EntityManagers, created on first use. */
+    private transient Executor asyncExecutor = null;
+
+    /** Whether the asyncExecutor was created by this EMF, so is shut down when this is closed. */
+    private transient boolean asyncExecutorOwned = false;
+
+    /** Statistics of the queries executed, when enabled. */
+    private transient JPAQueryStatistics queryStatistics = null;
+
+    /** Name under which the query statistics are registered with JMX, if registered. */
+    private transient ObjectName queryStatisticsObjectName = null;
+
+    /** Compile time (nanoseconds) of each named query precompiled when this EMF was created, keyed by query name. Null if not precompiled. */
+    private transient Map<String, Long> namedQueryCompileTimes = null;
+
     /** Flag for whether this EMF is managed by a container (whether it was created via JavaEE constructor). */
     private boolean containerManaged = false;
 
@@ -322,6 +357,24 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
 
         assertSingleton(unitMetaData.getName(), this);
 
+        initialiseCriteriaCompilationCache();
+        initialiseQueryStatistics();
+        unnamedEntityGraphFetchGroupNames = new ConcurrentHashMap<>();
+
+        if (nucleusCtx.getConfiguration().getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_PRECOMPILE_NAMED_QUERIES))
+        {
+            try
+            {
+                precompileNamedQueries();
+            }
+            catch (RuntimeException re)
+            {
+                // This EMF is not returned, so remove it as the singleton for its name and close its NucleusContext
+                close();
+                throw re;
+            }
+        }
+
         // Turn off loading of metadata from here if required
         boolean allowMetadataLoad = nucleusCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_ALLOW_LOAD_AT_RUNTIME);
         if (!allowMetadataLoad)
@@ -523,6 +576,24 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
 
         assertSingleton(pumd.getName(), this);
 
+        initialiseCriteriaCompilationCache();
+        initialiseQueryStatistics();
+        unnamedEntityGraphFetchGroupNames = new ConcurrentHashMap<>();
+
+        if (nucleusCtx.getConfiguration().getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_PRECOMPILE_NAMED_QUERIES))
+        {
+            try
+            {
+                precompileNamedQueries();
+            }
+            catch (RuntimeException re)
+            {
+                // This EMF is not returned, so remove it as the singleton for its name and close its NucleusContext
+                close();
+                throw re;
+            }
+        }
+
         // Turn off loading of metadata from here if required
         boolean allowMetadataLoad = nucleusCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_ALLOW_LOAD_AT_RUNTIME);
         if (!allowMetadataLoad)
@@ -585,6 +656,32 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
             entityGraphsToRegister.clear();
             entityGraphsToRegister = null;
         }
+        if (unnamedEntityGraphFetchGroupNames != null)
+        {
+            unnamedEntityGraphFetchGroupNames.clear();
+            unnamedEntityGraphFetchGroupNames = null;
+        }
+        criteriaCompilationCache = null;
+        namedQueryCompileTimes = null;
+        if (queryStatisticsObjectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(queryStatisticsObjectName);
+            }
+            catch (Exception e)
+            {
+                LOGGER.debug("Exception unregistering query statistics from JMX", e);
+            }
+            queryStatisticsObjectName = null;
+        }
+        queryStatistics = null;
+        if (asyncExecutorOwned)
+        {
+            ((ExecutorService)asyncExecutor).shutdown();
+            asyncExecutorOwned = false;
+        }
+        asyncExecutor = null;
 
         nucleusCtx.close();
         nucleusCtx = null;
@@ -634,6 +731,313 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
         return nucleusCtx.getStoreManager().getQueryManager().getQueryDatastoreCompilationCache();
     }
 
+    /**
+     * Accessor for the statistics of the queries executed by EntityManagers of this factory, enabled by the persistence property
+     * "datanucleus.jpa.queryStatistics" (or just logging slow queries when "datanucleus.jpa.slowQueryThreshold" is set).
+     * @return The query statistics, or null if not enabled
+     */
+    public JPAQueryStatistics getQueryStatistics()
+    {
+        return queryStatistics;
+    }
+
+    /**
+     * Method to create the query statistics if enabled by the persistence properties "datanucleus.jpa.queryStatistics" and/or
+     * "datanucleus.jpa.slowQueryThreshold" (ms), registering them with the platform MBean server if "datanucleus.jpa.queryStatisticsJmx" is set.
+     */
+    private void initialiseQueryStatistics()
+    {
+        Configuration conf = nucleusCtx.getConfiguration();
+        boolean recordStatistics = conf.getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_QUERY_STATISTICS);
+        long slowQueryThreshold = conf.getIntProperty(JPAPropertyNames.PROPERTY_JPA_SLOW_QUERY_THRESHOLD);
+        if (!recordStatistics && slowQueryThreshold <= 0)
+        {
+            return;
+        }
+
+        queryStatistics = new JPAQueryStatistics(recordStatistics, slowQueryThreshold);
+        if (recordStatistics && conf.getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_QUERY_STATISTICS_JMX))
+        {
+            try
+            {
+                String unitName = conf.getStringProperty(PropertyNames.PROPERTY_PERSISTENCE_UNIT_NAME);
+                ObjectName objName = new ObjectName("org.datanucleus.api.jpa:type=QueryStatistics,unit=" + ObjectName.quote(unitName != null ? unitName : "") +
+                    ",id=" + Integer.toHexString(System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(queryStatistics, objName);
+                queryStatisticsObjectName = objName;
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn(Localiser.msg("EMF.QueryStatisticsJMXFailed", e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the time taken to compile each named query when this EMF was created, when the persistence property
+     * "datanucleus.jpa.precompileNamedQueries" is set.
+     * @return Compile time in nanoseconds keyed by query name, or null if named queries were not precompiled
+     */
+    public Map<String, Long> getNamedQueryCompileTimes()
+    {
+        return namedQueryCompileTimes;
+    }
+
+    /**
+     * Method to compile all JPQL named queries defined in the metadata of this persistence-unit, so that their generic compilations
+     * are in the query compilation cache before first use and any invalid query is reported now rather than when first used.
+     * The queries are split across one thread per available processor, each with its own ExecutionContext since those are not thread-safe.
+     * @throws PersistenceException if any named query fails to compile, listing all failures
+     */
+    private void precompileNamedQueries()
+    {
+        // Collect the JPQL named queries, from entity metadata and from the orm.xml files, in a stable order
+        Map<String, QueryMetaData> namedQueries = new LinkedHashMap<>();
+        ClassLoaderResolver clr = nucleusCtx.getClassLoaderResolver(null);
+        Collection<String> classNames = nucleusCtx.getMetaDataManager().getClassesWithMetaData();
+        if (classNames != null)
+        {
+            for (String className : classNames)
+            {
+                AbstractClassMetaData cmd = nucleusCtx.getMetaDataManager().getMetaDataForClass(className, clr);
+                if (cmd != null)
+                {
+                    addJPQLNamedQueries(namedQueries, cmd.getQueries());
+                    if (cmd.getPackageMetaData() != null && cmd.getPackageMetaData().getFileMetaData() != null)
+                    {
+                        addJPQLNamedQueries(namedQueries, cmd.getPackageMetaData().getFileMetaData().getQueries());
+                    }
+                }
+            }
+        }
+        if (namedQueries.isEmpty())
+        {
+            namedQueryCompileTimes = Collections.emptyMap();
+            return;
+        }
+
+        final List<QueryMetaData> queries = new ArrayList<>(namedQueries.values());
+        final Map<String, Long> compileTimes = new ConcurrentHashMap<>();
+        final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        final int numThreads = Math.min(Runtime.getRuntime().availableProcessors(), queries.size());
+        long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>(numThreads);
+            for (int i=0;i<numThreads;i++)
+            {
+                final int threadNumber = i;
+                futures.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        ExecutionContext ec = nucleusCtx.getExecutionContext(null, null);
+                        try
+                        {
+                            for (int j=threadNumber;j<queries.size();j+=numThreads)
+                            {
+                                QueryMetaData qmd = queries.get(j);
+                                long queryStartTime = System.nanoTime();
+                                try
+                                {
+                                    org.datanucleus.store.query.Query query = nucleusCtx.getStoreManager().newQuery(qmd.getLanguage(), ec, qmd.getQuery());
+                                    query.compile();
+                                    compileTimes.put(qmd.getName(), System.nanoTime() - queryStartTime);
+                                }
+                                catch (RuntimeException e)
+                                {
+                                    failures.put(qmd.getName(), e);
+                                }
+                            }
+                        }
+                        finally
+                        {
+                            ec.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(Localiser.msg("EMF.NamedQueryPrecompileInterrupted"), ie);
+        }
+        catch (ExecutionException ee)
+        {
+            throw new PersistenceException(ee.getCause());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        // Report in the order of definition
+        Map<String, Long> orderedCompileTimes = new LinkedHashMap<>();
+        StringBuilder failureStr = new StringBuilder();
+        for (QueryMetaData qmd : queries)
+        {
+            Long compileTime = compileTimes.get(qmd.getName());
+            if (compileTime != null)
+            {
+                orderedCompileTimes.put(qmd.getName(), compileTime);
+                if (LOGGER.isDebugEnabled())
+                {
+                    LOGGER.debug(Localiser.msg("EMF.NamedQueryCompiled", qmd.getName(), compileTime / 1000000.0));
+                }
+            }
+            else
+            {
+                Throwable failure = failures.get(qmd.getName());
+                LOGGER.error(Localiser.msg("EMF.NamedQueryCompileFailed", qmd.getName(), qmd.getQuery(), failure.getMessage()), failure);
+                failureStr.append(failureStr.length() > 0 ? ", " : "").append(qmd.getName());
+            }
+        }
+        namedQueryCompileTimes = Collections.unmodifiableMap(orderedCompileTimes);
+        LOGGER.info(Localiser.msg("EMF.NamedQueriesPrecompiled", orderedCompileTimes.size(), queries.size(), numThreads, (System.nanoTime() - startTime) / 1000000));
+
+        if (failureStr.length() > 0)
+        {
+            throw new PersistenceException(Localiser.msg("EMF.NamedQueriesInvalid", failureStr.toString()));
+        }
+    }
+
+    private static void addJPQLNamedQueries(Map<String, QueryMetaData> namedQueries, QueryMetaData[] queries)
+    {
+        if (queries != null)
+        {
+            for (QueryMetaData qmd : queries)
+            {
+                if (QueryLanguage.JPQL.name().equals(qmd.getLanguage()) && !namedQueries.containsKey(qmd.getName()))
+                {
+                    namedQueries.put(qmd.getName(), qmd);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to create the cache of criteria query compilations, with the size defined by the persistence property
+     * "datanucleus.jpa.criteriaCompilationCacheSize" (defaulting to 500). A size of 0 turns off this caching.
+     */
+    private void initialiseCriteriaCompilationCache()
+    {
+        int cacheSize = nucleusCtx.getConfiguration().getIntProperty(JPAPropertyNames.PROPERTY_JPA_CRITERIA_COMPILATION_CACHE_SIZE);
+        if (cacheSize > 0)
+        {
+            final int maxEntries = cacheSize;
+            criteriaCompilationCache = Collections.synchronizedMap(new LinkedHashMap<String, QueryCompilation>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 3127549817463257341L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, QueryCompilation> eldest)
+                {
+                    return size() > maxEntries;
+                }
+            });
+        }
+    }
+
+    /**
+     * Accessor for the executor used to run the asynchronous operations of EntityManagers of this factory (e.g JPAQuery.getResultListAsync()).
+     * Each EntityManager runs its operations one at a time on this executor, so an executor allowing concurrent tasks is
+     * shared by all EntityManagers. Defined by the persistence property "datanucleus.jpa.asyncExecutor" as either an Executor
+     * or the name of an Executor class with a default constructor. Otherwise defaults to virtual threads where the JRE supports them,
+     * or to a cached pool of daemon threads.
+     * @return The executor
+     */
+    public synchronized Executor getAsyncExecutor()
+    {
+        assertIsClosed();
+        if (asyncExecutor == null)
+        {
+            Object executorValue = nucleusCtx.getConfiguration().getProperty(JPAPropertyNames.PROPERTY_JPA_ASYNC_EXECUTOR);
+            if (executorValue instanceof Executor)
+            {
+                asyncExecutor = (Executor)executorValue;
+            }
+            else if (executorValue instanceof String && !StringUtils.isWhitespace((String)executorValue))
+            {
+                try
+                {
+                    Class executorCls = nucleusCtx.getClassLoaderResolver(null).classForName(((String)executorValue).trim());
+                    asyncExecutor = (Executor)executorCls.getDeclaredConstructor().newInstance();
+                }
+                catch (Exception e)
+                {
+                    throw new PersistenceException("Unable to create async executor of type " + executorValue, e);
+                }
+            }
+            else
+            {
+                asyncExecutor = newDefaultAsyncExecutor();
+                asyncExecutorOwned = true;
+            }
+        }
+        return asyncExecutor;
+    }
+
+    private static ExecutorService newDefaultAsyncExecutor()
+    {
+        try
+        {
+            // Virtual threads are only available from Java 21, so look up reflectively
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            // Not available in this JRE
+        }
+        catch (Exception e)
+        {
+            LOGGER.debug("Unable to create virtual thread executor, so using platform threads", e);
+        }
+
+        // Daemon threads, so that pending work doesn't prevent JVM shutdown
+        return Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "DataNucleus-JPA-async-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Accessor for the cached generic compilation for a criteria query with the specified fingerprint.
+     * @param fingerprint Fingerprint of the criteria query (see CriteriaQueryImpl.getFingerprint())
+     * @return The compilation, or null if not cached
+     */
+    public QueryCompilation getCriteriaCompilation(String fingerprint)
+    {
+        Map<String, QueryCompilation> cache = criteriaCompilationCache;
+        return cache != null ? cache.get(fingerprint) : null;
+    }
+
+    /**
+     * Method to cache the generic compilation for a criteria query with the specified fingerprint.
+     * The least recently used compilation is dropped when the cache is full.
+     * @param fingerprint Fingerprint of the criteria query (see CriteriaQueryImpl.getFingerprint())
+     * @param compilation The generic compilation
+     */
+    public void addCriteriaCompilation(String fingerprint, QueryCompilation compilation)
+    {
+        Map<String, QueryCompilation> cache = criteriaCompilationCache;
+        if (cache != null && compilation != null)
+        {
+            cache.put(fingerprint, compilation);
+        }
+    }
+
     /**
      * Method to save the specified query under the provided name, so it can be used as a named query.
      * If there is already a named query of this name it is overwritten.
@@ -1186,59 +1590,61 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
     {
         assertIsClosed();
 
-        FetchGroup fg = new FetchGroup(nucleusCtx, graphName, eg.getClassType());
+        // Register a FetchGroup for each type in the graph, at any level, under the same fetch group name as this graph uses
+        Map<Class, FetchGroup> fetchGroupsByType = new HashMap<>();
         if (eg.getIncludeAllAttributes())
         {
+            FetchGroup fg = new FetchGroup(nucleusCtx, graphName, eg.getClassType());
             fg.addCategory(FetchGroup.ALL);
+            fetchGroupsByType.put(eg.getClassType(), fg);
         }
         else
         {
-            List<AttributeNode> graphNodes = eg.getAttributeNodes();
-            if (graphNodes != null)
+            addEntityGraphFetchGroups(fetchGroupsByType, graphName, eg);
+            for (Subgraph subclassSubgraph : (Collection<Subgraph>)eg.getSubclassSubgraphs().values())
             {
-                for (AttributeNode node : graphNodes)
-                {
-                    fg.addMember(node.getAttributeName());
-                    Map<Class, Subgraph> subgraphByTypeForNode = node.getSubgraphs();
-                    if (!subgraphByTypeForNode.isEmpty())
-                    {
-                        // Add FetchGroup for the subgraph type under the same fetch group name as this graph uses
-                        for (Map.Entry<Class, Subgraph> subgraphEntry : subgraphByTypeForNode.entrySet())
-                        {
-                            FetchGroup subFG = new FetchGroup(nucleusCtx, graphName, subgraphEntry.getKey());
-                            List<AttributeNode> subgraphNodes = subgraphEntry.getValue().getAttributeNodes();
-                            if (subgraphNodes != null)
-                            {
-                                for (AttributeNode subNode : subgraphNodes)
-                                {
-                                    subFG.addMember(subNode.getAttributeName());
-                                }
-                            }
-                            nucleusCtx.getFetchGroupManager().addFetchGroup(subFG);
-                        }
-                    }
-                }
+                addEntityGraphFetchGroups(fetchGroupsByType, graphName, subclassSubgraph);
             }
-            Map<Class, Subgraph> subclassSubgraphs = eg.getSubclassSubgraphs();
-            if (subclassSubgraphs != null && !subclassSubgraphs.isEmpty())
+        }
+
+        for (FetchGroup fg : fetchGroupsByType.values())
+        {
+            nucleusCtx.getFetchGroupManager().addFetchGroup(fg);
+        }
+    }
+
+    /**
+     * Method to add the attributes of the provided (sub)graph to the FetchGroup for its type, and recurse into its subgraphs and key subgraphs.
+     * Where a type appears at more than one level of the graph the FetchGroup for that type has the attributes of all levels.
+     * @param fetchGroupsByType The FetchGroups so far, keyed by type
+     * @param graphName Name of the FetchGroups
+     * @param graph The graph
+     */
+    private void addEntityGraphFetchGroups(Map<Class, FetchGroup> fetchGroupsByType, String graphName, Subgraph<?> graph)
+    {
+        FetchGroup fg = fetchGroupsByType.get(graph.getClassType());
+        if (fg == null)
+        {
+            fg = new FetchGroup(nucleusCtx, graphName, graph.getClassType());
+            fetchGroupsByType.put(graph.getClassType(), fg);
+        }
+
+        List<AttributeNode<?>> graphNodes = graph.getAttributeNodes();
+        if (graphNodes != null)
+        {
+            for (AttributeNode<?> node : graphNodes)
             {
-                // Add FetchGroup for the subclass type under the same fetch group name as this graph uses
-                for (Map.Entry<Class, Subgraph> subclassEntry : subclassSubgraphs.entrySet())
+                fg.addMember(node.getAttributeName());
+                for (Subgraph subgraph : node.getSubgraphs().values())
                 {
-                    FetchGroup subFG = new FetchGroup(nucleusCtx, graphName, subclassEntry.getKey());
-                    List<AttributeNode> subgraphNodes = subclassEntry.getValue().getAttributeNodes();
-                    if (subgraphNodes != null)
-                    {
-                        for (AttributeNode subNode : subgraphNodes)
-                        {
-                            subFG.addMember(subNode.getAttributeName());
-                        }
-                    }
-                    nucleusCtx.getFetchGroupManager().addFetchGroup(subFG);
+                    addEntityGraphFetchGroups(fetchGroupsByType, graphName, subgraph);
+                }
+                for (Subgraph subgraph : node.getKeySubgraphs().values())
+                {
+                    addEntityGraphFetchGroups(fetchGroupsByType, graphName, subgraph);
                 }
             }
         }
-        nucleusCtx.getFetchGroupManager().addFetchGroup(fg);
     }
 
     public void deregisterEntityGraph(String graphName)
@@ -1255,11 +1661,36 @@ public class JPAEntityManagerFactory implements EntityManagerFactory, Persistenc
         }
     }
 
-    Random random = new Random();
-
-    public String getDefinedEntityGraphName()
+    /**
+     * Accessor for the name of the FetchGroup(s) to use for the provided EntityGraph.
+     * A named graph uses its name. An unnamed graph is canonicalised by its structure, and the FetchGroups for each distinct structure are
+     * registered once and reused, so that repeated use of the same graph shape involves no registration with the FetchGroupManager.
+     * @param eg The EntityGraph
+     * @return The fetch group name
+     */
+    public String getFetchGroupNameForEntityGraph(JPAEntityGraph eg)
     {
-        return "DN_ENTITY_GRAPH" + random.nextLong();
+        if (eg.getName() != null)
+        {
+            return eg.getName();
+        }
+
+        String canonicalForm = eg.getCanonicalForm();
+        String fgName = unnamedEntityGraphFetchGroupNames.get(canonicalForm);
+        if (fgName == null)
+        {
+            synchronized (unnamedEntityGraphFetchGroupNames)
+            {
+                fgName = unnamedEntityGraphFetchGroupNames.get(canonicalForm);
+                if (fgName == null)
+                {
+                    fgName = "DN_ENTITY_GRAPH_" + unnamedEntityGraphFetchGroupNames.size();
+                    registerEntityGraph(eg, fgName);
+                    unnamedEntityGraphFetchGroupNames.put(canonicalForm, fgName);
+                }
+            }
+        }
+        return fgName;
     }
 
     List<JPAEntityGraph> entityGraphsToRegister = null;
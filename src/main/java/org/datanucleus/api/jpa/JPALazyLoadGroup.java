@@ -0,0 +1,520 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.identity.IdentityUtils;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.RelationType;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.state.LifeCycleState;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.QueryLanguage;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.compiler.Symbol;
+import org.datanucleus.store.query.compiler.SymbolTable;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Group of sibling entities of a persistence context (e.g. the results of a query), for batch loading of their lazy attributes.
+ * The group is associated with the StateManager of each of its entities. When an unloaded attribute of one of them is first read,
+ * the unloaded batch-fetch attributes of that entity are loaded for it and up to (batch size - 1) other entities of the group in one query,
+ * rather than for each entity as it is navigated. The (hollow) entities referenced by single-valued relations that were loaded form a
+ * further group, so navigating the next level is batched in the same way.
+ * <p>
+ * The batch size of an attribute is taken from its "batch-fetch-size" extension (see the BatchFetchSize annotation), defaulting for relations
+ * to the persistence property "datanucleus.jpa.batchFetchSize", which is also the batch size for loading hollow entities.
+ * A batch size of 0 or 1 means that the attribute is loaded on its own, as normal.
+ * <p>
+ * A collection (or map/array) attribute can instead be loaded by subselect, either by the "fetch-mode" extension of the attribute
+ * being "subselect" or by the query hint "datanucleus.fetch.mode" being "subselect" (for all lazy collections of its results).
+ * Such an attribute is loaded for all entities of the group in one query, selecting the entities with the original query as a subquery.
+ * Where the group has no such query (e.g. a query with a range, subqueries or positional parameters, or not selecting its candidate) it is
+ * loaded with a batch of all the entities of the group instead.
+ * <p>
+ * Batch loading applies to entities with a single-field primary key.
+ */
+public class JPALazyLoadGroup
+{
+    /** Extension for the batch size when loading a lazy attribute. */
+    public static final String EXTENSION_MEMBER_BATCH_FETCH_SIZE = "batch-fetch-size";
+
+    /** Extension for the mode of loading a lazy collection attribute, where "subselect" loads it for all entities of the query result. */
+    public static final String EXTENSION_MEMBER_FETCH_MODE = "fetch-mode";
+
+    /** Fetch mode (of the extension or query hint) for loading a collection using the query of the results as a subquery. */
+    public static final String FETCH_MODE_SUBSELECT = "subselect";
+
+    /** Key of the value associated with the StateManager of each entity in a group. */
+    private static final String ASSOCIATED_VALUE_KEY = "jpa.lazyLoadGroup";
+
+    private final ExecutionContext ec;
+
+    /** The entities of the group, in the order they were provided. */
+    private final List<Object> entities;
+
+    /** Alias of the candidate of the query that the entities are the results of, for subselect loading. Null if not available. */
+    private final String subselectAlias;
+
+    /** FROM (and WHERE) clauses of the query that the entities are the results of, for subselect loading. Null if not available. */
+    private final String subselectFrom;
+
+    /** Parameter values of the query that the entities are the results of. */
+    private final Map<Object, Object> subselectParameters;
+
+    /** Whether all lazy collections of the entities are loaded by subselect. */
+    private final boolean subselectAll;
+
+    /** Whether a batch load is in progress for this group, so that loads triggered by the batch itself are not batched again. */
+    private boolean loading = false;
+
+    private JPALazyLoadGroup(ExecutionContext ec, List<Object> entities, String subselectAlias, String subselectFrom, Map<Object, Object> subselectParameters,
+            boolean subselectAll)
+    {
+        this.ec = ec;
+        this.entities = entities;
+        this.subselectAlias = subselectAlias;
+        this.subselectFrom = subselectFrom;
+        this.subselectParameters = subselectParameters;
+        this.subselectAll = subselectAll;
+    }
+
+    /**
+     * Accessor for whether the lazy attributes of results of the specified candidate class can be batch loaded, so whether
+     * results of queries of that class should be loaded into a group.
+     * @param ec ExecutionContext
+     * @param cls The candidate class (or null if not known)
+     * @return Whether batch loading applies
+     */
+    static boolean isBatchLoaded(ExecutionContext ec, Class cls)
+    {
+        if (getDefaultBatchSize(ec) > 1)
+        {
+            return true;
+        }
+        if (cls == null)
+        {
+            return false;
+        }
+
+        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(cls, ec.getClassLoaderResolver());
+        if (cmd == null)
+        {
+            return false;
+        }
+        int[] memberPositions = cmd.getAllMemberPositions();
+        for (int i=0;i<memberPositions.length;i++)
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(memberPositions[i]);
+            if (getBatchSize(mmd, 0, null) > 1 || FETCH_MODE_SUBSELECT.equalsIgnoreCase(mmd.getValueForExtension(EXTENSION_MEMBER_FETCH_MODE)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to form a group of the managed entities in the provided objects, replacing any group that they were part of.
+     * Objects that are not managed entities of this persistence context (e.g. projection rows) are ignored.
+     * @param ec ExecutionContext
+     * @param objects The objects
+     */
+    static void register(ExecutionContext ec, Collection objects)
+    {
+        register(ec, objects, null, null, false);
+    }
+
+    /**
+     * Method to form a group of the managed entities in the results of the provided query, replacing any group that they were part of.
+     * If the query selects its candidate, with no grouping nor range, then the lazy collections of the results can be loaded by subselect.
+     * @param ec ExecutionContext
+     * @param results The query results
+     * @param query The (executed) JPQL query
+     * @param subselectAll Whether all lazy collections of the results are to be loaded by subselect
+     */
+    static void registerQueryResults(ExecutionContext ec, Collection results, Query query, boolean subselectAll)
+    {
+        String subselectFrom = null;
+        QueryCompilation compilation = query.getCompilation();
+        if (compilation != null && query.getRangeFromIncl() == 0 && query.getRangeToExcl() == Long.MAX_VALUE &&
+            JPAQueryFetchJoins.isCandidateResult(compilation) && compilation.getExprGrouping() == null &&
+            (compilation.getSubqueryAliases() == null || compilation.getSubqueryAliases().length == 0) && !hasPositionalParameters(compilation))
+        {
+            // Subquery selecting the same candidates, from the compilation since its JPQL can't include subqueries or positional parameters
+            subselectFrom = JPAQueryCount.getFromAndFilterJPQL(ec, compilation);
+        }
+
+        Map<Object, Object> params = query.getImplicitParameters();
+        register(ec, results, subselectFrom != null ? compilation.getCandidateAlias() : null, subselectFrom, params != null ? new HashMap<>(params) : null, subselectAll);
+    }
+
+    private static boolean hasPositionalParameters(QueryCompilation compilation)
+    {
+        SymbolTable symtbl = compilation.getSymbolTable();
+        for (String symName : symtbl.getSymbolNames())
+        {
+            if (symtbl.getSymbol(symName).getType() == Symbol.PARAMETER && !symName.isEmpty() && Character.isDigit(symName.charAt(0)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void register(ExecutionContext ec, Collection objects, String subselectAlias, String subselectFrom, Map<Object, Object> subselectParameters,
+            boolean subselectAll)
+    {
+        if (objects == null || objects.size() < 2)
+        {
+            return;
+        }
+
+        List<Object> entities = new ArrayList<>(objects.size());
+        JPALazyLoadGroup group = new JPALazyLoadGroup(ec, entities, subselectAlias, subselectFrom, subselectParameters, subselectAll);
+        for (Object obj : objects)
+        {
+            DNStateManager sm = (obj != null ? ec.findStateManager(obj) : null);
+            if (sm != null)
+            {
+                entities.add(obj);
+                sm.setAssociatedValue(ASSOCIATED_VALUE_KEY, group);
+            }
+        }
+    }
+
+    /**
+     * Method called when an attribute of the entity managed by the provided StateManager is read and is not loaded.
+     * If the entity is in a group and has unloaded batch-fetch attributes (or is hollow) then these are loaded for a batch of the
+     * entities of its group, including this one. Otherwise does nothing, and the attribute is loaded on its own as normal.
+     * @param sm StateManager of the entity
+     */
+    public static void loadUnloadedFields(DNStateManager sm)
+    {
+        Object value = sm.getAssociatedValue(ASSOCIATED_VALUE_KEY);
+        if (value instanceof JPALazyLoadGroup)
+        {
+            ((JPALazyLoadGroup)value).load(sm);
+        }
+    }
+
+    private void load(DNStateManager sm)
+    {
+        if (loading || sm.getExecutionContext() != ec)
+        {
+            return;
+        }
+
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        if (cmd.getIdentityType() != IdentityType.APPLICATION || !cmd.usesSingleFieldIdentityClass())
+        {
+            return;
+        }
+
+        // Find the attributes to load, and the batch size to use
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        int defaultBatchSize = getDefaultBatchSize(ec);
+        boolean hollow = sm.getLifecycleState().stateType() == LifeCycleState.HOLLOW;
+        int batchSize = hollow ? defaultBatchSize : 0;
+        List<AbstractMemberMetaData> members = new ArrayList<>();
+        List<AbstractMemberMetaData> subselectMembers = new ArrayList<>();
+        int[] memberPositions = cmd.getAllMemberPositions();
+        for (int i=0;i<memberPositions.length;i++)
+        {
+            if (!sm.isFieldLoaded(memberPositions[i]))
+            {
+                AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(memberPositions[i]);
+                int memberBatchSize;
+                if (isSubselect(mmd))
+                {
+                    if (subselectFrom != null)
+                    {
+                        subselectMembers.add(mmd);
+                        continue;
+                    }
+
+                    // No query to use as the subquery, so load it for all entities of the group
+                    memberBatchSize = entities.size();
+                }
+                else
+                {
+                    memberBatchSize = getBatchSize(mmd, defaultBatchSize, clr);
+                }
+                if (memberBatchSize > 1)
+                {
+                    members.add(mmd);
+                    batchSize = Math.max(batchSize, memberBatchSize);
+                }
+            }
+        }
+        if (!subselectMembers.isEmpty())
+        {
+            loading = true;
+            try
+            {
+                loadSubselect(cmd, subselectMembers);
+            }
+            finally
+            {
+                loading = false;
+            }
+        }
+        if (batchSize <= 1)
+        {
+            return;
+        }
+
+        List<DNStateManager> batch = getBatch(sm, members, batchSize);
+        if (batch.size() < 2)
+        {
+            return;
+        }
+
+        loading = true;
+        try
+        {
+            loadBatch(cmd, batch, members);
+        }
+        finally
+        {
+            loading = false;
+        }
+
+        // Form a group of the entities referenced by the single-valued relations just loaded, so their first use is batched too
+        for (AbstractMemberMetaData mmd : members)
+        {
+            if (RelationType.isRelationSingleValued(mmd.getRelationType(clr)))
+            {
+                Set<Object> related = new LinkedHashSet<>();
+                for (DNStateManager batchSM : batch)
+                {
+                    if (batchSM.isFieldLoaded(mmd.getAbsoluteFieldNumber()))
+                    {
+                        Object relatedObj = batchSM.provideField(mmd.getAbsoluteFieldNumber());
+                        if (relatedObj != null)
+                        {
+                            related.add(relatedObj);
+                        }
+                    }
+                }
+                register(ec, related);
+            }
+        }
+    }
+
+    /**
+     * Method to return the StateManagers of the entities to load together : the provided entity, then the following entities of
+     * the group (wrapping round) of the same type that are still managed, clean, and missing one of the attributes (or are hollow).
+     * @param sm StateManager of the entity being read
+     * @param members The attributes to load
+     * @param batchSize Maximum number of entities to load
+     * @return The StateManagers
+     */
+    private List<DNStateManager> getBatch(DNStateManager sm, List<AbstractMemberMetaData> members, int batchSize)
+    {
+        List<DNStateManager> batch = new ArrayList<>(Math.min(batchSize, entities.size()));
+        batch.add(sm);
+
+        Object pc = sm.getObject();
+        Class cls = pc.getClass();
+        int start = 0;
+        for (int i=0;i<entities.size();i++)
+        {
+            if (entities.get(i) == pc)
+            {
+                start = i;
+                break;
+            }
+        }
+
+        for (int i=1;i<entities.size() && batch.size()<batchSize;i++)
+        {
+            Object sibling = entities.get((start + i) % entities.size());
+            if (sibling == pc || !cls.isAssignableFrom(sibling.getClass()))
+            {
+                continue;
+            }
+            DNStateManager siblingSM = ec.findStateManager(sibling);
+            if (siblingSM == null || siblingSM.getAssociatedValue(ASSOCIATED_VALUE_KEY) != this)
+            {
+                continue;
+            }
+            LifeCycleState state = siblingSM.getLifecycleState();
+            if (state.isNew() || state.isDeleted() || state.isDirty())
+            {
+                continue;
+            }
+
+            boolean unloaded = state.stateType() == LifeCycleState.HOLLOW;
+            for (int j=0;j<members.size() && !unloaded;j++)
+            {
+                unloaded = !siblingSM.isFieldLoaded(members.get(j).getAbsoluteFieldNumber());
+            }
+            if (unloaded)
+            {
+                batch.add(siblingSM);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Method to load the attributes for the provided entities with one query selecting them by primary key. The results of the query are
+     * the (cached) entities themselves, so their unloaded attributes in the fetch plan of the query are populated from the query results.
+     * @param cmd Metadata for the class of the entities
+     * @param batch StateManagers of the entities
+     * @param members The attributes to load
+     */
+    private void loadBatch(AbstractClassMetaData cmd, List<DNStateManager> batch, List<AbstractMemberMetaData> members)
+    {
+        List<Object> keys = new ArrayList<>(batch.size());
+        for (DNStateManager batchSM : batch)
+        {
+            keys.add(IdentityUtils.getTargetKeyForSingleFieldIdentity(batchSM.getInternalObjectId()));
+        }
+
+        String pkName = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]).getName();
+        String queryString = "SELECT e FROM " + cmd.getEntityName() + " e WHERE e." + pkName + " IN :keys";
+        if (NucleusLogger.QUERY.isDebugEnabled())
+        {
+            NucleusLogger.QUERY.debug(Localiser.msg("Query.LazyLoadBatch", batch.size(), cmd.getFullClassName(), members));
+        }
+
+        Map<Object, Object> params = new HashMap<>();
+        params.put("keys", keys);
+        executeLoadQuery(cmd, queryString, params, members);
+    }
+
+    /**
+     * Method to load the attributes for all entities of the group of the specified type with one query, selecting them using the
+     * query that the group is the results of as a subquery.
+     * @param cmd Metadata for the class of the entities
+     * @param members The attributes to load
+     */
+    private void loadSubselect(AbstractClassMetaData cmd, List<AbstractMemberMetaData> members)
+    {
+        String pkName = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]).getName();
+        String queryString = "SELECT dnLoad FROM " + cmd.getEntityName() + " dnLoad WHERE dnLoad." + pkName +
+            " IN (SELECT " + subselectAlias + "." + pkName + subselectFrom + ")";
+        if (NucleusLogger.QUERY.isDebugEnabled())
+        {
+            NucleusLogger.QUERY.debug(Localiser.msg("Query.LazyLoadSubselect", cmd.getFullClassName(), members, subselectFrom));
+        }
+
+        executeLoadQuery(cmd, queryString, subselectParameters, members);
+    }
+
+    /**
+     * Method to execute a query selecting (cached) entities, with the provided attributes added to the fetch plan, so that these attributes
+     * are populated from the query results where not yet loaded.
+     * @param cmd Metadata for the class of the entities
+     * @param queryString The JPQL query
+     * @param params The parameter values
+     * @param members The attributes to load
+     */
+    private void executeLoadQuery(AbstractClassMetaData cmd, String queryString, Map<Object, Object> params, List<AbstractMemberMetaData> members)
+    {
+        Query query = ec.getStoreManager().newQuery(QueryLanguage.JPQL.name(), ec, queryString);
+        try
+        {
+            if (!members.isEmpty())
+            {
+                // Add the attributes to the fetch plan, as an (unnamed) entity graph so the FetchGroups are shared by all batches of these attributes
+                JPAEntityGraph eg = new JPAEntityGraph(ec.getMetaDataManager(), null, ec.getClassLoaderResolver().classForName(cmd.getFullClassName()));
+                for (AbstractMemberMetaData mmd : members)
+                {
+                    eg.addAttributeNodes(mmd.getName());
+                }
+                JPAEntityManagerFactory emf = (JPAEntityManagerFactory)((JPAEntityManager)ec.getOwner()).getEntityManagerFactory();
+                query.getFetchPlan().addGroup(emf.getFetchGroupNameForEntityGraph(eg));
+            }
+
+            Collection results = (Collection)query.executeWithMap(params);
+            if (results != null)
+            {
+                // Iterate through the results so that each entity is read
+                Iterator resultIter = results.iterator();
+                while (resultIter.hasNext())
+                {
+                    resultIter.next();
+                }
+            }
+        }
+        finally
+        {
+            query.closeAll();
+        }
+    }
+
+    private boolean isSubselect(AbstractMemberMetaData mmd)
+    {
+        if (!mmd.hasCollection() && !mmd.hasMap() && !mmd.hasArray())
+        {
+            return false;
+        }
+        return subselectAll || FETCH_MODE_SUBSELECT.equalsIgnoreCase(mmd.getValueForExtension(EXTENSION_MEMBER_FETCH_MODE));
+    }
+
+    private static int getDefaultBatchSize(ExecutionContext ec)
+    {
+        return ec.getNucleusContext().getConfiguration().getIntProperty(JPAPropertyNames.PROPERTY_JPA_BATCH_FETCH_SIZE);
+    }
+
+    /**
+     * Accessor for the batch size for loading the specified attribute.
+     * @param mmd Metadata for the attribute
+     * @param defaultBatchSize Batch size for relations without the extension
+     * @param clr ClassLoader resolver (only needed when the default batch size is used)
+     * @return The batch size
+     */
+    private static int getBatchSize(AbstractMemberMetaData mmd, int defaultBatchSize, ClassLoaderResolver clr)
+    {
+        String batchSizeValue = mmd.getValueForExtension(EXTENSION_MEMBER_BATCH_FETCH_SIZE);
+        if (batchSizeValue != null)
+        {
+            try
+            {
+                return Integer.parseInt(batchSizeValue.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                NucleusLogger.METADATA.warn("Member " + mmd.getFullFieldName() + " has extension " + EXTENSION_MEMBER_BATCH_FETCH_SIZE +
+                    " with value " + batchSizeValue + " which is not an integer. Ignored");
+                return 0;
+            }
+        }
+        if (defaultBatchSize > 1 && clr != null && mmd.getRelationType(clr) != RelationType.NONE)
+        {
+            return defaultBatchSize;
+        }
+        return 0;
+    }
+}
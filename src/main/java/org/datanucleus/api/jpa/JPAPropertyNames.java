@@ -26,6 +26,17 @@ public class JPAPropertyNames
     public static final String PROPERTY_JPA_PERSISTENCE_CONTEXT_TYPE = "datanucleus.jpa.persistenceContextType".toLowerCase();
     public static final String PROPERTY_JPA_TRANSACTION_ROLLBACK_ON_EXCEPTION = "datanucleus.jpa.txnMarkForRollbackOnException".toLowerCase();
     public static final String PROPERTY_JPA_SINGLETON_EMF_FOR_NAME = "datanucleus.singletonEMFForName".toLowerCase();
+    public static final String PROPERTY_JPA_CRITERIA_COMPILATION_CACHE_SIZE = "datanucleus.jpa.criteriaCompilationCacheSize".toLowerCase();
+    public static final String PROPERTY_JPA_CRITERIA_PARAMETERISE_LITERALS = "datanucleus.jpa.criteriaParameteriseLiterals".toLowerCase();
+    public static final String PROPERTY_JPA_ASYNC_EXECUTOR = "datanucleus.jpa.asyncExecutor".toLowerCase();
+    public static final String PROPERTY_JPA_PRECOMPILE_NAMED_QUERIES = "datanucleus.jpa.precompileNamedQueries".toLowerCase();
+    public static final String PROPERTY_JPA_QUERY_STATISTICS = "datanucleus.jpa.queryStatistics".toLowerCase();
+    public static final String PROPERTY_JPA_QUERY_STATISTICS_JMX = "datanucleus.jpa.queryStatisticsJmx".toLowerCase();
+    public static final String PROPERTY_JPA_SLOW_QUERY_THRESHOLD = "datanucleus.jpa.slowQueryThreshold".toLowerCase();
+    public static final String PROPERTY_JPA_MAX_MANAGED_OBJECTS = "datanucleus.jpa.maxManagedObjects".toLowerCase();
+    public static final String PROPERTY_JPA_MAX_MANAGED_OBJECTS_RETAINED_CLASSES = "datanucleus.jpa.maxManagedObjectsRetainedClasses".toLowerCase();
+    public static final String PROPERTY_JPA_BATCH_FETCH_SIZE = "datanucleus.jpa.batchFetchSize".toLowerCase();
+    public static final String PROPERTY_JPA_METADATA_INDEX = "datanucleus.jpa.metadataIndex".toLowerCase();
 
     public static final String PROPERTY_JPA_STANDARD_JDBC_URL = "javax.persistence.jdbc.url";
     public static final String PROPERTY_JPA_STANDARD_JDBC_DRIVER = "javax.persistence.jdbc.driver";
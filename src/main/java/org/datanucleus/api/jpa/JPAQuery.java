@@ -21,13 +21,24 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.FlushModeType;
 import javax.persistence.LockModeType;
@@ -39,6 +50,8 @@ import javax.persistence.QueryTimeoutException;
 import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
 
+import org.datanucleus.DetachState;
+import org.datanucleus.ExecutionContext;
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.QueryLanguage;
 import org.datanucleus.store.query.AbstractJavaQuery;
@@ -46,12 +59,14 @@ import org.datanucleus.store.query.Query;
 import org.datanucleus.store.query.QueryInvalidParametersException;
 import org.datanucleus.store.query.NoQueryResultsException;
 import org.datanucleus.store.query.QueryNotUniqueException;
+import org.datanucleus.store.query.QueryResult;
 import org.datanucleus.store.query.QueryUtils;
 import org.datanucleus.store.query.Query.QueryType;
 import org.datanucleus.store.query.compiler.QueryCompilation;
 import org.datanucleus.store.query.compiler.Symbol;
 import org.datanucleus.store.query.compiler.SymbolTable;
 import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.util.StringUtils;
 
 /**
@@ -65,6 +80,15 @@ public class JPAQuery<X> implements TypedQuery<X>
 
     public static final String QUERY_HINT_FETCH_SIZE = "datanucleus.query.fetchSize".toLowerCase();
     public static final String QUERY_HINT_IGNORE_CACHE = "datanucleus.query.ignoreCache".toLowerCase();
+    public static final String QUERY_HINT_RESULT_STREAM_DETACH = "datanucleus.query.resultStreamDetach".toLowerCase();
+    public static final String QUERY_HINT_READ_ONLY = "datanucleus.query.readOnly".toLowerCase();
+    public static final String QUERY_HINT_FETCH_MODE = "datanucleus.fetch.mode".toLowerCase();
+
+    /** Extension for the type of caching of the rows of a query result by the store plugin (strong, soft, weak, none). */
+    static final String QUERY_EXTENSION_RESULT_CACHE_TYPE = "datanucleus.query.resultCacheType";
+
+    /** Query extension for whether the compilation of a query is cached against its single-string form. */
+    static final String QUERY_EXTENSION_COMPILATION_CACHED = "datanucleus.query.compilation.cached";
 
     /** Underlying EntityManager handling persistence. */
     JPAEntityManager em;
@@ -93,6 +117,30 @@ public class JPAQuery<X> implements TypedQuery<X>
 
     JPAFetchPlan fetchPlan;
 
+    /** Keyset pagination of this query, when enabled. */
+    JPAQueryKeyset keyset = null;
+
+    /** Count query derived for getResultCount, retained while the compilation of this query is unchanged. */
+    JPAQueryCount queryCount = null;
+
+    /** Last row of the last page returned by getResultList when that page was full, when using keyset pagination. */
+    Object keysetLastRow = null;
+
+    /** Whether the last page returned by getResultList was full, so there may be more pages, when using keyset pagination. */
+    boolean keysetPageFull = false;
+
+    /** Signature of this query for the query statistics (the named query name, or the normalised query string). Set on first execution if not named. */
+    String signature = null;
+
+    /** Root shape of the Tuple results of this query, so the tuples of all of its executions share their shapes. Created on first use. */
+    JPAQueryTuple.Shape tupleShape = null;
+
+    /** Fetch joins of this query, or null if none. Only valid when fetchJoinsResolved is set. */
+    JPAQueryFetchJoins fetchJoins = null;
+
+    /** Whether the fetch joins of this query have been derived from its compilation. */
+    boolean fetchJoinsResolved = false;
+
     /**
      * Constructor for a query used by JPA.
      * @param em Entity Manager
@@ -120,6 +168,9 @@ public class JPAQuery<X> implements TypedQuery<X>
 
     /**
      * Method to execute a (UPDATE/DELETE) query returning the number of changed records.
+     * Each execution is a separate statement, even when the same query is executed with many parameter values, since the datastore
+     * executes bulk updates/deletes immediately rather than adding them to a statement batch. To change many records in one statement
+     * use a parameter bound to a collection (e.g. "UPDATE ... WHERE e.id IN :ids"), or change the entities and let the flush batch the updates.
      * @return Number of records updated/deleted with the query.
      * @throws QueryTimeoutException if the query times out
      */
@@ -131,28 +182,47 @@ public class JPAQuery<X> implements TypedQuery<X>
             throw new IllegalStateException(Localiser.msg("Query.ExecuteUpdateForSelectInvalid"));
         }
 
+        JPAQueryStatistics.Execution execution = startExecution();
         try
         {
             if (flushMode == FlushModeType.AUTO && em.isTransactionActive()) // TODO Could do this in "query" using EXTENSION_FLUSH_BEFORE_EXECUTION, or using EC FetchMode.QUERY
             {
                 em.flush();
             }
+            if (execution != null)
+            {
+                execution.flushed();
+            }
 
             if (lockMode == LockModeType.PESSIMISTIC_READ || lockMode == LockModeType.PESSIMISTIC_WRITE)
             {
                 query.setSerializeRead(Boolean.TRUE);
             }
 
+            if (execution != null)
+            {
+                execution.compile();
+            }
+
             Object result = query.executeWithMap(null); // Params defined using setParameter() earlier
             if (result != null)
             {
-                return ((Long)result).intValue();
+                int numRows = ((Long)result).intValue();
+                if (execution != null)
+                {
+                    execution.succeeded(numRows);
+                }
+                return numRows;
             }
 
             throw new NucleusException("Invalid return from query for an update/delete. Expected Long");
         }
         catch (NoQueryResultsException nqre)
         {
+            if (execution != null)
+            {
+                execution.succeeded(0);
+            }
             return 0;
         }
         catch (QueryInvalidParametersException ex)
@@ -167,66 +237,730 @@ public class JPAQuery<X> implements TypedQuery<X>
         {
             throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
         }
+        finally
+        {
+            if (execution != null)
+            {
+                execution.end();
+            }
+        }
+    }
+
+    /**
+     * Method to execute a (SELECT) query statement returning multiple results.
+     * @return The results
+     * @throws QueryTimeoutException if the query times out
+     */
+    public List getResultList()
+    {
+        assertIsOpen();
+        if (query.getType() != QueryType.SELECT)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.GetResultForUpdateInvalid"));
+        }
+
+        JPAQueryStatistics.Execution execution = startExecution();
+        boolean distinctRange = false;
+        JPACallbackHandler.LoadRecording loadRecording = null;
+        boolean tupleResult = isTupleResult();
+        JPAQueryTuple.Shape previousTupleShape = tupleResult ? JPAQueryTuple.setRootShape(getTupleShape()) : null;
+        try
+        {
+            if (flushMode == FlushModeType.AUTO && em.isTransactionActive()) // TODO Could do this in "query" using EXTENSION_FLUSH_BEFORE_EXECUTION, or using EC FetchMode.QUERY
+            {
+                em.flush();
+            }
+            if (execution != null)
+            {
+                execution.flushed();
+            }
+
+            if (lockMode == LockModeType.PESSIMISTIC_READ || lockMode == LockModeType.PESSIMISTIC_WRITE)
+            {
+                query.setSerializeRead(Boolean.TRUE);
+            }
+
+            if (keyset != null)
+            {
+                applyKeyset();
+            }
+            JPAQueryFetchJoins queryFetchJoins = applyFetchJoins();
+            distinctRange = isDistinctRange(queryFetchJoins);
+            if (distinctRange)
+            {
+                // The range applies to the de-duplicated candidates, not to the joined rows, so is applied below
+                query.setRange(0, Long.MAX_VALUE);
+            }
+
+            if (execution != null)
+            {
+                execution.compile();
+            }
+
+            // Only objects loaded by this query are released, since objects already managed may be held by the application
+            loadRecording = isReadOnly() ? startLoadRecording(em.getExecutionContext()) : null;
+
+            if (QueryUtils.queryReturnsSingleRow(query))
+            {
+                X res = (X) query.executeWithMap(null); // Params defined using setParameter() earlier
+                List l = new ArrayList<X>();
+                l.add(res);
+                if (isReadOnly())
+                {
+                    releaseResults(em.getExecutionContext(), l, finishLoadRecording(loadRecording));
+                }
+                if (execution != null)
+                {
+                    execution.succeeded(1);
+                }
+                return l;
+            }
+
+            List results = (List)query.executeWithMap(null); // Params defined using setParameter() earlier
+            if (results != null && queryFetchJoins != null && queryFetchJoins.isDistinctResults())
+            {
+                // Read the joined rows from the query result, keeping each candidate once, and apply any range to the candidates
+                List distinctResults = new ArrayList<X>();
+                Iterator<X> resultIter = new JPAQueryFetchJoins.DistinctResultIterator<>(em.getExecutionContext(), results.iterator());
+                if (distinctRange)
+                {
+                    resultIter = new RangeResultIterator<>(resultIter, startPosition, maxResults);
+                }
+                while (resultIter.hasNext())
+                {
+                    distinctResults.add(resultIter.next());
+                }
+                query.close(results);
+                results = distinctResults;
+            }
+            if (keyset != null)
+            {
+                // Continuation only when the page (of distinct candidates, where de-duplicated) is full, otherwise there are no more pages.
+                // The token is only created when asked for, since not all key values may be available from the row
+                keysetPageFull = results != null && maxResults > 0 && results.size() >= maxResults;
+                keysetLastRow = keysetPageFull ? results.get(results.size()-1) : null;
+            }
+            if (results != null && isReadOnly())
+            {
+                // Copy the rows out of the query result so that they aren't re-read (as managed objects) on iteration, and release them
+                List readOnlyResults = new ArrayList<X>(results);
+                query.close(results);
+                releaseResults(em.getExecutionContext(), readOnlyResults, finishLoadRecording(loadRecording));
+                if (execution != null)
+                {
+                    execution.succeeded(readOnlyResults.size());
+                }
+                return readOnlyResults;
+            }
+            boolean subselectFetch = isSubselectFetch();
+            if (results != null && (subselectFetch || JPALazyLoadGroup.isBatchLoaded(em.getExecutionContext(), query.getCandidateClass())))
+            {
+                // Copy the rows out of the query result so that all entities exist, and group them for batch loading of lazy attributes
+                List batchResults = new ArrayList<X>(results);
+                query.close(results);
+                if (query.getLanguage().equals(QueryLanguage.JPQL.name()))
+                {
+                    JPALazyLoadGroup.registerQueryResults(em.getExecutionContext(), batchResults, query, subselectFetch);
+                }
+                else
+                {
+                    JPALazyLoadGroup.register(em.getExecutionContext(), batchResults);
+                }
+                if (execution != null)
+                {
+                    execution.succeeded(batchResults.size());
+                }
+                return batchResults;
+            }
+            if (execution != null)
+            {
+                // Don't count the rows of a lazily-loaded result, since that would load them all
+                execution.succeeded(results == null ? 0 : (results instanceof QueryResult ? -1 : results.size()));
+            }
+            return results;
+        }
+        catch (NoQueryResultsException nqre)
+        {
+            if (execution != null)
+            {
+                execution.succeeded(0);
+            }
+            return null;
+        }
+        catch (QueryInvalidParametersException ex)
+        {
+            throw new IllegalArgumentException(ex.getMessage(),ex);
+        }
+        catch (org.datanucleus.store.query.QueryTimeoutException qte)
+        {
+            throw new QueryTimeoutException();
+        }
+        catch (NucleusException jpe)
+        {
+            throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
+        }
+        finally
+        {
+            finishLoadRecording(loadRecording);
+            if (tupleResult)
+            {
+                JPAQueryTuple.setRootShape(previousTupleShape);
+            }
+            if (distinctRange)
+            {
+                applyRange();
+            }
+            if (execution != null)
+            {
+                execution.end();
+            }
+        }
+    }
+
+    /**
+     * Method to execute a (SELECT) query statement returning the results as a Stream.
+     * The Stream is backed by the underlying query result (cursor), so results are only retrieved as the Stream is consumed.
+     * The query result is closed when the Stream is closed, so this should be used in a try-with-resources block.
+     * If the hint "datanucleus.query.resultStreamDetach" is set to true then any persistable objects in a row are detached
+     * when the Stream moves on to the next row, allowing them to be garbage collected.
+     * @return The results as a Stream
+     * @throws QueryTimeoutException if the query times out
+     */
+    public Stream<X> getResultStream()
+    {
+        assertIsOpen();
+        if (query.getType() != QueryType.SELECT)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.GetResultForUpdateInvalid"));
+        }
+
+        JPAQueryStatistics.Execution execution = startExecution();
+        boolean distinctRange = false;
+        JPACallbackHandler.LoadRecording loadRecording = null;
+        boolean tupleResult = isTupleResult();
+        JPAQueryTuple.Shape previousTupleShape = tupleResult ? JPAQueryTuple.setRootShape(getTupleShape()) : null;
+        try
+        {
+            if (flushMode == FlushModeType.AUTO && em.isTransactionActive())
+            {
+                em.flush();
+            }
+            if (execution != null)
+            {
+                execution.flushed();
+            }
+
+            if (lockMode == LockModeType.PESSIMISTIC_READ || lockMode == LockModeType.PESSIMISTIC_WRITE)
+            {
+                query.setSerializeRead(Boolean.TRUE);
+            }
+
+            if (keyset != null)
+            {
+                applyKeyset();
+            }
+            JPAQueryFetchJoins queryFetchJoins = applyFetchJoins();
+            distinctRange = isDistinctRange(queryFetchJoins);
+            if (distinctRange)
+            {
+                // The range applies to the de-duplicated candidates, not to the joined rows, so is applied below
+                query.setRange(0, Long.MAX_VALUE);
+            }
+
+            if (execution != null)
+            {
+                execution.compile();
+            }
+
+            boolean detachHint = query.getBooleanExtensionProperty(QUERY_HINT_RESULT_STREAM_DETACH, false);
+            if (QueryUtils.queryReturnsSingleRow(query))
+            {
+                // Only objects loaded by this query are released, since objects already managed may be held by the application
+                loadRecording = isReadOnly() ? startLoadRecording(em.getExecutionContext()) : null;
+                X res = (X) query.executeWithMap(null); // Params defined using setParameter() earlier
+                if (isReadOnly())
+                {
+                    releaseResults(em.getExecutionContext(), Collections.singletonList(res), finishLoadRecording(loadRecording));
+                }
+                if (execution != null)
+                {
+                    execution.succeeded(1);
+                }
+                return Stream.ofNullable(res);
+            }
+
+            final Object results;
+            if (query.getExtension(QUERY_EXTENSION_RESULT_CACHE_TYPE) == null && query.getExtension(QUERY_EXTENSION_RESULT_CACHE_TYPE.toLowerCase()) == null)
+            {
+                // Don't retain references to rows already returned, so that memory doesn't grow as the Stream is consumed.
+                // Only for this execution, so restore the extensions afterwards
+                Map<String, Object> previousExtensions = new HashMap<>();
+                if (query.getExtensions() != null)
+                {
+                    previousExtensions.putAll(query.getExtensions());
+                }
+                query.addExtension(QUERY_EXTENSION_RESULT_CACHE_TYPE, "none");
+                try
+                {
+                    results = query.executeWithMap(null); // Params defined using setParameter() earlier
+                }
+                finally
+                {
+                    query.setExtensions(previousExtensions);
+                }
+            }
+            else
+            {
+                results = query.executeWithMap(null); // Params defined using setParameter() earlier
+            }
+            if (results == null)
+            {
+                if (execution != null)
+                {
+                    execution.succeeded(0);
+                }
+                return Stream.empty();
+            }
+            if (execution != null)
+            {
+                execution.succeeded(-1);
+            }
+
+            Iterator<X> resultIter = ((Collection<X>)results).iterator();
+            if (tupleResult)
+            {
+                // Rows are loaded as the Stream is consumed, so share the shapes of this query then too
+                resultIter = new TupleResultIterator<>(resultIter, getTupleShape());
+            }
+            if (queryFetchJoins != null && queryFetchJoins.isDistinctResults())
+            {
+                resultIter = new JPAQueryFetchJoins.DistinctResultIterator<>(em.getExecutionContext(), resultIter);
+                if (distinctRange)
+                {
+                    resultIter = new RangeResultIterator<>(resultIter, startPosition, maxResults);
+                }
+            }
+            if (isReadOnly())
+            {
+                resultIter = new DetachingResultIterator<>(em.getExecutionContext(), resultIter, true);
+            }
+            else if (detachHint)
+            {
+                resultIter = new DetachingResultIterator<>(em.getExecutionContext(), resultIter, false);
+            }
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(resultIter, Spliterator.ORDERED), false).onClose(new Runnable()
+            {
+                public void run()
+                {
+                    query.close(results);
+                }
+            });
+        }
+        catch (NoQueryResultsException nqre)
+        {
+            if (execution != null)
+            {
+                execution.succeeded(0);
+            }
+            return Stream.empty();
+        }
+        catch (QueryInvalidParametersException ex)
+        {
+            throw new IllegalArgumentException(ex.getMessage(),ex);
+        }
+        catch (org.datanucleus.store.query.QueryTimeoutException qte)
+        {
+            throw new QueryTimeoutException();
+        }
+        catch (NucleusException jpe)
+        {
+            throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
+        }
+        finally
+        {
+            finishLoadRecording(loadRecording);
+            if (tupleResult)
+            {
+                JPAQueryTuple.setRootShape(previousTupleShape);
+            }
+            if (distinctRange)
+            {
+                applyRange();
+            }
+            if (execution != null)
+            {
+                execution.end();
+            }
+        }
+    }
+
+    /**
+     * Iterator wrapper for a de-duplicated query result that applies the first result and max results of the query to it,
+     * so that the range counts distinct candidates rather than joined rows.
+     * @param <T> Type of the result
+     */
+    static class RangeResultIterator<T> implements Iterator<T>
+    {
+        Iterator<T> delegate;
+
+        int remaining;
+
+        RangeResultIterator(Iterator<T> delegate, int startPosition, int maxResults)
+        {
+            this.delegate = delegate;
+            this.remaining = (maxResults < 0) ? Integer.MAX_VALUE : maxResults;
+            for (int i = 0; i < startPosition && delegate.hasNext(); i++)
+            {
+                delegate.next();
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return remaining > 0 && delegate.hasNext();
+        }
+
+        @Override
+        public T next()
+        {
+            if (remaining <= 0)
+            {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return delegate.next();
+        }
+    }
+
+    /**
+     * Iterator wrapper for a query result of Tuples that sets the root tuple shape of the query while each row is loaded.
+     * @param <T> Type of the result row
+     */
+    static class TupleResultIterator<T> implements Iterator<T>
+    {
+        Iterator<T> delegate;
+
+        JPAQueryTuple.Shape rootShape;
+
+        TupleResultIterator(Iterator<T> delegate, JPAQueryTuple.Shape rootShape)
+        {
+            this.delegate = delegate;
+            this.rootShape = rootShape;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            JPAQueryTuple.Shape previous = JPAQueryTuple.setRootShape(rootShape);
+            try
+            {
+                return delegate.hasNext();
+            }
+            finally
+            {
+                JPAQueryTuple.setRootShape(previous);
+            }
+        }
+
+        @Override
+        public T next()
+        {
+            JPAQueryTuple.Shape previous = JPAQueryTuple.setRootShape(rootShape);
+            try
+            {
+                return delegate.next();
+            }
+            finally
+            {
+                JPAQueryTuple.setRootShape(previous);
+            }
+        }
+    }
+
+    /**
+     * Iterator wrapper for a query result that detaches any persistable objects of the previous row when moving to the next row.
+     * This releases the objects from the persistence context, so that a Stream over a large result doesn't grow the L1 cache.
+     * When detaching immediately (read-only queries) each row is instead detached before it is returned.
+     * Only objects loaded from the datastore as the rows are read are detached, so objects that were already managed are left managed.
+     * @param <T> Type of the result row
+     */
+    static class DetachingResultIterator<T> implements Iterator<T>
+    {
+        ExecutionContext ec;
+        Iterator<T> delegate;
+        boolean detachImmediately;
+
+        /** Objects loaded as the rows were read and not yet detached, or null if not known (so any object is detached). */
+        Set<Object> loaded;
+        T previous = null;
+
+        DetachingResultIterator(ExecutionContext ec, Iterator<T> delegate, boolean detachImmediately)
+        {
+            this.ec = ec;
+            this.delegate = delegate;
+            this.detachImmediately = detachImmediately;
+            this.loaded = ec.getCallbackHandler() instanceof JPACallbackHandler ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+        }
+
+        public boolean hasNext()
+        {
+            // The delegate may read ahead (e.g. to de-duplicate rows), so record what it loads here too
+            JPACallbackHandler.LoadRecording recording = startLoadRecording(ec);
+            boolean hasNext;
+            try
+            {
+                hasNext = delegate.hasNext();
+            }
+            finally
+            {
+                addLoaded(recording);
+            }
+            if (!hasNext)
+            {
+                releasePrevious();
+            }
+            return hasNext;
+        }
+
+        public T next()
+        {
+            releasePrevious();
+            JPACallbackHandler.LoadRecording recording = startLoadRecording(ec);
+            try
+            {
+                previous = delegate.next();
+            }
+            finally
+            {
+                addLoaded(recording);
+            }
+            if (detachImmediately)
+            {
+                T row = previous;
+                releasePrevious();
+                return row;
+            }
+            return previous;
+        }
+
+        private void releasePrevious()
+        {
+            if (previous == null)
+            {
+                return;
+            }
+
+            if (previous instanceof Object[])
+            {
+                for (Object obj : (Object[])previous)
+                {
+                    release(obj);
+                }
+            }
+            else
+            {
+                release(previous);
+            }
+            previous = null;
+        }
+
+        private void release(Object obj)
+        {
+            if (isReleasable(ec, obj, loaded))
+            {
+                ec.detachObject(new DetachState(ec.getApiAdapter()), obj);
+                if (loaded != null)
+                {
+                    loaded.remove(obj);
+                }
+            }
+        }
+
+        private void addLoaded(JPACallbackHandler.LoadRecording recording)
+        {
+            if (recording != null && loaded != null)
+            {
+                loaded.addAll(recording.finish());
+            }
+        }
+    }
+
+    /**
+     * Method to start recording an execution of this query in the query statistics of the EntityManagerFactory.
+     * @return The execution, or null if query statistics are not enabled
+     */
+    private JPAQueryStatistics.Execution startExecution()
+    {
+        JPAQueryStatistics stats = em.emf.getQueryStatistics();
+        if (stats == null)
+        {
+            return null;
+        }
+        if (signature == null)
+        {
+            signature = JPAQueryStatistics.getSignatureForQueryString(query.toString());
+        }
+        return stats.startExecution(signature, query);
+    }
+
+    /**
+     * Accessor for whether the results of this query are Tuples.
+     * @return Whether the result class is Tuple
+     */
+    private boolean isTupleResult()
+    {
+        return query.getResultClass() == JPAQueryTuple.class;
+    }
+
+    /**
+     * Accessor for the root shape of the Tuple results of this query, creating it on first use.
+     * Rows of a (non-Stream) result that are only loaded when iterated after execution have shapes of their own.
+     * @return The root shape
+     */
+    private JPAQueryTuple.Shape getTupleShape()
+    {
+        if (tupleShape == null)
+        {
+            tupleShape = JPAQueryTuple.newRootShape();
+        }
+        return tupleShape;
     }
 
     /**
-     * Method to execute a (SELECT) query statement returning multiple results.
-     * @return The results
-     * @throws QueryTimeoutException if the query times out
+     * Convenience accessor for whether the query hint "datanucleus.query.readOnly" is set, so results are to be released
+     * from the persistence context.
+     * @return Whether the results are read-only
      */
-    public List getResultList()
+    private boolean isReadOnly()
     {
-        assertIsOpen();
-        if (query.getType() != QueryType.SELECT)
+        return query.getBooleanExtensionProperty(QUERY_HINT_READ_ONLY, false);
+    }
+
+    /**
+     * Method to add the attributes fetched by any fetch joins of this query to its fetch plan, so that they are loaded with the results.
+     * The fetch joins are derived from the compilation on first execution, and the fetch plan is updated on each execution in case
+     * an entity graph hint has since replaced its groups.
+     * @return The fetch joins, or null if the query has none
+     */
+    private JPAQueryFetchJoins applyFetchJoins()
+    {
+        JPAQueryFetchJoins queryFetchJoins = getFetchJoins();
+        if (queryFetchJoins != null)
         {
-            throw new IllegalStateException(Localiser.msg("Query.GetResultForUpdateInvalid"));
+            JPAEntityGraph eg = queryFetchJoins.getEntityGraph();
+            query.getFetchPlan().addGroup(em.emf.getFetchGroupNameForEntityGraph(eg));
+            query.getFetchPlan().setMaxFetchDepth(eg.getMaxFetchDepth(query.getFetchPlan().getMaxFetchDepth()));
         }
+        return queryFetchJoins;
+    }
 
-        try
+    /**
+     * Accessor for the fetch joins of the candidate of this (JPQL) query, resolving them from its compilation on first use.
+     * @return The fetch joins, or null if none
+     */
+    private JPAQueryFetchJoins getFetchJoins()
+    {
+        if (!fetchJoinsResolved)
         {
-            if (flushMode == FlushModeType.AUTO && em.isTransactionActive()) // TODO Could do this in "query" using EXTENSION_FLUSH_BEFORE_EXECUTION, or using EC FetchMode.QUERY
+            fetchJoinsResolved = true;
+            if (query.getLanguage().equals(QueryLanguage.JPQL.name()))
             {
-                em.flush();
+                query.compile();
+                if (query.getCompilation() != null)
+                {
+                    fetchJoins = JPAQueryFetchJoins.getFetchJoins(em.getExecutionContext(), query.getCompilation());
+                }
             }
+        }
+        return fetchJoins;
+    }
 
-            if (lockMode == LockModeType.PESSIMISTIC_READ || lockMode == LockModeType.PESSIMISTIC_WRITE)
+    /**
+     * Accessor for whether the "datanucleus.fetch.mode" hint is "subselect", so the lazy collections of the results are loaded for all results
+     * on first access, using this query as a subquery.
+     * @return Whether to use subselect fetching
+     */
+    private boolean isSubselectFetch()
+    {
+        Object fetchMode = query.getExtension(QUERY_HINT_FETCH_MODE);
+        return fetchMode != null && JPALazyLoadGroup.FETCH_MODE_SUBSELECT.equalsIgnoreCase(fetchMode.toString());
+    }
+
+    /**
+     * Method to release the persistable objects of the provided result rows from the persistence context, detaching them in place
+     * in one operation. The objects are then no longer in the L1 cache nor checked for changes at flush/commit, and can be garbage collected
+     * as soon as the caller no longer references them. Objects that are dirty, new or deleted in this context are left managed.
+     * @param ec ExecutionContext
+     * @param rows The result rows, each either an object or an Object[]
+     */
+    static void releaseResults(ExecutionContext ec, Collection rows)
+    {
+        releaseResults(ec, rows, null);
+    }
+
+    /**
+     * Method to release the persistable objects of the provided result rows from the persistence context, as releaseResults(ExecutionContext, Collection),
+     * but only those loaded from the datastore by the query. Objects that were already managed with their fields loaded (so may be held
+     * by the application as managed objects) are not loaded by the query, so are left managed.
+     * @param ec ExecutionContext
+     * @param rows The result rows, each either an object or an Object[]
+     * @param loaded The objects loaded by the query (see startLoadRecording), or null if not known
+     */
+    static void releaseResults(ExecutionContext ec, Collection rows, Set<Object> loaded)
+    {
+        List<Object> releasable = new ArrayList<>();
+        for (Object row : rows)
+        {
+            if (row instanceof Object[])
             {
-                query.setSerializeRead(Boolean.TRUE);
+                for (Object obj : (Object[])row)
+                {
+                    if (isReleasable(ec, obj, loaded))
+                    {
+                        releasable.add(obj);
+                    }
+                }
             }
-
-            if (QueryUtils.queryReturnsSingleRow(query))
+            else if (isReleasable(ec, row, loaded))
             {
-                X res = (X) query.executeWithMap(null); // Params defined using setParameter() earlier
-                List l = new ArrayList<X>();
-                l.add(res);
-                return l;
+                releasable.add(row);
             }
-
-            return (List)query.executeWithMap(null); // Params defined using setParameter() earlier
-        }
-        catch (NoQueryResultsException nqre)
-        {
-            return null;
-        }
-        catch (QueryInvalidParametersException ex)
-        {
-            throw new IllegalArgumentException(ex.getMessage(),ex);
-        }
-        catch (org.datanucleus.store.query.QueryTimeoutException qte)
-        {
-            throw new QueryTimeoutException();
         }
-        catch (NucleusException jpe)
+        if (!releasable.isEmpty())
         {
-            throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
+            ec.detachObjects(new DetachState(ec.getApiAdapter()), releasable.toArray());
         }
     }
 
-//    public Stream<X> getResultStream()
-//    {
-        // TODO Provide custom override, providing more efficient access to results
-//        return TypedQuery.super.getResultStream();
-//    }
+    private static boolean isReleasable(ExecutionContext ec, Object obj, Set<Object> loaded)
+    {
+        return obj != null && (loaded == null || loaded.contains(obj)) &&
+            ec.getApiAdapter().isPersistable(obj) && ec.getApiAdapter().getExecutionContext(obj) == ec &&
+            !ec.getApiAdapter().isDirty(obj) && !ec.getApiAdapter().isNew(obj) && !ec.getApiAdapter().isDeleted(obj) &&
+            !ec.getApiAdapter().isDetached(obj);
+    }
+
+    /**
+     * Method to start recording the objects loaded from the datastore, for a query that releases its results.
+     * This avoids copying the persistence context before execution to find the objects that the application already held managed.
+     * @param ec ExecutionContext
+     * @return The recording, or null if the objects loaded cannot be recorded
+     */
+    static JPACallbackHandler.LoadRecording startLoadRecording(ExecutionContext ec)
+    {
+        return ec.getCallbackHandler() instanceof JPACallbackHandler ? ((JPACallbackHandler)ec.getCallbackHandler()).startLoadRecording() : null;
+    }
+
+    /**
+     * Method to stop any recording of the objects loaded from the datastore.
+     * @param loadRecording The recording (or null)
+     * @return The objects loaded while recording, or null if not recorded
+     */
+    private static Set<Object> finishLoadRecording(JPACallbackHandler.LoadRecording loadRecording)
+    {
+        return loadRecording != null ? loadRecording.finish() : null;
+    }
 
     /**
      * Method to execute a SELECT statement returning a single result.
@@ -241,12 +975,20 @@ public class JPAQuery<X> implements TypedQuery<X>
             throw new IllegalStateException(Localiser.msg("Query.GetResultForUpdateInvalid"));
         }
 
+        JPAQueryStatistics.Execution execution = startExecution();
+        JPACallbackHandler.LoadRecording loadRecording = null;
+        boolean tupleResult = isTupleResult();
+        JPAQueryTuple.Shape previousTupleShape = tupleResult ? JPAQueryTuple.setRootShape(getTupleShape()) : null;
         try
         {
             if (flushMode == FlushModeType.AUTO && em.isTransactionActive()) // TODO Could do this in "query" using EXTENSION_FLUSH_BEFORE_EXECUTION, or using EC FetchMode.QUERY
             {
                 em.flush();
             }
+            if (execution != null)
+            {
+                execution.flushed();
+            }
 
             if (lockMode == LockModeType.PESSIMISTIC_READ || lockMode == LockModeType.PESSIMISTIC_WRITE)
             {
@@ -255,10 +997,30 @@ public class JPAQuery<X> implements TypedQuery<X>
 
             query.setUnique(true);
 
-            return (X)query.executeWithMap(null); // Params defined using setParameter() earlier
+            if (execution != null)
+            {
+                execution.compile();
+            }
+
+            // Only objects loaded by this query are released, since objects already managed may be held by the application
+            loadRecording = isReadOnly() ? startLoadRecording(em.getExecutionContext()) : null;
+            X result = (X)query.executeWithMap(null); // Params defined using setParameter() earlier
+            if (isReadOnly())
+            {
+                releaseResults(em.getExecutionContext(), Collections.singletonList(result), finishLoadRecording(loadRecording));
+            }
+            if (execution != null)
+            {
+                execution.succeeded(1);
+            }
+            return result;
         }
         catch (NoQueryResultsException nqre)
         {
+            if (execution != null)
+            {
+                execution.succeeded(0);
+            }
             throw new NoResultException("No results for query: " + query.toString());
         }
         catch (QueryNotUniqueException ex)
@@ -278,6 +1040,97 @@ public class JPAQuery<X> implements TypedQuery<X>
         {
             throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
         }
+        finally
+        {
+            finishLoadRecording(loadRecording);
+            if (tupleResult)
+            {
+                JPAQueryTuple.setRootShape(previousTupleShape);
+            }
+            if (execution != null)
+            {
+                execution.end();
+            }
+        }
+    }
+
+    /**
+     * Method to execute a (SELECT) query statement returning multiple results, asynchronously.
+     * The query is executed on the async executor of the EntityManager (see JPAEntityManager.getAsyncExecutor()), after any
+     * previously submitted asynchronous operations of that EntityManager. This is a DataNucleus extension.
+     * The EntityManager and this query should not be used directly until the returned future has completed.
+     * @return Future for the results
+     */
+    public CompletableFuture<List<X>> getResultListAsync()
+    {
+        assertIsOpen();
+        return CompletableFuture.supplyAsync(new Supplier<List<X>>()
+        {
+            public List<X> get()
+            {
+                return getResultList();
+            }
+        }, em.getAsyncExecutor());
+    }
+
+    /**
+     * Method to execute a SELECT statement returning a single result, asynchronously.
+     * The future completes exceptionally with NoResultException/NonUniqueResultException as per getSingleResult().
+     * This is a DataNucleus extension; see getResultListAsync() for the threading rules.
+     * @return Future for the result
+     */
+    public CompletableFuture<X> getSingleResultAsync()
+    {
+        assertIsOpen();
+        return CompletableFuture.supplyAsync(new Supplier<X>()
+        {
+            public X get()
+            {
+                return getSingleResult();
+            }
+        }, em.getAsyncExecutor());
+    }
+
+    /**
+     * Method to execute an UPDATE/DELETE query statement asynchronously.
+     * This is a DataNucleus extension; see getResultListAsync() for the threading rules.
+     * @return Future for the number of records updated/deleted
+     */
+    public CompletableFuture<Integer> executeUpdateAsync()
+    {
+        assertIsOpen();
+        return CompletableFuture.supplyAsync(new Supplier<Integer>()
+        {
+            public Integer get()
+            {
+                return executeUpdate();
+            }
+        }, em.getAsyncExecutor());
+    }
+
+    /**
+     * Method to return a Publisher of the results of this (SELECT) query, for use with reactive-streams consumers.
+     * Each subscription executes the query on the async executor of the EntityManager, reading the results from a cursor
+     * (as per getResultStream()) only as the subscriber requests them, and closing it when the subscriber cancels.
+     * The subscriber is signalled from tasks on that executor, so never concurrently with other asynchronous operations of the EntityManager.
+     * Null result rows are not published, since Flow does not allow them. This is a DataNucleus extension.
+     * The EntityManager and this query should not be used directly until the subscriber has completed or cancelled.
+     * @return The Publisher
+     */
+    public Flow.Publisher<X> getResultPublisher()
+    {
+        assertIsOpen();
+        return new Flow.Publisher<X>()
+        {
+            public void subscribe(Flow.Subscriber<? super X> subscriber)
+            {
+                if (subscriber == null)
+                {
+                    throw new NullPointerException("Subscriber cannot be null");
+                }
+                subscriber.onSubscribe(new JPAQueryResultSubscription<X>(JPAQuery.this, subscriber, em.getAsyncExecutor()));
+            }
+        };
     }
 
     /**
@@ -294,6 +1147,15 @@ public class JPAQuery<X> implements TypedQuery<X>
         }
 
         this.startPosition = startPosition;
+        applyRange();
+        return this;
+    }
+
+    /**
+     * Method to set the range of the underlying query from the first result and max results of this query.
+     */
+    private void applyRange()
+    {
         if (this.maxResults == -1)
         {
             query.setRange(this.startPosition, Long.MAX_VALUE);
@@ -302,7 +1164,23 @@ public class JPAQuery<X> implements TypedQuery<X>
         {
             query.setRange(this.startPosition, this.startPosition+this.maxResults);
         }
-        return this;
+    }
+
+    /**
+     * Accessor for whether the results are de-duplicated from joined rows (see JPAQueryFetchJoins) and a first result or max results is set,
+     * in which case the range has to be applied to the de-duplicated results rather than in the datastore.
+     * All joined rows of the query are then read, so a warning is logged.
+     * @param queryFetchJoins The fetch joins of the query, or null if none
+     * @return Whether to apply the range to the de-duplicated results
+     */
+    private boolean isDistinctRange(JPAQueryFetchJoins queryFetchJoins)
+    {
+        if (queryFetchJoins != null && queryFetchJoins.isDistinctResults() && (startPosition > 0 || maxResults >= 0))
+        {
+            NucleusLogger.QUERY.warn(Localiser.msg("Query.FetchJoinRangeInMemory", query.toString()));
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -357,6 +1235,197 @@ public class JPAQuery<X> implements TypedQuery<X>
         return (int)query.getRangeFromIncl();
     }
 
+    /**
+     * Method to enable keyset (seek) pagination for this query, starting after the row with the provided ordering key values.
+     * Rather than skipping the rows of previous pages (as setFirstResult does), the filter is extended with a seek predicate on the
+     * ordering of the query, so the cost of a page doesn't depend on how deep it is. The query must have an ordering, ideally ending
+     * with a unique expression (e.g the id), and the page size is set using setMaxResults. Not applicable to native queries.
+     * @param orderingKeyValues Values of the ordering expressions for the last row seen, or none for the first page
+     * @return The query
+     * @throws IllegalStateException if the query has no ordering, has an ordering expression whose values can't be held in a continuation token
+     *     (such as an enum), or is a native query
+     * @throws IllegalArgumentException if the number of values doesn't match the ordering, or a value is null
+     */
+    public JPAQuery<X> setKeysetAfter(Object... orderingKeyValues)
+    {
+        assertIsOpen();
+        getKeyset().setKeyValues(orderingKeyValues);
+        return this;
+    }
+
+    /**
+     * Method to enable keyset (seek) pagination for this query, starting after the page that returned the provided continuation token.
+     * See setKeysetAfter(Object...).
+     * @param continuationToken Continuation token from getKeysetContinuation(), or null for the first page
+     * @return The query
+     * @throws IllegalStateException if the query has no ordering, has an ordering expression whose values can't be held in a continuation token
+     *     (such as an enum), or is a native query
+     * @throws IllegalArgumentException if the token is not valid for this query
+     */
+    public JPAQuery<X> setKeysetContinuation(String continuationToken)
+    {
+        assertIsOpen();
+        getKeyset().setContinuation(continuationToken);
+        return this;
+    }
+
+    /**
+     * Accessor for the continuation token for the page after the last page returned by getResultList, when using keyset pagination.
+     * The token encodes the ordering key values of the last row of that page, and is passed to setKeysetContinuation(String),
+     * on this or an equivalent query, to get the next page.
+     * @return The continuation token, or null if the last page was not full (so there are no more pages)
+     * @throws IllegalStateException if an ordering key value cannot be determined from the last row of the page
+     */
+    public String getKeysetContinuation()
+    {
+        assertIsOpen();
+        return (keyset != null && keysetPageFull) ? keyset.getContinuation(em.getExecutionContext(), keysetLastRow) : null;
+    }
+
+    /**
+     * Method to return the number of results of this (SELECT) query, ignoring any first result and maximum results (and any keyset position).
+     * Executes a count query derived from this query (see JPAQueryCount) with the same parameter values, so no results are materialised.
+     * This is a DataNucleus extension, for use with paged results.
+     * @return The number of results
+     * @throws IllegalStateException if this is not a JPQL SELECT query, or a count cannot be derived for it
+     * @throws QueryTimeoutException if the query times out
+     */
+    public long getResultCount()
+    {
+        assertIsOpen();
+        if (query.getType() != QueryType.SELECT)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.GetResultForUpdateInvalid"));
+        }
+        if (isNativeQuery())
+        {
+            throw new IllegalStateException(Localiser.msg("Query.CountNativeInvalid"));
+        }
+
+        org.datanucleus.store.query.Query countQuery = null;
+        try
+        {
+            if (flushMode == FlushModeType.AUTO && em.isTransactionActive())
+            {
+                em.flush();
+            }
+
+            // Count the query without any keyset seek predicate, deriving the count only when the compilation changes
+            ExecutionContext ec = em.getExecutionContext();
+            QueryCompilation compilation;
+            if (keyset != null)
+            {
+                compilation = keyset.getBaseCompilation();
+            }
+            else
+            {
+                query.compile();
+                compilation = query.getCompilation();
+            }
+            if (queryCount == null || queryCount.getCompilation() != compilation)
+            {
+                JPAQueryFetchJoins queryFetchJoins = getFetchJoins();
+                queryCount = new JPAQueryCount(ec, query.toString(), compilation, queryFetchJoins != null && queryFetchJoins.isDistinctResults());
+            }
+
+            countQuery = ec.getStoreManager().newQuery(QueryLanguage.JPQL.name(), ec, queryCount.getCountQuery());
+            if (query.getExtensions() != null)
+            {
+                countQuery.setExtensions(query.getExtensions());
+            }
+            if (!queryCount.isCacheable())
+            {
+                // JPQL doesn't identify the count (subqueries are omitted), so don't cache its datastore compilation against it
+                countQuery.addExtension(QUERY_EXTENSION_COMPILATION_CACHED, "false");
+            }
+            if (!queryCount.isCountRows())
+            {
+                countQuery.setUnique(true);
+            }
+            countQuery.setCompilation(queryCount.getCountCompilation());
+            Map<Object, Object> paramValues = query.getImplicitParameters();
+            if (paramValues != null)
+            {
+                for (Map.Entry<Object, Object> paramEntry : paramValues.entrySet())
+                {
+                    // Only bind parameters of the count, since those of a keyset predicate are dropped
+                    if (queryCount.hasParameter(paramEntry.getKey().toString()))
+                    {
+                        if (paramEntry.getKey() instanceof Integer)
+                        {
+                            countQuery.setImplicitParameter((Integer)paramEntry.getKey(), paramEntry.getValue());
+                        }
+                        else
+                        {
+                            countQuery.setImplicitParameter((String)paramEntry.getKey(), paramEntry.getValue());
+                        }
+                    }
+                }
+            }
+
+            if (queryCount.isCountRows())
+            {
+                // Grouped, so each row is a group
+                Object results = countQuery.executeWithMap(null);
+                return results != null ? ((Collection)results).size() : 0;
+            }
+
+            Object result = countQuery.executeWithMap(null);
+            return result != null ? ((Number)result).longValue() : 0;
+        }
+        catch (NoQueryResultsException nqre)
+        {
+            return 0;
+        }
+        catch (QueryInvalidParametersException ex)
+        {
+            throw new IllegalArgumentException(ex.getMessage(),ex);
+        }
+        catch (org.datanucleus.store.query.QueryTimeoutException qte)
+        {
+            throw new QueryTimeoutException();
+        }
+        catch (NucleusException jpe)
+        {
+            throw JPAAdapter.getJPAExceptionForNucleusException(jpe);
+        }
+        finally
+        {
+            if (countQuery != null)
+            {
+                countQuery.closeAll();
+            }
+        }
+    }
+
+    private JPAQueryKeyset getKeyset()
+    {
+        if (keyset == null)
+        {
+            if (isNativeQuery())
+            {
+                throw new IllegalStateException(Localiser.msg("Query.KeysetNativeInvalid"));
+            }
+            keyset = new JPAQueryKeyset(em.getExecutionContext(), query);
+        }
+        return keyset;
+    }
+
+    /**
+     * Method to apply the keyset pagination seek predicate to the underlying query, prior to execution.
+     */
+    private void applyKeyset()
+    {
+        if (startPosition > 0)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.KeysetFirstResultInvalid"));
+        }
+
+        keyset.apply(query);
+        parametersLoaded = false;
+        parameters = null;
+    }
+
     /**
      * Mutator for the flush mode.
      * @param mode Flush mode
@@ -404,30 +1473,16 @@ public class JPAQuery<X> implements TypedQuery<X>
         else if (hintName.equals(JPAEntityGraph.FETCHGRAPH_PROPERTY))
         {
             JPAEntityGraph eg = (JPAEntityGraph) value;
-            String egName = eg.getName();
-            if (eg.getName() == null)
-            {
-                JPAEntityManagerFactory emf = (JPAEntityManagerFactory)em.getEntityManagerFactory();
-                String tmpEntityGraphName = emf.getDefinedEntityGraphName();
-                emf.registerEntityGraph(eg, tmpEntityGraphName);
-                egName = tmpEntityGraphName;
-            }
+            String egName = ((JPAEntityManagerFactory)em.getEntityManagerFactory()).getFetchGroupNameForEntityGraph(eg);
             query.getFetchPlan().setGroup(egName);
-            // TODO Need to deregister any temporary EntityGraph
+            query.getFetchPlan().setMaxFetchDepth(eg.getMaxFetchDepth(query.getFetchPlan().getMaxFetchDepth()));
         }
         else if (hintName.equals(JPAEntityGraph.LOADGRAPH_PROPERTY))
         {
             JPAEntityGraph eg = (JPAEntityGraph) value;
-            String egName = eg.getName();
-            if (eg.getName() == null)
-            {
-                JPAEntityManagerFactory emf = (JPAEntityManagerFactory)em.getEntityManagerFactory();
-                String tmpEntityGraphName = emf.getDefinedEntityGraphName();
-                emf.registerEntityGraph(eg, tmpEntityGraphName);
-                egName = tmpEntityGraphName;
-            }
+            String egName = ((JPAEntityManagerFactory)em.getEntityManagerFactory()).getFetchGroupNameForEntityGraph(eg);
             query.getFetchPlan().addGroup(egName);
-            // TODO Need to deregister any temporary EntityGraph
+            query.getFetchPlan().setMaxFetchDepth(eg.getMaxFetchDepth(query.getFetchPlan().getMaxFetchDepth()));
         }
         else if (hintName.equals(QUERY_HINT_FETCH_SIZE))
         {
@@ -489,6 +1544,9 @@ public class JPAQuery<X> implements TypedQuery<X>
         Set<String> supportedExtensions = query.getSupportedExtensions();
         supportedExtensions.add(QUERY_HINT_FETCH_SIZE);
         supportedExtensions.add(QUERY_HINT_IGNORE_CACHE);
+        supportedExtensions.add(QUERY_HINT_RESULT_STREAM_DETACH);
+        supportedExtensions.add(QUERY_HINT_READ_ONLY);
+        supportedExtensions.add(QUERY_HINT_FETCH_MODE);
         supportedExtensions.add(QUERY_HINT_TIMEOUT);
         supportedExtensions.add(JPAEntityGraph.FETCHGRAPH_PROPERTY);
         supportedExtensions.add(JPAEntityGraph.LOADGRAPH_PROPERTY);
@@ -809,6 +1867,10 @@ public class JPAQuery<X> implements TypedQuery<X>
         {
             return (T)query;
         }
+        if (cls.isInstance(this))
+        {
+            return (T)this;
+        }
         throw new PersistenceException("Not supported unwrapping of query to " + cls.getName());
     }
 
@@ -0,0 +1,430 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.store.query.JPQLQueryHelper;
+import org.datanucleus.store.query.QueryLanguage;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.compiler.Symbol;
+import org.datanucleus.store.query.compiler.SymbolTable;
+import org.datanucleus.store.query.expression.ClassExpression;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.JoinExpression;
+import org.datanucleus.store.query.expression.JoinExpression.JoinType;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.util.Localiser;
+
+/**
+ * Derivation of a query counting the results of a JPQL SELECT query, for use with paging.
+ * The count is derived from the generic compilation of the query, without its ordering, with any fetch joins made plain joins
+ * (see removeFetchJoins), and with the result replaced as follows
+ * <ul>
+ * <li>No grouping : "COUNT(alias)", or "COUNT(DISTINCT expr)" when the result is a single DISTINCT expression,
+ * or "COUNT(DISTINCT alias)" when the results are de-duplicated from the joined rows of fetch joins.</li>
+ * <li>Grouping : the grouping expressions (or the DISTINCT result), so each result row represents one group, and the rows are counted,
+ * since JPQL can't count the groups in one expression (a COUNT(DISTINCT) of the grouping would omit a null group).</li>
+ * </ul>
+ * The count compilation is set on the count query, so it is not parsed nor compiled from JPQL. The JPQL form of the count (see getCountQuery)
+ * identifies the count query for caching of its datastore compilation.
+ */
+class JPAQueryCount
+{
+    /** Prefix for the aliases given in JPQL to unaliased inner fetch joins when made plain joins. */
+    private static final String FETCH_JOIN_ALIAS_PREFIX = "DN_FETCH_";
+
+    /** Compilation of the query being counted. */
+    private final QueryCompilation compilation;
+
+    private final QueryCompilation countCompilation;
+
+    private final String countQuery;
+
+    private final boolean countRows;
+
+    private final boolean cacheable;
+
+    /**
+     * Constructor, deriving the count query.
+     * @param ec ExecutionContext
+     * @param queryString Single-string form of the JPQL SELECT query (for messages)
+     * @param compilation Generic compilation of the query (without any keyset seek predicate)
+     * @param distinctResults Whether the candidate results of the query are de-duplicated from the joined rows of its fetch joins
+     * @throws IllegalStateException if a count cannot be derived for this query
+     */
+    JPAQueryCount(ExecutionContext ec, String queryString, QueryCompilation compilation, boolean distinctResults)
+    {
+        this.compilation = compilation;
+        String candidateAlias = compilation.getCandidateAlias();
+        SymbolTable symtbl = compilation.getSymbolTable();
+        Expression[] fromExprs = compilation.getExprFrom();
+        if (fromExprs == null || fromExprs.length == 0)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.CountNotDerivable", queryString));
+        }
+
+        Expression[] resultExprs = compilation.getExprResult();
+        Expression[] groupingExprs = compilation.getExprGrouping();
+        boolean distinct = compilation.getResultDistinct();
+        Expression[] countResultExprs;
+        if (groupingExprs != null && groupingExprs.length > 0)
+        {
+            countResultExprs = (distinct && resultExprs != null) ? resultExprs : groupingExprs;
+            countRows = true;
+        }
+        else
+        {
+            Expression countedExpr;
+            if (distinct && resultExprs != null)
+            {
+                if (resultExprs.length > 1)
+                {
+                    // JPQL has no COUNT of multiple expressions
+                    throw new IllegalStateException(Localiser.msg("Query.CountNotDerivable", queryString));
+                }
+                countedExpr = new DyadicExpression(Expression.OP_DISTINCT, resultExprs[0]);
+            }
+            else
+            {
+                // Any multi-valued join retained from a fetch join multiplies the rows, so count the distinct candidates when these are de-duplicated
+                List<String> tuples = new ArrayList<>();
+                tuples.add(candidateAlias);
+                countedExpr = new PrimaryExpression(tuples);
+                countedExpr.bind(symtbl);
+                if (distinct || distinctResults)
+                {
+                    countedExpr = new DyadicExpression(Expression.OP_DISTINCT, countedExpr);
+                }
+            }
+            List<Expression> args = new ArrayList<>();
+            args.add(countedExpr);
+            countResultExprs = new Expression[] {new InvokeExpression(null, "count", args)};
+            countRows = false;
+        }
+
+        countCompilation = new QueryCompilation(compilation.getCandidateClass(), candidateAlias, symtbl, countResultExprs,
+            removeFetchJoins(fromExprs, symtbl), compilation.getExprFilter(), countRows ? groupingExprs : null, countRows ? compilation.getExprHaving() : null,
+            null, null);
+        countCompilation.setQueryLanguage(QueryLanguage.JPQL.name());
+        if (countRows && distinct)
+        {
+            countCompilation.setResultDistinct();
+        }
+        String[] subqueryAliases = compilation.getSubqueryAliases();
+        if (subqueryAliases != null)
+        {
+            for (String subqueryAlias : subqueryAliases)
+            {
+                countCompilation.addSubqueryCompilation(subqueryAlias, compilation.getCompilationForSubquery(subqueryAlias));
+            }
+        }
+
+        // JPQL form, which can only identify the count when there are no subqueries (since these are not included)
+        String jpql = getJPQL(ec, countCompilation);
+        this.cacheable = (jpql != null && (subqueryAliases == null || subqueryAliases.length == 0));
+        this.countQuery = (jpql != null) ? jpql : "SELECT count(" + candidateAlias + ") FROM " + compilation.getCandidateClass().getName() + " " + candidateAlias;
+    }
+
+    /**
+     * Accessor for the compilation of the query that this counts.
+     * @return The compilation
+     */
+    QueryCompilation getCompilation()
+    {
+        return compilation;
+    }
+
+    /**
+     * Accessor for the generic compilation of the count query.
+     * @return The count compilation
+     */
+    QueryCompilation getCountCompilation()
+    {
+        return countCompilation;
+    }
+
+    /**
+     * Accessor for the JPQL of the count query.
+     * @return The count query
+     */
+    String getCountQuery()
+    {
+        return countQuery;
+    }
+
+    /**
+     * Accessor for whether the count is the number of result rows of the count query (when grouping), rather than its single result.
+     * @return Whether to count the rows
+     */
+    boolean isCountRows()
+    {
+        return countRows;
+    }
+
+    /**
+     * Accessor for whether the JPQL of the count query identifies it, so that its datastore compilation can be cached against it.
+     * @return Whether cacheable
+     */
+    boolean isCacheable()
+    {
+        return cacheable;
+    }
+
+    /**
+     * Accessor for whether the count query has a parameter of the specified name (or position), so needs its value.
+     * Parameters only used in the ordering of the query are still declared.
+     * @param name Name of the parameter (or its position)
+     * @return Whether it is a parameter of the count query
+     */
+    boolean hasParameter(String name)
+    {
+        if (isParameter(countCompilation, name))
+        {
+            return true;
+        }
+        String[] subqueryAliases = countCompilation.getSubqueryAliases();
+        if (subqueryAliases != null)
+        {
+            for (String subqueryAlias : subqueryAliases)
+            {
+                if (isParameter(countCompilation.getCompilationForSubquery(subqueryAlias), name))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isParameter(QueryCompilation compilation, String name)
+    {
+        Symbol sym = compilation.getSymbolTable().getSymbol(name);
+        return sym != null && sym.getType() == Symbol.PARAMETER;
+    }
+
+    /**
+     * Method to remove the fetch joins from the FROM expressions of a compilation, keeping the rows that the query selects.
+     * An inner fetch join restricts the candidates to those with a related object, so is retained as a plain inner join.
+     * An outer fetch join with an alias may be referenced elsewhere, so is retained as a plain outer join, and one without an alias is dropped.
+     * @param fromExprs The FROM expressions
+     * @param symtbl Symbol table of the compilation
+     * @return The FROM expressions without fetch joins (the same as those provided when there are no fetch joins)
+     */
+    static Expression[] removeFetchJoins(Expression[] fromExprs, SymbolTable symtbl)
+    {
+        if (!hasFetchJoins(fromExprs))
+        {
+            return fromExprs;
+        }
+
+        Expression[] exprs = new Expression[fromExprs.length];
+        for (int i=0;i<fromExprs.length;i++)
+        {
+            if (!(fromExprs[i] instanceof ClassExpression))
+            {
+                exprs[i] = fromExprs[i];
+                continue;
+            }
+
+            ClassExpression clsExpr = new ClassExpression(((ClassExpression)fromExprs[i]).getAlias());
+            clsExpr.bind(symtbl);
+            exprs[i] = clsExpr;
+            Expression currentExpr = clsExpr;
+            Expression joinExpr = fromExprs[i].getRight();
+            while (joinExpr instanceof JoinExpression)
+            {
+                JoinExpression join = (JoinExpression)joinExpr;
+                joinExpr = join.getRight();
+                JoinType joinType = getPlainJoinType(join.getType());
+                if (joinType != join.getType() && joinType != JoinType.JOIN_INNER && join.getAlias() == null)
+                {
+                    // Outer fetch join with no alias, so not referenced
+                    continue;
+                }
+
+                JoinExpression plainJoin = new JoinExpression(join.getJoinedExpression(), join.getAlias(), joinType);
+                plainJoin.setOnExpression(join.getOnExpression());
+                if (currentExpr instanceof ClassExpression)
+                {
+                    ((ClassExpression)currentExpr).setJoinExpression(plainJoin);
+                }
+                else
+                {
+                    ((JoinExpression)currentExpr).setJoinExpression(plainJoin);
+                }
+                currentExpr = plainJoin;
+            }
+        }
+        return exprs;
+    }
+
+    private static boolean hasFetchJoins(Expression[] fromExprs)
+    {
+        for (Expression fromExpr : fromExprs)
+        {
+            Expression joinExpr = fromExpr.getRight();
+            while (joinExpr instanceof JoinExpression)
+            {
+                if (getPlainJoinType(((JoinExpression)joinExpr).getType()) != ((JoinExpression)joinExpr).getType())
+                {
+                    return true;
+                }
+                joinExpr = joinExpr.getRight();
+            }
+        }
+        return false;
+    }
+
+    private static JoinType getPlainJoinType(JoinType joinType)
+    {
+        if (joinType == JoinType.JOIN_INNER_FETCH)
+        {
+            return JoinType.JOIN_INNER;
+        }
+        else if (joinType == JoinType.JOIN_LEFT_OUTER_FETCH)
+        {
+            return JoinType.JOIN_LEFT_OUTER;
+        }
+        else if (joinType == JoinType.JOIN_RIGHT_OUTER_FETCH)
+        {
+            return JoinType.JOIN_RIGHT_OUTER;
+        }
+        return joinType;
+    }
+
+    /**
+     * Method to return the JPQL of the FROM clause of a compilation, without its fetch joins (see removeFetchJoins),
+     * and of its WHERE clause, if any. This omits any subqueries of the compilation.
+     * @param ec ExecutionContext
+     * @param compilation The compilation
+     * @return The JPQL, starting " FROM ", or null if the compilation can't be represented in JPQL
+     */
+    static String getFromAndFilterJPQL(ExecutionContext ec, QueryCompilation compilation)
+    {
+        try
+        {
+            StringBuilder str = new StringBuilder(" FROM ");
+            appendFrom(ec, compilation, str);
+            if (compilation.getExprFilter() != null)
+            {
+                str.append(" WHERE ").append(JPQLQueryHelper.getJPQLForExpression(compilation.getExprFilter()));
+            }
+            return str.toString();
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Method to return the JPQL for a (count) compilation.
+     * @param ec ExecutionContext
+     * @param compilation The compilation
+     * @return The JPQL, or null if the compilation can't be represented in JPQL
+     */
+    private static String getJPQL(ExecutionContext ec, QueryCompilation compilation)
+    {
+        try
+        {
+            StringBuilder str = new StringBuilder("SELECT ");
+            if (compilation.getResultDistinct())
+            {
+                str.append("DISTINCT ");
+            }
+            appendExpressions(compilation.getExprResult(), str);
+            str.append(" FROM ");
+            appendFrom(ec, compilation, str);
+            if (compilation.getExprFilter() != null)
+            {
+                str.append(" WHERE ").append(JPQLQueryHelper.getJPQLForExpression(compilation.getExprFilter()));
+            }
+            if (compilation.getExprGrouping() != null)
+            {
+                str.append(" GROUP BY ");
+                appendExpressions(compilation.getExprGrouping(), str);
+                if (compilation.getExprHaving() != null)
+                {
+                    str.append(" HAVING ").append(JPQLQueryHelper.getJPQLForExpression(compilation.getExprHaving()));
+                }
+            }
+            return str.toString();
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    private static void appendExpressions(Expression[] exprs, StringBuilder str)
+    {
+        for (int i=0;i<exprs.length;i++)
+        {
+            str.append(i > 0 ? "," : "").append(JPQLQueryHelper.getJPQLForExpression(exprs[i]));
+        }
+    }
+
+    private static void appendFrom(ExecutionContext ec, QueryCompilation compilation, StringBuilder str)
+    {
+        Expression[] fromExprs = removeFetchJoins(compilation.getExprFrom(), compilation.getSymbolTable());
+        int aliasNumber = 0;
+        for (int i=0;i<fromExprs.length;i++)
+        {
+            String alias = ((ClassExpression)fromExprs[i]).getAlias();
+            Symbol sym = compilation.getSymbolTable().getSymbol(alias);
+            if (sym == null || sym.getValueType() == null)
+            {
+                throw new IllegalStateException("No type for alias " + alias);
+            }
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(sym.getValueType(), ec.getClassLoaderResolver());
+            str.append(i > 0 ? ", " : "").append(cmd != null ? cmd.getEntityName() : sym.getValueType().getName()).append(' ').append(alias);
+
+            Expression joinExpr = fromExprs[i].getRight();
+            while (joinExpr instanceof JoinExpression)
+            {
+                JoinExpression join = (JoinExpression)joinExpr;
+                joinExpr = join.getRight();
+                if (join.getType() == JoinType.JOIN_LEFT_OUTER)
+                {
+                    str.append(" LEFT OUTER JOIN ");
+                }
+                else if (join.getType() == JoinType.JOIN_RIGHT_OUTER)
+                {
+                    str.append(" RIGHT OUTER JOIN ");
+                }
+                else
+                {
+                    str.append(" JOIN ");
+                }
+                str.append(JPQLQueryHelper.getJPQLForExpression(join.getJoinedExpression())).append(' ');
+                // JPQL requires an alias for a plain join, so name any inner join made from an unaliased fetch join
+                str.append(join.getAlias() != null ? join.getAlias() : FETCH_JOIN_ALIAS_PREFIX + aliasNumber++);
+                if (join.getOnExpression() != null)
+                {
+                    str.append(" ON ").append(JPQLQueryHelper.getJPQLForExpression(join.getOnExpression()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.ClassExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.JoinExpression;
+import org.datanucleus.store.query.expression.JoinExpression.JoinType;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+
+/**
+ * Fetch joins of a JPQL SELECT query (whether from the single-string form or from a CriteriaQuery), derived from its compilation.
+ * The attributes fetched from the candidate are represented as an (unnamed) entity graph, so they can be added to the fetch plan of the query
+ * and are loaded with the results, rather than by a follow-up load for each result when first accessed.
+ * <p>
+ * A fetch join of a multi-valued attribute returns the candidate once per joined row. When the result of the query is the candidate
+ * the results are de-duplicated as they are read from the query result, so each candidate is returned once, in the order first seen.
+ * Where the query also has a plain join of a multi-valued attribute, the repeated candidates are part of the query semantics so are retained.
+ */
+class JPAQueryFetchJoins
+{
+    /** Graph of the attributes fetched from the candidate. */
+    private final JPAEntityGraph<?> entityGraph;
+
+    /** Whether the candidate results are to be de-duplicated. */
+    private final boolean distinctResults;
+
+    private JPAQueryFetchJoins(JPAEntityGraph<?> entityGraph, boolean distinctResults)
+    {
+        this.entityGraph = entityGraph;
+        this.distinctResults = distinctResults;
+    }
+
+    /**
+     * Accessor for the graph of the attributes fetched from the candidate.
+     * @return The entity graph
+     */
+    JPAEntityGraph<?> getEntityGraph()
+    {
+        return entityGraph;
+    }
+
+    /**
+     * Accessor for whether the candidate results of the query are to be de-duplicated.
+     * @return Whether to de-duplicate the results
+     */
+    boolean isDistinctResults()
+    {
+        return distinctResults;
+    }
+
+    /**
+     * Method to derive the fetch joins of the candidate of a compiled query.
+     * Fetch joins from an alias of a (plain) join of the candidate are followed, so "JOIN a.b b JOIN FETCH b.c" fetches "b.c".
+     * @param ec ExecutionContext
+     * @param compilation The compilation of the query
+     * @return The fetch joins, or null if the query has no fetch joins of the candidate
+     */
+    static JPAQueryFetchJoins getFetchJoins(ExecutionContext ec, QueryCompilation compilation)
+    {
+        Expression[] fromExprs = compilation.getExprFrom();
+        String candidateAlias = compilation.getCandidateAlias();
+        if (fromExprs == null || candidateAlias == null || compilation.getCandidateClass() == null)
+        {
+            return null;
+        }
+
+        MetaDataManager mmgr = ec.getMetaDataManager();
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        AbstractClassMetaData candidateCmd = mmgr.getMetaDataForClass(compilation.getCandidateClass(), clr);
+        if (candidateCmd == null)
+        {
+            return null;
+        }
+
+        JPAEntityGraph<?> entityGraph = null;
+        boolean fetchMultiValued = false;
+        boolean joinMultiValued = false;
+        for (Expression fromExpr : fromExprs)
+        {
+            if (!(fromExpr instanceof ClassExpression) || !candidateAlias.equals(((ClassExpression)fromExpr).getAlias()))
+            {
+                continue;
+            }
+
+            // Path (attribute names from the candidate) of each alias that is joined from the candidate
+            Map<String, List<String>> pathByAlias = new HashMap<>();
+            pathByAlias.put(candidateAlias, new ArrayList<String>());
+
+            Expression currentExpr = fromExpr.getRight();
+            while (currentExpr instanceof JoinExpression)
+            {
+                JoinExpression joinExpr = (JoinExpression)currentExpr;
+                currentExpr = joinExpr.getRight();
+                if (!(joinExpr.getJoinedExpression() instanceof PrimaryExpression))
+                {
+                    continue;
+                }
+
+                List<String> tuples = ((PrimaryExpression)joinExpr.getJoinedExpression()).getTuples();
+                List<String> parentPath = pathByAlias.get(tuples.get(0));
+                if (parentPath == null || tuples.size() < 2)
+                {
+                    // Not joined from the candidate
+                    continue;
+                }
+                List<String> path = new ArrayList<>(parentPath);
+                path.addAll(tuples.subList(1, tuples.size()));
+                if (joinExpr.getAlias() != null)
+                {
+                    pathByAlias.put(joinExpr.getAlias(), path);
+                }
+
+                List<AbstractMemberMetaData> mmds = getMembersForPath(mmgr, clr, candidateCmd, path);
+                if (mmds == null)
+                {
+                    continue;
+                }
+                boolean fetch = isFetch(joinExpr.getType());
+                for (int i=parentPath.size();i<mmds.size();i++)
+                {
+                    AbstractMemberMetaData mmd = mmds.get(i);
+                    if (mmd.hasCollection() || mmd.hasMap() || mmd.hasArray())
+                    {
+                        if (fetch)
+                        {
+                            fetchMultiValued = true;
+                        }
+                        else
+                        {
+                            joinMultiValued = true;
+                        }
+                    }
+                }
+
+                if (fetch)
+                {
+                    if (entityGraph == null)
+                    {
+                        entityGraph = new JPAEntityGraph(mmgr, null, compilation.getCandidateClass());
+                    }
+                    addPath(entityGraph, path);
+                }
+            }
+        }
+        if (entityGraph == null)
+        {
+            return null;
+        }
+
+        return new JPAQueryFetchJoins(entityGraph, fetchMultiValued && !joinMultiValued && isCandidateResult(compilation));
+    }
+
+    private static boolean isFetch(JoinType joinType)
+    {
+        return joinType == JoinType.JOIN_INNER_FETCH || joinType == JoinType.JOIN_LEFT_OUTER_FETCH || joinType == JoinType.JOIN_RIGHT_OUTER_FETCH;
+    }
+
+    /**
+     * Accessor for whether the result of the compiled query is the candidate, either with no result or with the candidate alias as result.
+     * @param compilation The compilation of the query
+     * @return Whether the candidate is the result
+     */
+    static boolean isCandidateResult(QueryCompilation compilation)
+    {
+        Expression[] resultExprs = compilation.getExprResult();
+        if (resultExprs == null)
+        {
+            return true;
+        }
+        return resultExprs.length == 1 && resultExprs[0] instanceof PrimaryExpression &&
+            compilation.getCandidateAlias().equals(((PrimaryExpression)resultExprs[0]).getId());
+    }
+
+    /**
+     * Method to return the metadata for the attributes along a path from the candidate.
+     * @param mmgr MetaData manager
+     * @param clr ClassLoader resolver
+     * @param cmd Metadata for the candidate
+     * @param path Names of the attributes of the path
+     * @return The metadata of each attribute of the path, or null if the path cannot be resolved
+     */
+    private static List<AbstractMemberMetaData> getMembersForPath(MetaDataManager mmgr, ClassLoaderResolver clr, AbstractClassMetaData cmd,
+            List<String> path)
+    {
+        List<AbstractMemberMetaData> mmds = new ArrayList<>(path.size());
+        AbstractClassMetaData currentCmd = cmd;
+        for (String attrName : path)
+        {
+            AbstractMemberMetaData mmd = (currentCmd != null) ? currentCmd.getMetaDataForMember(attrName) : null;
+            if (mmd == null)
+            {
+                return null;
+            }
+            mmds.add(mmd);
+
+            String typeName = mmd.getTypeName();
+            if (mmd.hasCollection())
+            {
+                typeName = mmd.getCollection().getElementType();
+            }
+            else if (mmd.hasArray())
+            {
+                typeName = mmd.getArray().getElementType();
+            }
+            else if (mmd.hasMap())
+            {
+                typeName = mmd.getMap().getValueType();
+            }
+            currentCmd = mmgr.getMetaDataForClass(typeName, clr);
+        }
+        return mmds;
+    }
+
+    /**
+     * Method to add the attributes of a path from the candidate to the graph, with a subgraph for each attribute before the last.
+     * @param graph The graph of the candidate
+     * @param path Names of the attributes of the path
+     */
+    private static void addPath(AbstractJPAGraph<?> graph, List<String> path)
+    {
+        AbstractJPAGraph<?> currentGraph = graph;
+        for (int i=0;i<path.size()-1;i++)
+        {
+            currentGraph = currentGraph.getOrAddSubgraph(path.get(i));
+        }
+
+        String attrName = path.get(path.size()-1);
+        if (currentGraph.attributeNodeMap == null || !currentGraph.attributeNodeMap.containsKey(attrName))
+        {
+            currentGraph.addAttributeNodes(attrName);
+        }
+    }
+
+    /**
+     * Iterator wrapper for a query result returning each candidate once, skipping the repeats of a candidate already returned.
+     * Only the identities of the candidates returned are retained, so this doesn't hold on to the (joined) rows of the query result.
+     * @param <T> Type of the result row
+     */
+    static class DistinctResultIterator<T> implements Iterator<T>
+    {
+        ExecutionContext ec;
+        Iterator<T> delegate;
+        Set<Object> ids = new HashSet<>();
+        T next = null;
+        boolean hasNext = false;
+
+        DistinctResultIterator(ExecutionContext ec, Iterator<T> delegate)
+        {
+            this.ec = ec;
+            this.delegate = delegate;
+        }
+
+        public boolean hasNext()
+        {
+            while (!hasNext && delegate.hasNext())
+            {
+                T row = delegate.next();
+                Object id = (row != null) ? ec.getApiAdapter().getIdForObject(row) : null;
+                if (id == null || ids.add(id))
+                {
+                    next = row;
+                    hasNext = true;
+                }
+            }
+            return hasNext;
+        }
+
+        public T next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            T row = next;
+            next = null;
+            hasNext = false;
+            return row;
+        }
+    }
+}
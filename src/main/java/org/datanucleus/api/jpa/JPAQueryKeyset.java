@@ -0,0 +1,522 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Tuple;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.enhancement.Persistable;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.query.JPQLQueryHelper;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.compiler.Symbol;
+import org.datanucleus.store.query.compiler.SymbolTable;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.OrderExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.util.ClassUtils;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.StringUtils;
+
+/**
+ * Keyset (seek) pagination of a JPQL query.
+ * Rather than skipping the rows of the previous pages (offset paging), the filter of the query is extended with a seek predicate
+ * on the ordering expressions, selecting only the rows that sort after the ordering key values of the last row seen.
+ * The cost of a page is then independent of how deep it is, provided the datastore can use an index on the ordering expressions.
+ * <p>
+ * The ordering of the query defines the keys, so it must be present and should end with a unique expression (e.g the id) so that
+ * every row has a distinct position. For ordering "a ASC, b DESC" and last key values (x, y) the seek predicate is
+ * <pre>(a &gt; x) OR (a = x AND b &lt; y)</pre>
+ * The ordering expressions, and how to take their values from a result row, are taken from the generic compilation of the query.
+ * The ordering key values of the last row of a page are available as a continuation token, an opaque URL-safe String that can be
+ * passed back to get the next page.
+ */
+class JPAQueryKeyset
+{
+    /** Prefix of the named parameters for the key values. */
+    private static final String PARAMETER_PREFIX = "dnKeyset";
+
+    /** Filter of the query without any seek predicate. */
+    private final String baseFilter;
+
+    /** Generic compilation of the query without any seek predicate. */
+    private final QueryCompilation baseCompilation;
+
+    /** Ordering of the query, in JPQL as compiled, identifying the query in continuation tokens. */
+    private final String ordering;
+
+    /** Ordering expressions in JPQL, as used in the seek predicate (so with any result alias replaced by its result expression). */
+    private final String[] orderExpressions;
+
+    /** Whether each ordering expression is descending. */
+    private final boolean[] descending;
+
+    /** Number of elements in each result row. */
+    private final int numberOfResults;
+
+    /** Position in the result row of the element that each ordering key value is taken from, or -1 if not in the result. */
+    private final int[] resultPositions;
+
+    /** Field path from the result element to each ordering key value, or null when the key value is the result element. */
+    private final String[][] resultPaths;
+
+    /** Position of the first key value parameter when the query uses positional parameters, otherwise -1. */
+    private final int firstPosition;
+
+    /** Ordering key values of the last row seen, or null for the first page. */
+    private Object[] keyValues;
+
+    /**
+     * Constructor for keyset pagination of the provided query.
+     * @param ec ExecutionContext
+     * @param query The (JPQL) query
+     * @throws IllegalStateException if the query has no ordering, or the ordering is not usable for keyset pagination
+     */
+    JPAQueryKeyset(ExecutionContext ec, Query query)
+    {
+        this.baseFilter = query.getFilter();
+        if (query.getCompilation() == null)
+        {
+            query.compile();
+        }
+        QueryCompilation compilation = query.getCompilation();
+        this.baseCompilation = compilation;
+        Expression[] orderExprs = compilation.getExprOrdering();
+        if (orderExprs == null || orderExprs.length == 0)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.KeysetOrderingMissing"));
+        }
+
+        // Result elements, by JPQL and alias, for locating the ordering key values in result rows
+        Expression[] resultExprs = compilation.getExprResult();
+        if (resultExprs == null || resultExprs.length == 0)
+        {
+            // Result is the candidate
+            resultExprs = null;
+        }
+        numberOfResults = (resultExprs != null) ? resultExprs.length : 1;
+        String[] resultItems = new String[numberOfResults];
+        String[] resultAliases = new String[numberOfResults];
+        if (resultExprs == null)
+        {
+            resultItems[0] = compilation.getCandidateAlias();
+        }
+        else
+        {
+            for (int i=0;i<resultExprs.length;i++)
+            {
+                resultItems[i] = getJPQL(resultExprs[i]);
+                resultAliases[i] = resultExprs[i].getAlias();
+            }
+        }
+
+        StringBuilder orderingStr = new StringBuilder();
+        orderExpressions = new String[orderExprs.length];
+        descending = new boolean[orderExprs.length];
+        resultPositions = new int[orderExprs.length];
+        resultPaths = new String[orderExprs.length][];
+        for (int i=0;i<orderExprs.length;i++)
+        {
+            OrderExpression orderExpr = (OrderExpression)orderExprs[i];
+            Expression keyExpr = orderExpr.getLeft();
+            String keyStr = getJPQL(keyExpr);
+            if (orderExpr.getNullOrder() != null || keyStr == null)
+            {
+                throw new IllegalStateException(Localiser.msg("Query.KeysetOrderingInvalid", keyStr != null ? keyStr : orderExpr.toString()));
+            }
+            descending[i] = "descending".equalsIgnoreCase(orderExpr.getSortOrder());
+            orderingStr.append(i > 0 ? "," : "").append(keyStr).append(descending[i] ? " DESC" : " ASC");
+
+            resultPositions[i] = -1;
+            for (int j=0;j<numberOfResults;j++)
+            {
+                if (keyStr.equalsIgnoreCase(resultAliases[j]))
+                {
+                    // Ordering by the alias of a result expression, which can't be referred to in the filter
+                    resultPositions[i] = j;
+                    keyExpr = resultExprs[j];
+                    keyStr = resultItems[j];
+                    break;
+                }
+                else if (keyStr.equalsIgnoreCase(resultItems[j]))
+                {
+                    resultPositions[i] = j;
+                    break;
+                }
+                else if (resultItems[j] != null && keyStr.startsWith(resultItems[j] + "."))
+                {
+                    resultPositions[i] = j;
+                    resultPaths[i] = keyStr.substring(resultItems[j].length()+1).split("\\.");
+                    break;
+                }
+            }
+            orderExpressions[i] = keyStr;
+
+            // Key values are held in continuation tokens, so must be of a type that can be
+            Class keyType = getKeyType(ec, compilation.getSymbolTable(), keyExpr);
+            if (keyType != null && !TypedValueStrings.isSupportedType(keyType))
+            {
+                throw new IllegalStateException(Localiser.msg("Query.KeysetKeyTypeInvalid", keyStr, keyType.getName()));
+            }
+        }
+        this.ordering = orderingStr.toString();
+
+        // Use parameters of the same type as the query since JPQL doesn't allow a mix of named and positional parameters
+        int maxPosition = getMaxParameterPosition(compilation);
+        String[] subqueryAliases = compilation.getSubqueryAliases();
+        if (subqueryAliases != null)
+        {
+            for (String subqueryAlias : subqueryAliases)
+            {
+                maxPosition = Math.max(maxPosition, getMaxParameterPosition(compilation.getCompilationForSubquery(subqueryAlias)));
+            }
+        }
+        this.firstPosition = (maxPosition >= 0) ? maxPosition + 1 : -1;
+    }
+
+    /**
+     * Method to set the ordering key values of the last row seen.
+     * @param values The values of the ordering expressions, in ordering order, or null for the first page
+     * @throws IllegalArgumentException if the number of values doesn't match the ordering, or a value is null
+     */
+    void setKeyValues(Object[] values)
+    {
+        if (values != null && values.length > 0)
+        {
+            if (values.length != orderExpressions.length)
+            {
+                throw new IllegalArgumentException(Localiser.msg("Query.KeysetValuesInvalid", ordering, values.length));
+            }
+            for (Object value : values)
+            {
+                if (value == null)
+                {
+                    throw new IllegalArgumentException(Localiser.msg("Query.KeysetValuesInvalid", ordering, values.length));
+                }
+            }
+            this.keyValues = values.clone();
+        }
+        else
+        {
+            this.keyValues = null;
+        }
+    }
+
+    /**
+     * Method to set the ordering key values of the last row seen from a continuation token.
+     * @param token The continuation token, or null for the first page
+     * @throws IllegalArgumentException if the token is not valid for this query
+     */
+    void setContinuation(String token)
+    {
+        if (token == null)
+        {
+            this.keyValues = null;
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token))))
+        {
+            if (!ordering.equals(in.readUTF()))
+            {
+                throw new IllegalArgumentException(Localiser.msg("Query.KeysetContinuationInvalid", token));
+            }
+            Object[] values = new Object[in.readInt()];
+            for (int i=0;i<values.length;i++)
+            {
+                values[i] = TypedValueStrings.fromString(in.readUTF());
+            }
+            setKeyValues(values);
+        }
+        catch (IOException | NucleusException | IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException(Localiser.msg("Query.KeysetContinuationInvalid", token), e);
+        }
+    }
+
+    /**
+     * Accessor for the generic compilation of the query without any seek predicate.
+     * @return The compilation
+     */
+    QueryCompilation getBaseCompilation()
+    {
+        return baseCompilation;
+    }
+
+    /**
+     * Method to apply the seek predicate for the current key values to the query, binding the key values as parameters.
+     * When the filter is unchanged (first page, or the same query text as the previous page) the query is not modified,
+     * so any compilation is retained, and the query text is identical for all pages after the first for the query compilation cache.
+     * @param query The query
+     */
+    void apply(Query query)
+    {
+        String[] paramRefs = null;
+        String filter = baseFilter;
+        if (keyValues != null)
+        {
+            paramRefs = new String[keyValues.length];
+            for (int i=0;i<keyValues.length;i++)
+            {
+                paramRefs[i] = (firstPosition >= 0) ? ("?" + (firstPosition + i)) : (":" + PARAMETER_PREFIX + i);
+            }
+            String seek = getSeekPredicate(paramRefs);
+            filter = StringUtils.isWhitespace(baseFilter) ? seek : "(" + baseFilter + ") AND (" + seek + ")";
+        }
+
+        String currentFilter = query.getFilter();
+        if (filter == null ? currentFilter != null : !filter.equals(currentFilter))
+        {
+            // Changing the filter discards the compilation, so retain any parameter values already set
+            Map<Object, Object> paramValues = query.getImplicitParameters() != null ? new HashMap<>(query.getImplicitParameters()) : null;
+            query.setFilter(filter);
+            if (paramValues != null)
+            {
+                for (Map.Entry<Object, Object> paramEntry : paramValues.entrySet())
+                {
+                    if (paramEntry.getKey() instanceof Integer)
+                    {
+                        query.setImplicitParameter((Integer)paramEntry.getKey(), paramEntry.getValue());
+                    }
+                    else
+                    {
+                        query.setImplicitParameter((String)paramEntry.getKey(), paramEntry.getValue());
+                    }
+                }
+            }
+        }
+
+        if (paramRefs != null)
+        {
+            for (int i=0;i<keyValues.length;i++)
+            {
+                query.setImplicitParameter(paramRefs[i].substring(1), keyValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Method to return the continuation token for the page after the provided (last) row of a page.
+     * The ordering key values are taken from the row, so each ordering expression must either be a result expression (or its alias),
+     * or be a field path of an entity in the result (e.g "p.lastName" when the result is "p"). The entity can be managed, or detached
+     * with the field loaded.
+     * @param ec ExecutionContext
+     * @param row The last row of the page
+     * @return The continuation token
+     * @throws IllegalStateException if an ordering key value cannot be determined from the row
+     */
+    String getContinuation(ExecutionContext ec, Object row)
+    {
+        Object[] values = new Object[orderExpressions.length];
+        for (int i=0;i<orderExpressions.length;i++)
+        {
+            values[i] = getKeyValue(ec, row, i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes))
+        {
+            out.writeUTF(ordering);
+            out.writeInt(values.length);
+            for (Object value : values)
+            {
+                out.writeUTF(TypedValueStrings.toString(value));
+            }
+        }
+        catch (IOException | NucleusException e)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.KeysetKeyNotAvailable", ordering), e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private String getSeekPredicate(String[] paramRefs)
+    {
+        StringBuilder str = new StringBuilder();
+        for (int i=0;i<orderExpressions.length;i++)
+        {
+            if (i > 0)
+            {
+                str.append(" OR ");
+            }
+            str.append('(');
+            for (int j=0;j<i;j++)
+            {
+                str.append(orderExpressions[j]).append(" = ").append(paramRefs[j]).append(" AND ");
+            }
+            str.append(orderExpressions[i]).append(descending[i] ? " < " : " > ").append(paramRefs[i]);
+            str.append(')');
+        }
+        return str.toString();
+    }
+
+    private Object getKeyValue(ExecutionContext ec, Object row, int keyNumber)
+    {
+        Object value = null;
+        if (resultPositions[keyNumber] >= 0)
+        {
+            value = getResultElement(row, resultPositions[keyNumber], numberOfResults);
+            if (resultPaths[keyNumber] != null)
+            {
+                // Navigate the field path from the entity
+                for (String memberName : resultPaths[keyNumber])
+                {
+                    value = getMemberValue(ec, value, memberName);
+                    if (value == null)
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        if (value == null)
+        {
+            throw new IllegalStateException(Localiser.msg("Query.KeysetKeyNotAvailable", orderExpressions[keyNumber]));
+        }
+        return value;
+    }
+
+    private static Object getMemberValue(ExecutionContext ec, Object obj, String memberName)
+    {
+        DNStateManager sm = ec.findStateManager(obj);
+        if (sm != null)
+        {
+            int fieldNumber = sm.getClassMetaData().getAbsolutePositionOfMember(memberName);
+            if (fieldNumber < 0)
+            {
+                return null;
+            }
+            if (!sm.isLoaded(fieldNumber))
+            {
+                sm.loadField(fieldNumber);
+            }
+            return sm.provideField(fieldNumber);
+        }
+        else if (ec.getApiAdapter().isDetached(obj))
+        {
+            // Released (detached) result, so take the value when loaded before detaching
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(obj.getClass(), ec.getClassLoaderResolver());
+            int fieldNumber = (cmd != null) ? cmd.getAbsolutePositionOfMember(memberName) : -1;
+            Object[] detachedState = (fieldNumber >= 0) ? (Object[])((Persistable)obj).dnGetDetachedState() : null;
+            if (detachedState == null || !((BitSet)detachedState[2]).get(fieldNumber))
+            {
+                return null;
+            }
+            return ClassUtils.getValueOfFieldByReflection(obj, memberName);
+        }
+        return null;
+    }
+
+    private static Object getResultElement(Object row, int position, int numberOfElements)
+    {
+        if (row instanceof Tuple)
+        {
+            return ((Tuple)row).get(position);
+        }
+        else if (row instanceof Object[] && numberOfElements > 1)
+        {
+            return ((Object[])row)[position];
+        }
+        return row;
+    }
+
+    /**
+     * Method to return the JPQL for a compiled expression.
+     * @param expr The expression
+     * @return The JPQL, or null if the expression can't be represented
+     */
+    private static String getJPQL(Expression expr)
+    {
+        try
+        {
+            return JPQLQueryHelper.getJPQLForExpression(expr);
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Method to return the type of the values of an ordering expression, where it is a field path from an alias or has a typed symbol.
+     * @param ec ExecutionContext
+     * @param symtbl Symbol table of the compilation
+     * @param expr The expression
+     * @return The type, or null if not known
+     */
+    private static Class getKeyType(ExecutionContext ec, SymbolTable symtbl, Expression expr)
+    {
+        if (expr instanceof PrimaryExpression)
+        {
+            List<String> tuples = ((PrimaryExpression)expr).getTuples();
+            Symbol aliasSym = symtbl.getSymbol(tuples.get(0));
+            Class type = (aliasSym != null) ? aliasSym.getValueType() : null;
+            ClassLoaderResolver clr = ec.getClassLoaderResolver();
+            for (int i=1;i<tuples.size() && type != null;i++)
+            {
+                AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(type, clr);
+                AbstractMemberMetaData mmd = (cmd != null) ? cmd.getMetaDataForMember(tuples.get(i)) : null;
+                type = (mmd != null) ? mmd.getType() : null;
+            }
+            return type;
+        }
+        return (expr.getSymbol() != null) ? expr.getSymbol().getValueType() : null;
+    }
+
+    /**
+     * Method to return the highest position of the positional parameters of a compilation (parameters named by their position).
+     * @param compilation The compilation
+     * @return The highest position, or -1 if there are no positional parameters
+     */
+    private static int getMaxParameterPosition(QueryCompilation compilation)
+    {
+        int maxPosition = -1;
+        SymbolTable symtbl = compilation.getSymbolTable();
+        for (String symName : symtbl.getSymbolNames())
+        {
+            if (symtbl.getSymbol(symName).getType() == Symbol.PARAMETER)
+            {
+                try
+                {
+                    maxPosition = Math.max(maxPosition, Integer.parseInt(symName));
+                }
+                catch (NumberFormatException nfe)
+                {
+                    // Named parameter
+                }
+            }
+        }
+        return maxPosition;
+    }
+}
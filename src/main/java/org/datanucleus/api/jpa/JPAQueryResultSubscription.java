@@ -0,0 +1,208 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+/**
+ * Subscription to the results of a JPA query, as returned by JPAQuery.getResultPublisher().
+ * All work with the query (executing it, reading rows from its cursor, closing it) and all signals to the subscriber happen in tasks
+ * on the async executor of the EntityManager, so never concurrently with other use of its ExecutionContext.
+ * Each task reads and publishes at most one row, and rows are only read as the subscriber requests them, so there is no read-ahead.
+ * @param <X> Type of the results
+ */
+class JPAQueryResultSubscription<X> implements Flow.Subscription
+{
+    private final JPAQuery<X> query;
+
+    private final Flow.Subscriber<? super X> subscriber;
+
+    private final Executor executor;
+
+    /** Number of rows requested and not yet published. */
+    private long demand = 0;
+
+    /** Error to signal to the subscriber, when it requested a non-positive number of rows. */
+    private Throwable pendingError = null;
+
+    private boolean cancelled = false;
+
+    /** Whether a task is queued on the executor and has not yet started. */
+    private boolean scheduled = false;
+
+    /** Whether the subscription is complete (by completion, error or cancellation). Only accessed by tasks on the executor. */
+    private boolean done = false;
+
+    private Stream<X> stream = null;
+
+    private Iterator<X> resultIter = null;
+
+    JPAQueryResultSubscription(JPAQuery<X> query, Flow.Subscriber<? super X> subscriber, Executor executor)
+    {
+        this.query = query;
+        this.subscriber = subscriber;
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void request(long n)
+    {
+        if (n <= 0)
+        {
+            if (pendingError == null)
+            {
+                pendingError = new IllegalArgumentException("Number of results requested must be positive but was " + n);
+            }
+        }
+        else
+        {
+            demand += n;
+            if (demand < 0)
+            {
+                // Overflow, so treat as unbounded
+                demand = Long.MAX_VALUE;
+            }
+        }
+        schedule();
+    }
+
+    @Override
+    public synchronized void cancel()
+    {
+        cancelled = true;
+        schedule();
+    }
+
+    /**
+     * Method to queue a task on the executor to publish the next row (or signal an error, or close after cancellation), unless one is already queued.
+     */
+    private synchronized void schedule()
+    {
+        if (!scheduled)
+        {
+            scheduled = true;
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    publishNext();
+                }
+            });
+        }
+    }
+
+    /**
+     * Method run on the executor to publish the next row, if requested.
+     * Reads from the cursor until a non-null row is found (Flow does not allow null items), executing the query on the first call.
+     */
+    private void publishNext()
+    {
+        Throwable err;
+        boolean cancel;
+        synchronized (this)
+        {
+            scheduled = false;
+            if (done || (demand == 0 && pendingError == null && !cancelled))
+            {
+                return;
+            }
+            err = pendingError;
+            cancel = cancelled;
+        }
+
+        if (cancel || err != null)
+        {
+            done = true;
+            close();
+            if (!cancel)
+            {
+                subscriber.onError(err);
+            }
+            return;
+        }
+
+        X row = null;
+        try
+        {
+            if (resultIter == null)
+            {
+                stream = query.getResultStream();
+                resultIter = stream.iterator();
+            }
+            while (row == null && resultIter.hasNext())
+            {
+                row = resultIter.next();
+            }
+        }
+        catch (Throwable thr)
+        {
+            done = true;
+            close();
+            subscriber.onError(thr);
+            return;
+        }
+
+        if (row == null)
+        {
+            done = true;
+            close();
+            subscriber.onComplete();
+            return;
+        }
+
+        synchronized (this)
+        {
+            demand--;
+        }
+        try
+        {
+            subscriber.onNext(row);
+        }
+        catch (RuntimeException e)
+        {
+            // Subscriber failed, so consider the subscription cancelled
+            done = true;
+            close();
+            throw e;
+        }
+
+        synchronized (this)
+        {
+            if (demand > 0 || cancelled || pendingError != null)
+            {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Method to close the cursor of the query, if opened.
+     */
+    private void close()
+    {
+        if (stream != null)
+        {
+            stream.close();
+            stream = null;
+            resultIter = null;
+        }
+    }
+}
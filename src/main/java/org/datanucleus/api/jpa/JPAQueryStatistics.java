@@ -0,0 +1,468 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.datanucleus.store.query.Query;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Statistics of the queries executed by the EntityManagers of an EntityManagerFactory, held per query signature.
+ * The signature is the name of a named query, otherwise the query string (JPQL, native, or the JPQL of a criteria query) with its
+ * whitespace normalised. For each signature this holds the number of executions and failures, the number of rows returned or updated,
+ * how often the compilation was already available, the time spent in flush-before-execute, compilation and execution, and a histogram of
+ * the total latency. Recording uses only striped counters, so is cheap enough to leave enabled.
+ * Any execution taking longer than the slow query threshold is logged to the "DataNucleus.Query" log.
+ * Registered with JMX as a JPAQueryStatisticsMBean when the persistence property "datanucleus.jpa.queryStatisticsJmx" is set.
+ */
+public class JPAQueryStatistics implements JPAQueryStatisticsMBean
+{
+    /** Upper bounds (in milliseconds) of the latency histogram buckets. There is a final bucket for anything slower. */
+    public static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    /** Signature under which executions are recorded once the maximum number of signatures has been reached. */
+    public static final String OTHER_SIGNATURE = "<other>";
+
+    /** Maximum number of distinct signatures, so that queries with inlined literals cannot grow this without limit. */
+    static final int MAX_SIGNATURES = 1000;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final boolean recordStatistics;
+
+    private final long slowQueryThresholdNanos;
+
+    private final Map<String, SignatureStatistics> statisticsBySignature = new ConcurrentHashMap<>();
+
+    private final LongAdder slowQueryCount = new LongAdder();
+
+    /**
+     * Constructor.
+     * @param recordStatistics Whether to record the statistics per signature
+     * @param slowQueryThresholdMillis Time (ms) above which an execution is logged as slow, or 0 to not log slow queries
+     */
+    public JPAQueryStatistics(boolean recordStatistics, long slowQueryThresholdMillis)
+    {
+        this.recordStatistics = recordStatistics;
+        this.slowQueryThresholdNanos = slowQueryThresholdMillis > 0 ? slowQueryThresholdMillis * NANOS_PER_MILLI : Long.MAX_VALUE;
+    }
+
+    /**
+     * Accessor for whether statistics are recorded per signature (as opposed to only logging slow queries).
+     * @return Whether recording statistics
+     */
+    public boolean isRecordingStatistics()
+    {
+        return recordStatistics;
+    }
+
+    /**
+     * Accessor for the statistics of the specified signature.
+     * @param signature The query signature
+     * @return The statistics, or null if no query with this signature has been executed
+     */
+    public SignatureStatistics getStatistics(String signature)
+    {
+        return statisticsBySignature.get(signature);
+    }
+
+    /**
+     * Accessor for the statistics of all signatures executed since creation (or the last reset), ordered by descending total time.
+     * @return The statistics keyed by signature
+     */
+    public Map<String, SignatureStatistics> getStatistics()
+    {
+        Map.Entry<String, SignatureStatistics>[] entries = statisticsBySignature.entrySet().toArray(new Map.Entry[0]);
+        Arrays.sort(entries, new Comparator<Map.Entry<String, SignatureStatistics>>()
+        {
+            public int compare(Map.Entry<String, SignatureStatistics> e1, Map.Entry<String, SignatureStatistics> e2)
+            {
+                return Long.compare(e2.getValue().getTotalTimeNanos(), e1.getValue().getTotalTimeNanos());
+            }
+        });
+        Map<String, SignatureStatistics> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, SignatureStatistics> entry : entries)
+        {
+            stats.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public String[] getSignatures()
+    {
+        return getStatistics().keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getExecutionCount()
+    {
+        long count = 0;
+        for (SignatureStatistics stats : statisticsBySignature.values())
+        {
+            count += stats.getExecutionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getSlowQueryCount()
+    {
+        return slowQueryCount.sum();
+    }
+
+    @Override
+    public long getExecutionCount(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getExecutionCount() : 0;
+    }
+
+    @Override
+    public long getErrorCount(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getErrorCount() : 0;
+    }
+
+    @Override
+    public long getCompilationCacheHitCount(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getCompilationCacheHitCount() : 0;
+    }
+
+    @Override
+    public long getRowCount(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getRowCount() : 0;
+    }
+
+    @Override
+    public double getMeanTimeMillis(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getMeanTimeMillis() : 0;
+    }
+
+    @Override
+    public double getMaxTimeMillis(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getMaxTimeNanos() / (double)NANOS_PER_MILLI : 0;
+    }
+
+    @Override
+    public long[] getLatencyHistogram(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        return stats != null ? stats.getLatencyHistogram() : new long[LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        statisticsBySignature.clear();
+        slowQueryCount.reset();
+    }
+
+    /**
+     * Method to start timing an execution of the provided query.
+     * @param signature Signature of the query
+     * @param query The query being executed
+     * @return The execution, to be ended when the query has executed
+     */
+    Execution startExecution(String signature, Query query)
+    {
+        return new Execution(signature, query);
+    }
+
+    private SignatureStatistics getOrCreateStatistics(String signature)
+    {
+        SignatureStatistics stats = statisticsBySignature.get(signature);
+        if (stats == null)
+        {
+            synchronized (this)
+            {
+                stats = statisticsBySignature.get(signature);
+                if (stats == null)
+                {
+                    if (statisticsBySignature.size() >= MAX_SIGNATURES && !OTHER_SIGNATURE.equals(signature))
+                    {
+                        return getOrCreateStatistics(OTHER_SIGNATURE);
+                    }
+                    stats = new SignatureStatistics();
+                    statisticsBySignature.put(signature, stats);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Method to return the signature for a query string, normalising its whitespace.
+     * @param queryString The query string
+     * @return The signature
+     */
+    static String getSignatureForQueryString(String queryString)
+    {
+        if (queryString == null)
+        {
+            return OTHER_SIGNATURE;
+        }
+
+        StringBuilder str = new StringBuilder(queryString.length());
+        boolean whitespace = false;
+        for (int i=0;i<queryString.length();i++)
+        {
+            char c = queryString.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                whitespace = true;
+            }
+            else
+            {
+                if (whitespace && str.length() > 0)
+                {
+                    str.append(' ');
+                }
+                whitespace = false;
+                str.append(c);
+            }
+        }
+        return str.toString();
+    }
+
+    /**
+     * Timing of a single execution of a query, recorded when ended.
+     */
+    class Execution
+    {
+        final String signature;
+        final Query query;
+        final long startTime;
+        long flushTime = 0;
+        long compileTime = 0;
+        boolean compilationCached = false;
+        long rows = -1;
+        boolean succeeded = false;
+
+        Execution(String signature, Query query)
+        {
+            this.signature = signature;
+            this.query = query;
+            this.startTime = System.nanoTime();
+        }
+
+        /**
+         * Method to mark the end of the flush-before-execute phase.
+         */
+        void flushed()
+        {
+            flushTime = System.nanoTime() - startTime;
+        }
+
+        /**
+         * Method to compile the query (if not already compiled), timing it, and noting whether a generic compilation was already available.
+         */
+        void compile()
+        {
+            long compileStart = System.nanoTime();
+            compilationCached = query.getCompilation() != null ||
+                query.getStoreManager().getQueryManager().getQueryCompilationForQuery(query.getLanguage(), query.toString()) != null;
+            query.compile();
+            compileTime = System.nanoTime() - compileStart;
+        }
+
+        /**
+         * Method to mark the execution as successful.
+         * @param numRows Number of rows returned/updated, or -1 if not known (e.g a cursor)
+         */
+        void succeeded(long numRows)
+        {
+            this.rows = numRows;
+            this.succeeded = true;
+        }
+
+        /**
+         * Method to end the execution, recording it and logging it if slow.
+         */
+        void end()
+        {
+            long totalTime = System.nanoTime() - startTime;
+            if (recordStatistics)
+            {
+                getOrCreateStatistics(signature).record(totalTime, flushTime, compileTime, compilationCached, rows, succeeded);
+            }
+            if (totalTime > slowQueryThresholdNanos)
+            {
+                slowQueryCount.increment();
+                NucleusLogger.QUERY.warn(Localiser.msg("Query.SlowQuery", signature, totalTime / NANOS_PER_MILLI, flushTime / NANOS_PER_MILLI,
+                    compileTime / NANOS_PER_MILLI, (totalTime - flushTime - compileTime) / NANOS_PER_MILLI, rows >= 0 ? String.valueOf(rows) : "?"));
+            }
+        }
+    }
+
+    /**
+     * Statistics of the executions of one query signature.
+     */
+    public static class SignatureStatistics
+    {
+        private final LongAdder executionCount = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final LongAdder compilationCacheHitCount = new LongAdder();
+        private final LongAdder rowCount = new LongAdder();
+        private final LongAdder totalTimeNanos = new LongAdder();
+        private final LongAdder flushTimeNanos = new LongAdder();
+        private final LongAdder compileTimeNanos = new LongAdder();
+        private final AtomicLong maxTimeNanos = new AtomicLong();
+        private final LongAdder[] latencyBuckets;
+
+        SignatureStatistics()
+        {
+            latencyBuckets = new LongAdder[LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+            for (int i=0;i<latencyBuckets.length;i++)
+            {
+                latencyBuckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long totalTime, long flushTime, long compileTime, boolean compilationCached, long rows, boolean succeeded)
+        {
+            executionCount.increment();
+            if (!succeeded)
+            {
+                errorCount.increment();
+            }
+            if (compilationCached)
+            {
+                compilationCacheHitCount.increment();
+            }
+            if (rows > 0)
+            {
+                rowCount.add(rows);
+            }
+            totalTimeNanos.add(totalTime);
+            flushTimeNanos.add(flushTime);
+            compileTimeNanos.add(compileTime);
+            long max = maxTimeNanos.get();
+            while (totalTime > max && !maxTimeNanos.compareAndSet(max, totalTime))
+            {
+                max = maxTimeNanos.get();
+            }
+
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length && totalTime > LATENCY_BUCKET_BOUNDS_MILLIS[bucket] * NANOS_PER_MILLI)
+            {
+                bucket++;
+            }
+            latencyBuckets[bucket].increment();
+        }
+
+        public long getExecutionCount()
+        {
+            return executionCount.sum();
+        }
+
+        public long getErrorCount()
+        {
+            return errorCount.sum();
+        }
+
+        /**
+         * Accessor for the number of executions where the query compilation was already available (on the query, or in the generic compilation cache).
+         * @return Number of compilation cache hits
+         */
+        public long getCompilationCacheHitCount()
+        {
+            return compilationCacheHitCount.sum();
+        }
+
+        /**
+         * Accessor for the total number of rows returned (SELECT) or updated/deleted (UPDATE/DELETE).
+         * Rows of results that are read lazily from a cursor (e.g getResultStream) are not counted.
+         * @return Number of rows
+         */
+        public long getRowCount()
+        {
+            return rowCount.sum();
+        }
+
+        public long getTotalTimeNanos()
+        {
+            return totalTimeNanos.sum();
+        }
+
+        public long getFlushTimeNanos()
+        {
+            return flushTimeNanos.sum();
+        }
+
+        public long getCompileTimeNanos()
+        {
+            return compileTimeNanos.sum();
+        }
+
+        public long getExecuteTimeNanos()
+        {
+            return totalTimeNanos.sum() - flushTimeNanos.sum() - compileTimeNanos.sum();
+        }
+
+        public long getMaxTimeNanos()
+        {
+            return maxTimeNanos.get();
+        }
+
+        public double getMeanTimeMillis()
+        {
+            long count = executionCount.sum();
+            return count > 0 ? totalTimeNanos.sum() / (double)count / NANOS_PER_MILLI : 0;
+        }
+
+        /**
+         * Accessor for the histogram of the total latency of executions.
+         * @return Count of executions in each bucket, where bucket i is for latencies up to LATENCY_BUCKET_BOUNDS_MILLIS[i] and the final bucket is for
+         *     anything slower
+         */
+        public long[] getLatencyHistogram()
+        {
+            long[] histogram = new long[latencyBuckets.length];
+            for (int i=0;i<latencyBuckets.length;i++)
+            {
+                histogram[i] = latencyBuckets[i].sum();
+            }
+            return histogram;
+        }
+
+        public String toString()
+        {
+            return "executions=" + getExecutionCount() + " errors=" + getErrorCount() + " cacheHits=" + getCompilationCacheHitCount() +
+                " rows=" + getRowCount() + " meanMs=" + getMeanTimeMillis() + " maxMs=" + (getMaxTimeNanos() / (double)NANOS_PER_MILLI);
+        }
+    }
+}
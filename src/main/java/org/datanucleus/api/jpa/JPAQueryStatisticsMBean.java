@@ -0,0 +1,67 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+/**
+ * JMX management interface for the query statistics of an EntityManagerFactory.
+ * Per-signature values are accessed by passing the signature, as returned by getSignatures().
+ */
+public interface JPAQueryStatisticsMBean
+{
+    /**
+     * Accessor for the signatures of all queries executed, ordered by descending total time.
+     * @return The signatures
+     */
+    String[] getSignatures();
+
+    /**
+     * Accessor for the total number of query executions across all signatures.
+     * @return Number of executions
+     */
+    long getExecutionCount();
+
+    /**
+     * Accessor for the number of executions that exceeded the slow query threshold.
+     * @return Number of slow executions
+     */
+    long getSlowQueryCount();
+
+    long getExecutionCount(String signature);
+
+    long getErrorCount(String signature);
+
+    long getCompilationCacheHitCount(String signature);
+
+    long getRowCount(String signature);
+
+    double getMeanTimeMillis(String signature);
+
+    double getMaxTimeMillis(String signature);
+
+    /**
+     * Accessor for the latency histogram of the specified signature.
+     * @param signature The signature
+     * @return Counts per bucket, see JPAQueryStatistics.LATENCY_BUCKET_BOUNDS_MILLIS
+     */
+    long[] getLatencyHistogram(String signature);
+
+    /**
+     * Method to clear all statistics.
+     */
+    void reset();
+}
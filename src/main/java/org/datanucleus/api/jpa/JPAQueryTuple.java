@@ -18,23 +18,64 @@ Contributors:
 package org.datanucleus.api.jpa;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Tuple;
 import javax.persistence.TupleElement;
 
 /**
  * Implementation of a JPA Tuple, for a query result.
+ * The values are held in an array, and the aliases in a {@link Shape}. While a query loads its rows it sets the root shape for the thread
+ * (see setRootShape), so all tuples of the query having the same aliases in the same order share the same shape, and loading a row
+ * allocates only the tuple and its values. A tuple created with no root shape set has shapes of its own.
  */
 public class JPAQueryTuple implements Tuple
 {
-    protected List<JPAQueryTupleElement> elements = new ArrayList<JPAQueryTupleElement>();
-    protected Map<String, JPAQueryTupleElement> elementByAlias = new HashMap<String, JPAQueryTupleElement>();
+    /** Root shape for the tuples created by the current thread, while a query is loading its rows. */
+    private static final ThreadLocal<Shape> ROOT_SHAPE = new ThreadLocal<>();
+
+    /** Shape of this tuple (aliases of the values). */
+    protected Shape shape;
+
+    /** Values of the elements, in the order of the aliases of the shape. Only the first "shape.size" are set. */
+    protected Object[] values;
 
     public JPAQueryTuple()
     {
+        Shape rootShape = ROOT_SHAPE.get();
+        shape = (rootShape != null ? rootShape : new Shape(null, null));
+    }
+
+    /**
+     * Method to create a root shape, of a tuple with no elements, from which the shapes of the tuples of a query are reached.
+     * @return The root shape
+     */
+    static Shape newRootShape()
+    {
+        return new Shape(null, null);
+    }
+
+    /**
+     * Method to set the root shape for the tuples created by the current thread.
+     * @param rootShape The root shape (see newRootShape), or null to unset it
+     * @return The previous root shape of the thread, to be restored afterwards (or null if none)
+     */
+    static Shape setRootShape(Shape rootShape)
+    {
+        Shape previous = ROOT_SHAPE.get();
+        if (rootShape != null)
+        {
+            ROOT_SHAPE.set(rootShape);
+        }
+        else
+        {
+            ROOT_SHAPE.remove();
+        }
+        return previous;
     }
 
     /**
@@ -44,9 +85,33 @@ public class JPAQueryTuple implements Tuple
      */
     public void put(Object key, Object val)
     {
-        JPAQueryTupleElement te = new JPAQueryTupleElement((String) key, (val != null) ? val.getClass() : null, val);
-        elements.add(te);
-        elementByAlias.put((String)key, te);
+        int position = shape.size;
+        shape = shape.withAlias((String)key);
+        if (values == null)
+        {
+            // Size for the largest tuple seen starting with this alias, so normally the values are only allocated once
+            values = new Object[shape.first.expectedSize];
+        }
+        else if (position == values.length)
+        {
+            values = Arrays.copyOf(values, position * 2);
+        }
+        values[position] = val;
+
+        if (shape.size > shape.first.expectedSize)
+        {
+            shape.first.expectedSize = shape.size;
+        }
+    }
+
+    private int getPositionForAlias(String alias)
+    {
+        Integer position = (alias != null ? shape.positionByAlias.get(alias) : null);
+        if (position == null)
+        {
+            throw new IllegalArgumentException("Cannot find element of Tuple with alias=" + alias);
+        }
+        return position;
     }
 
     /* (non-Javadoc)
@@ -55,19 +120,12 @@ public class JPAQueryTuple implements Tuple
     @Override
     public <X> X get(TupleElement<X> tupleElement)
     {
-        if (!elements.contains(tupleElement))
+        Integer position = (tupleElement.getAlias() != null ? shape.positionByAlias.get(tupleElement.getAlias()) : null);
+        if (position == null)
         {
             throw new IllegalArgumentException("TupleElement is not present in this Tuple");
         }
-
-        for (JPAQueryTupleElement te : elements)
-        {
-            if (te.equals(tupleElement))
-            {
-                return (X) te.getValue();
-            }
-        }
-        return null;
+        return (X) values[position];
     }
 
     /* (non-Javadoc)
@@ -76,17 +134,12 @@ public class JPAQueryTuple implements Tuple
     @Override
     public <X> X get(String alias, Class<X> type)
     {
-        JPAQueryTupleElement te = elementByAlias.get(alias);
-        if (te == null)
-        {
-            throw new IllegalArgumentException("Cannot find element of Tuple with alias=" + alias);
-        }
-
-        if (!type.isAssignableFrom(te.getJavaType()))
+        Object value = values[getPositionForAlias(alias)];
+        if (value != null && !type.isInstance(value))
         {
-            throw new IllegalArgumentException("Cannot return value for alias=" + alias + " of this Tuple to be type=" + type.getName() + " because type is " + te.getJavaType());
+            throw new IllegalArgumentException("Cannot return value for alias=" + alias + " of this Tuple to be type=" + type.getName() + " because type is " + value.getClass());
         }
-        return (X) te.getValue();
+        return (X) value;
     }
 
     /* (non-Javadoc)
@@ -95,13 +148,7 @@ public class JPAQueryTuple implements Tuple
     @Override
     public Object get(String alias)
     {
-        JPAQueryTupleElement te = elementByAlias.get(alias);
-        if (te == null)
-        {
-            throw new IllegalArgumentException("Cannot find element of Tuple with alias=" + alias);
-        }
-
-        return te.getValue();
+        return values[getPositionForAlias(alias)];
     }
 
     /* (non-Javadoc)
@@ -110,17 +157,17 @@ public class JPAQueryTuple implements Tuple
     @Override
     public <X> X get(int i, Class<X> type)
     {
-        if (i < 0 || i >= elements.size())
+        if (i < 0 || i >= shape.size)
         {
-            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple. Max position=" + (elements.size()-1));
+            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple. Max position=" + (shape.size-1));
         }
 
-        JPAQueryTupleElement te = elements.get(i);
-        if (!type.isAssignableFrom(te.getJavaType()))
+        Object value = values[i];
+        if (value != null && !type.isInstance(value))
         {
-            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple to be type=" + type.getName() + " because type is " + te.getJavaType());
+            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple to be type=" + type.getName() + " because type is " + value.getClass());
         }
-        return (X) te.getValue();
+        return (X) value;
     }
 
     /* (non-Javadoc)
@@ -129,13 +176,12 @@ public class JPAQueryTuple implements Tuple
     @Override
     public Object get(int i)
     {
-        if (i < 0 || i >= elements.size())
+        if (i < 0 || i >= shape.size)
         {
-            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple. Max position=" + (elements.size()-1));
+            throw new IllegalArgumentException("Cannot return value for position " + i + " of this Tuple. Max position=" + (shape.size-1));
         }
 
-        JPAQueryTupleElement te = elements.get(i);
-        return te.getValue();
+        return values[i];
     }
 
     /* (non-Javadoc)
@@ -144,13 +190,7 @@ public class JPAQueryTuple implements Tuple
     @Override
     public Object[] toArray()
     {
-        Object[] values = new Object[elements.size()];
-        int i = 0;
-        for (JPAQueryTupleElement te : elements)
-        {
-            values[i++] = te.getValue();
-        }
-        return values;
+        return values != null ? Arrays.copyOf(values, shape.size) : new Object[0];
     }
 
     /* (non-Javadoc)
@@ -159,16 +199,80 @@ public class JPAQueryTuple implements Tuple
     @Override
     public List<TupleElement<?>> getElements()
     {
-        List<TupleElement<?>> tupleElements = new ArrayList();
-        for (JPAQueryTupleElement te : elements)
+        List<TupleElement<?>> tupleElements = new ArrayList<>(shape.size);
+        for (int i=0;i<shape.size;i++)
         {
-            tupleElements.add(te);
+            tupleElements.add(new JPAQueryTupleElement(shape.aliases[i], (values[i] != null) ? values[i].getClass() : null, values[i]));
         }
         return tupleElements;
     }
 
     public String toString()
     {
-        return "JPAQueryTuple : " + elements.size() + " elements";
+        return "JPAQueryTuple : " + shape.size + " elements";
+    }
+
+    /**
+     * Aliases of the elements of a tuple, with their positions, shared by the tuples of a query with the same aliases in the same order.
+     * Shapes form a tree from a root (empty) shape, where adding an alias moves to the (cached) child shape for that alias, so tuples for the rows
+     * of a query all end up with the same shape instance. The aliases and positions are immutable; only the expected size (a hint for sizing
+     * the values of new tuples) changes.
+     */
+    static class Shape
+    {
+        final int size;
+
+        final String[] aliases;
+
+        final Map<String, Integer> positionByAlias;
+
+        /** Child shapes, keyed by the alias added. */
+        final Map<String, Shape> nextByAlias = new ConcurrentHashMap<>(1);
+
+        /** The shape with only the first alias of this shape. */
+        final Shape first;
+
+        /** Largest size of tuple seen starting from this shape (when this is a first shape), used to size the values of new tuples. */
+        volatile int expectedSize;
+
+        Shape(Shape parent, String alias)
+        {
+            if (parent == null)
+            {
+                this.size = 0;
+                this.aliases = new String[0];
+                this.positionByAlias = new HashMap<>(1);
+                this.first = null;
+            }
+            else
+            {
+                this.size = parent.size + 1;
+                this.aliases = Arrays.copyOf(parent.aliases, size);
+                this.aliases[size-1] = alias;
+                this.positionByAlias = new HashMap<>(parent.positionByAlias);
+                if (alias != null)
+                {
+                    // Last occurrence of a duplicated alias wins
+                    this.positionByAlias.put(alias, size-1);
+                }
+                this.first = (parent.size == 0 ? this : parent.first);
+            }
+            this.expectedSize = size;
+        }
+
+        Shape withAlias(String alias)
+        {
+            Shape next = nextByAlias.get(alias != null ? alias : "");
+            if (next == null)
+            {
+                next = new Shape(this, alias);
+                Shape existing = nextByAlias.putIfAbsent(alias != null ? alias : "", next);
+                if (existing != null)
+                {
+                    next = existing;
+                }
+            }
+            return next;
+        }
     }
-}
\ No newline at end of file
+}
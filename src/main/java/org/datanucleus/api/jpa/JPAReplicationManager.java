@@ -17,18 +17,40 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.api.jpa;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.exceptions.ClassNotResolvedException;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.VersionMetaData;
+import org.datanucleus.metadata.VersionStrategy;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
@@ -47,9 +69,24 @@ public class JPAReplicationManager
     /** EMF for the target datastore. */
     final EntityManagerFactory emfTarget;
 
+    /** Property defining the number of objects per chunk when replicating types (default 0, meaning all objects in one go). */
+    public static final String PROPERTY_REPLICATE_CHUNK_SIZE = "datanucleus.replicateChunkSize";
+
+    /** Property defining the number of types that can be replicated in parallel when replicating in chunks (default 1). */
+    public static final String PROPERTY_REPLICATE_PARALLELISM = "datanucleus.replicateParallelism";
+
+    /** Property defining a file in which to record the checkpoint of each type, replicating only objects changed since the last checkpoint. */
+    public static final String PROPERTY_REPLICATE_CHECKPOINT_FILE = "datanucleus.replicateCheckpointFile";
+
+    /** Prefix of the property defining the field to use as checkpoint for a type (suffixed by ".{className}"). */
+    public static final String PROPERTY_REPLICATE_CHECKPOINT_FIELD = "datanucleus.replicateCheckpointField";
+
     /** Properties defining the replication process. */
     protected Properties properties = new Properties();
 
+    /** Progress of the current (or last) replication of types. */
+    protected volatile ReplicationProgress progress;
+
     /**
      * Constructor for replicating between source and target EMF.
      * @param emf1 EMF source
@@ -91,6 +128,13 @@ public class JPAReplicationManager
      * <li>datanucleus.replicateObjectGraph - whether we replicate the object graph from an object.
      *     if this is set we attempt to replicate the graph from this object. Otherwise just the object
      *     and its near neighbours.</li>
+     * <li>datanucleus.replicateChunkSize - number of objects to detach and replicate per transaction when replicating
+     *     all objects of types. If not set then all objects are replicated in one transaction.</li>
+     * <li>datanucleus.replicateParallelism - number of types to replicate in parallel when replicating in chunks.</li>
+     * <li>datanucleus.replicateCheckpointFile - file recording the checkpoint of each type when replicating all objects of types. If set then
+     *     only objects changed since the checkpoint are replicated, and a failed replication resumes from the last replicated chunk.</li>
+     * <li>datanucleus.replicateCheckpointField.{className} - field of the class to use as its checkpoint, typically a last-update timestamp.
+     *     Defaults to the version field (when a date-time version) or otherwise the primary key.</li>
      * </ul>
      * @return Replication properties
      */
@@ -109,6 +153,23 @@ public class JPAReplicationManager
         return val.equalsIgnoreCase("true");
     }
 
+    protected int getIntProperty(String key, int defaultValue)
+    {
+        String val = properties.getProperty(key);
+        if (val == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt(val.trim());
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new NucleusException("Replication property " + key + " has invalid value " + val + " : should be an integer");
+        }
+    }
+
     /**
      * Method to perform the replication for all objects of the specified types.
      * @param types Classes to replicate
@@ -121,58 +182,322 @@ public class JPAReplicationManager
                 StringUtils.objectArrayToString(types)));
         }
 
-        // Detach from datastore 1
+        String[] classNames = new String[types.length];
+        for (int i=0;i<types.length;i++)
+        {
+            classNames[i] = types[i].getName();
+        }
+        replicateTypes(classNames);
+    }
+
+    /**
+     * Method to perform the replication for all objects of the specified class names.
+     * @param classNames Classes to replicate
+     */
+    public void replicate(String... classNames)
+    {
         if (NucleusLogger.PERSISTENCE.isDebugEnabled())
         {
-            NucleusLogger.PERSISTENCE.debug(Localiser.msg("012053"));
+            NucleusLogger.PERSISTENCE.debug(Localiser.msg("012052", emfSource, emfTarget, 
+                StringUtils.objectArrayToString(classNames)));
         }
-        EntityManager em1 = emfSource.createEntityManager();
-        EntityTransaction tx1 = em1.getTransaction();
-        if (getBooleanProperty("datanucleus.replicateObjectGraph"))
+
+        replicateTypes(classNames);
+    }
+
+    /**
+     * Accessor for the progress of the current (or last) replication of types.
+     * @return The progress
+     */
+    public ReplicationProgress getProgress()
+    {
+        return progress;
+    }
+
+    /**
+     * Method to replicate all objects of the specified class names.
+     * When "datanucleus.replicateChunkSize" is set, each type is replicated in chunks, otherwise all objects are replicated in one go.
+     * When "datanucleus.replicateParallelism" is greater than 1 the types are replicated in parallel.
+     * When "datanucleus.replicateCheckpointFile" is set, only the objects changed since the checkpoint of each type are replicated.
+     * @param classNames Classes to replicate
+     */
+    protected void replicateTypes(String... classNames)
+    {
+        final ReplicationProgress currentProgress = new ReplicationProgress();
+        progress = currentProgress;
+
+        final int chunkSize = getIntProperty(PROPERTY_REPLICATE_CHUNK_SIZE, 0);
+        String checkpointFileName = properties.getProperty(PROPERTY_REPLICATE_CHECKPOINT_FILE);
+        final ReplicationCheckpoints checkpoints = (checkpointFileName != null ? new ReplicationCheckpoints(new File(checkpointFileName)) : null);
+        if (chunkSize <= 0 && checkpoints == null)
         {
-            ExecutionContext ec = (ExecutionContext)em1.getDelegate();
-            ec.getFetchPlan().setGroup("all");
-            ec.getFetchPlan().setMaxFetchDepth(-1);
+            // Single detach of all objects of all types
+            Object[] objects = detachTypeChunk(classNames, null, null, 0, -1);
+            replicateInTarget(objects);
+            currentProgress.chunkReplicated(objects.length);
+            currentProgress.finish();
+            return;
         }
 
-        ArrayList objects = new ArrayList();
-        try
+        int parallelism = Math.min(getIntProperty(PROPERTY_REPLICATE_PARALLELISM, 1), classNames.length);
+        if (parallelism <= 1)
         {
-            tx1.begin();
+            for (int i=0;i<classNames.length;i++)
+            {
+                replicateType(classNames[i], chunkSize, currentProgress, checkpoints);
+            }
+            currentProgress.finish();
+            return;
+        }
 
-            for (int i=0;i<types.length;i++)
+        // Replicate each type in its own task, bounded by the number of threads
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>(classNames.length);
+            for (int i=0;i<classNames.length;i++)
             {
-                List results = em1.createQuery(
-                    "SELECT Object(T) FROM " + types[i].getName() + " T").getResultList();
-                objects.addAll(results);
+                final String className = classNames[i];
+                futures.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        replicateType(className, chunkSize, currentProgress, checkpoints);
+                    }
+                }));
             }
 
-            tx1.commit(); // Objects detached at commit with JPA
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new NucleusException("Replication was interrupted", e);
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof RuntimeException)
+                    {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    throw new NucleusException("Replication failed", e.getCause());
+                }
+            }
         }
         finally
         {
-            if (tx1.isActive())
+            executor.shutdownNow();
+            currentProgress.finish();
+        }
+    }
+
+    /**
+     * Method to replicate the objects of the specified class, incrementally from its checkpoint when checkpoints are in use.
+     * @param className Name of the class to replicate
+     * @param chunkSize Maximum number of objects per chunk
+     * @param currentProgress Progress to update as chunks are replicated
+     * @param checkpoints The checkpoints (if replicating incrementally)
+     */
+    protected void replicateType(String className, int chunkSize, ReplicationProgress currentProgress, ReplicationCheckpoints checkpoints)
+    {
+        if (checkpoints != null)
+        {
+            replicateTypeIncrementally(className, chunkSize, currentProgress, checkpoints);
+        }
+        else
+        {
+            replicateTypeInChunks(className, chunkSize, currentProgress);
+        }
+    }
+
+    /**
+     * Method to replicate the objects of the specified class that have changed since the checkpoint for the class.
+     * Objects are taken in order of the checkpoint field (then primary key), and the checkpoint is saved after each chunk is committed in the
+     * target, so a failed replication resumes from the last committed chunk. The checkpoint field is defined by the property
+     * "datanucleus.replicateCheckpointField.{className}", otherwise is the version field when the class uses a date-time version,
+     * otherwise is the primary key (so only new objects are replicated). Objects with no value for the checkpoint field are not replicated,
+     * since they can't be ordered against the checkpoint. Deletions in the source are not replicated.
+     * @param className Name of the class to replicate
+     * @param chunkSize Maximum number of objects per chunk (0 for all)
+     * @param currentProgress Progress to update as chunks are replicated
+     * @param checkpoints The checkpoints
+     */
+    protected void replicateTypeIncrementally(String className, int chunkSize, ReplicationProgress currentProgress, ReplicationCheckpoints checkpoints)
+    {
+        String[] pkNames = getPrimaryKeyMemberNames(className);
+        String markName = properties.getProperty(PROPERTY_REPLICATE_CHECKPOINT_FIELD + "." + className);
+        if (markName == null)
+        {
+            markName = getDateTimeVersionMemberName(className);
+        }
+        if (markName == null && pkNames != null && pkNames.length == 1)
+        {
+            markName = pkNames[0];
+        }
+        if (markName == null || pkNames == null || pkNames.length != 1)
+        {
+            // Need a single field primary key to order objects with the same checkpoint value
+            NucleusLogger.PERSISTENCE.warn("Replication of " + className + " cannot be incremental since it has no checkpoint field or no single primary key field," +
+                " so replicating all objects");
+            if (chunkSize > 0)
             {
-                tx1.rollback();
+                replicateTypeInChunks(className, chunkSize, currentProgress);
             }
-            em1.close();
+            else
+            {
+                Object[] objects = detachTypeChunk(new String[] {className}, null, null, 0, -1);
+                replicateInTarget(objects);
+                currentProgress.chunkReplicated(objects.length);
+            }
+            return;
         }
 
-        replicateInTarget(objects.toArray());
+        String pkName = pkNames[0];
+        boolean markIsKey = markName.equals(pkName);
+        Object[] checkpoint = checkpoints.getCheckpoint(className);
+        Object lastMark = (checkpoint != null ? checkpoint[0] : null);
+        Object lastKey = (checkpoint != null ? checkpoint[1] : null);
+        while (true)
+        {
+            // "WHERE T.mark IS NOT NULL AND (T.mark > :lastMark OR (T.mark = :lastMark AND T.pk > :lastKey)) ORDER BY T.mark, T.pk"
+            StringBuilder jpql = new StringBuilder("SELECT T, T.").append(markName).append(", T.").append(pkName).append(" FROM ").append(className).append(" T");
+            jpql.append(" WHERE T.").append(markName).append(" IS NOT NULL");
+            Map<String, Object> params = null;
+            if (lastMark != null)
+            {
+                params = new HashMap<>();
+                jpql.append(" AND (T.").append(markName).append(" > :lastMark");
+                params.put("lastMark", lastMark);
+                if (!markIsKey && lastKey != null)
+                {
+                    jpql.append(" OR (T.").append(markName).append(" = :lastMark AND T.").append(pkName).append(" > :lastKey)");
+                    params.put("lastKey", lastKey);
+                }
+                jpql.append(")");
+            }
+            jpql.append(" ORDER BY T.").append(markName);
+            if (!markIsKey)
+            {
+                jpql.append(", T.").append(pkName);
+            }
+
+            Object[] rows = detachTypeChunk(null, jpql.toString(), params, 0, chunkSize > 0 ? chunkSize : -1);
+            if (rows.length == 0)
+            {
+                break;
+            }
+
+            Object[] objects = new Object[rows.length];
+            for (int i=0;i<rows.length;i++)
+            {
+                Object[] row = (Object[])rows[i];
+                objects[i] = row[0];
+                lastMark = row[1];
+                lastKey = row[2];
+            }
+
+            replicateInTarget(objects);
+            checkpoints.setCheckpoint(className, lastMark, lastKey);
+            currentProgress.chunkReplicated(objects.length);
+            if (NucleusLogger.PERSISTENCE.isDebugEnabled())
+            {
+                NucleusLogger.PERSISTENCE.debug("Replicated chunk of " + objects.length + " changed objects of type " + className + " up to checkpoint " + lastMark +
+                    " : " + currentProgress);
+            }
+
+            if (chunkSize <= 0 || objects.length < chunkSize)
+            {
+                break;
+            }
+        }
     }
 
     /**
-     * Method to perform the replication for all objects of the specified class names.
-     * @param classNames Classes to replicate
+     * Method to replicate all objects of the specified class, a chunk at a time.
+     * Each chunk is detached from the source in its own EntityManager and merged into the target in its own transaction, so only one chunk
+     * per type is held in memory. Where the class has a single primary key field the chunks are ranges of that key, otherwise they are
+     * pages ordered by the primary key fields.
+     * @param className Name of the class to replicate
+     * @param chunkSize Maximum number of objects per chunk
+     * @param currentProgress Progress to update as chunks are replicated
      */
-    public void replicate(String... classNames)
+    protected void replicateTypeInChunks(String className, int chunkSize, ReplicationProgress currentProgress)
     {
-        if (NucleusLogger.PERSISTENCE.isDebugEnabled())
+        String[] pkNames = getPrimaryKeyMemberNames(className);
+        if (pkNames == null)
         {
-            NucleusLogger.PERSISTENCE.debug(Localiser.msg("012052", emfSource, emfTarget, 
-                StringUtils.objectArrayToString(classNames)));
+            // Datastore/nondurable identity, so no ordering available to page with
+            NucleusLogger.PERSISTENCE.warn("Replication of " + className + " cannot be chunked since it has no primary key fields, so replicating in a single chunk");
+            Object[] objects = detachTypeChunk(new String[] {className}, null, null, 0, -1);
+            replicateInTarget(objects);
+            currentProgress.chunkReplicated(objects.length);
+            return;
+        }
+
+        String orderBy = "T." + String.join(",T.", pkNames);
+        boolean keyset = (pkNames.length == 1);
+        Object lastKey = null;
+        int position = 0;
+        while (true)
+        {
+            Object[] objects;
+            if (keyset)
+            {
+                // Page by range of the primary key : "WHERE T.pk > :lastKey ORDER BY T.pk"
+                String jpql = "SELECT T, T." + pkNames[0] + " FROM " + className + " T" +
+                    (lastKey != null ? " WHERE T." + pkNames[0] + " > :lastKey" : "") + " ORDER BY " + orderBy;
+                Object[] rows = detachTypeChunk(null, jpql, lastKey != null ? Collections.singletonMap("lastKey", lastKey) : null, 0, chunkSize);
+                objects = new Object[rows.length];
+                for (int i=0;i<rows.length;i++)
+                {
+                    Object[] row = (Object[])rows[i];
+                    objects[i] = row[0];
+                    lastKey = row[1];
+                }
+            }
+            else
+            {
+                // Composite primary key, so page by position in the primary key ordering
+                String jpql = "SELECT T FROM " + className + " T ORDER BY " + orderBy;
+                objects = detachTypeChunk(null, jpql, null, position, chunkSize);
+                position += objects.length;
+            }
+
+            if (objects.length == 0)
+            {
+                break;
+            }
+
+            replicateInTarget(objects);
+            currentProgress.chunkReplicated(objects.length);
+            if (NucleusLogger.PERSISTENCE.isDebugEnabled())
+            {
+                NucleusLogger.PERSISTENCE.debug("Replicated chunk of " + objects.length + " objects of type " + className + " : " + currentProgress);
+            }
+
+            if (objects.length < chunkSize)
+            {
+                break;
+            }
         }
+    }
 
+    /**
+     * Method to detach objects from the source datastore.
+     * Either all objects of the specified class names are detached, or the results of the provided query.
+     * @param classNames Names of the classes to detach all objects of (when no query is specified)
+     * @param jpql Query to detach the results of
+     * @param params Values of the named parameters of the query (if any)
+     * @param firstResult Position of the first result of the query
+     * @param maxResults Maximum number of results of the query (-1 for all)
+     * @return The detached objects (or result rows)
+     */
+    protected Object[] detachTypeChunk(String[] classNames, String jpql, Map<String, Object> params, int firstResult, int maxResults)
+    {
         // Detach from datastore 1
         if (NucleusLogger.PERSISTENCE.isDebugEnabled())
         {
@@ -192,11 +517,34 @@ public class JPAReplicationManager
         {
             tx1.begin();
 
-            for (int i=0;i<classNames.length;i++)
+            if (jpql != null)
+            {
+                Query query = em1.createQuery(jpql);
+                if (params != null)
+                {
+                    for (Map.Entry<String, Object> param : params.entrySet())
+                    {
+                        query.setParameter(param.getKey(), param.getValue());
+                    }
+                }
+                if (firstResult > 0)
+                {
+                    query.setFirstResult(firstResult);
+                }
+                if (maxResults >= 0)
+                {
+                    query.setMaxResults(maxResults);
+                }
+                objects.addAll(query.getResultList());
+            }
+            else
             {
-                List results = em1.createQuery(
-                    "SELECT Object(T) FROM " + classNames[i] + " T").getResultList();
-                objects.addAll(results);
+                for (int i=0;i<classNames.length;i++)
+                {
+                    List results = em1.createQuery(
+                        "SELECT Object(T) FROM " + classNames[i] + " T").getResultList();
+                    objects.addAll(results);
+                }
             }
 
             tx1.commit(); // Objects detached at commit with JPA
@@ -210,7 +558,62 @@ public class JPAReplicationManager
             em1.close();
         }
 
-        replicateInTarget(objects.toArray());
+        return objects.toArray();
+    }
+
+    /**
+     * Accessor for the name of the version field of the specified class, when the version is a date-time.
+     * @param className Name of the class
+     * @return The version field name, or null if the class has no date-time version field
+     */
+    protected String getDateTimeVersionMemberName(String className)
+    {
+        EntityManager em1 = emfSource.createEntityManager();
+        try
+        {
+            ExecutionContext ec = (ExecutionContext)em1.getDelegate();
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(className, ec.getClassLoaderResolver());
+            VersionMetaData vermd = (cmd != null ? cmd.getVersionMetaDataForClass() : null);
+            if (vermd != null && vermd.getStrategy() == VersionStrategy.DATE_TIME && vermd.getMemberName() != null)
+            {
+                return vermd.getMemberName();
+            }
+            return null;
+        }
+        finally
+        {
+            em1.close();
+        }
+    }
+
+    /**
+     * Accessor for the names of the primary key fields of the specified class.
+     * @param className Name of the class
+     * @return The primary key field names, or null if the class doesn't use application identity
+     */
+    protected String[] getPrimaryKeyMemberNames(String className)
+    {
+        EntityManager em1 = emfSource.createEntityManager();
+        try
+        {
+            ExecutionContext ec = (ExecutionContext)em1.getDelegate();
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(className, ec.getClassLoaderResolver());
+            if (cmd == null || cmd.getIdentityType() != IdentityType.APPLICATION)
+            {
+                return null;
+            }
+            int[] pkPositions = cmd.getPKMemberPositions();
+            String[] pkNames = new String[pkPositions.length];
+            for (int i=0;i<pkPositions.length;i++)
+            {
+                pkNames[i] = cmd.getMetaDataForManagedMemberAtAbsolutePosition(pkPositions[i]).getName();
+            }
+            return pkNames;
+        }
+        finally
+        {
+            em1.close();
+        }
     }
 
     /**
@@ -315,4 +718,174 @@ public class JPAReplicationManager
             NucleusLogger.PERSISTENCE.debug(Localiser.msg("012055"));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Counters for the progress of a replication of types.
+     * Updated by the replication threads as each chunk is committed in the target.
+     */
+    public static class ReplicationProgress
+    {
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile long endTime = -1;
+
+        private final AtomicLong numberOfObjects = new AtomicLong();
+
+        private final AtomicLong numberOfChunks = new AtomicLong();
+
+        void chunkReplicated(int size)
+        {
+            numberOfObjects.addAndGet(size);
+            numberOfChunks.incrementAndGet();
+        }
+
+        void finish()
+        {
+            endTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Accessor for the number of objects replicated so far.
+         * @return Number of objects
+         */
+        public long getNumberOfObjectsReplicated()
+        {
+            return numberOfObjects.get();
+        }
+
+        /**
+         * Accessor for the number of chunks replicated so far.
+         * @return Number of chunks
+         */
+        public long getNumberOfChunksReplicated()
+        {
+            return numberOfChunks.get();
+        }
+
+        /**
+         * Accessor for whether the replication has finished.
+         * @return Whether finished
+         */
+        public boolean isFinished()
+        {
+            return endTime >= 0;
+        }
+
+        /**
+         * Accessor for the time taken by the replication so far (or in total when finished).
+         * @return Elapsed time (millisecs)
+         */
+        public long getElapsedTime()
+        {
+            return (endTime >= 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        /**
+         * Accessor for the throughput of the replication.
+         * @return Objects replicated per second
+         */
+        public double getThroughput()
+        {
+            long elapsed = getElapsedTime();
+            return elapsed > 0 ? (numberOfObjects.get() * 1000.0) / elapsed : 0.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "objects=" + numberOfObjects.get() + " chunks=" + numberOfChunks.get() + " elapsed=" + getElapsedTime() + "ms" +
+                " throughput=" + String.format("%.1f", getThroughput()) + "/s";
+        }
+    }
+
+    /**
+     * Checkpoints of the replication of types, persisted in a properties file.
+     * The checkpoint of a type is the value of its checkpoint field and primary key for the last object replicated,
+     * stored as "{className}.mark" and "{className}.key" with values of the form "{javaType}:{value}".
+     */
+    public static class ReplicationCheckpoints
+    {
+        private final File file;
+
+        private final Properties checkpoints = new Properties();
+
+        /**
+         * Constructor, loading any checkpoints from the file.
+         * @param file The checkpoint file
+         */
+        public ReplicationCheckpoints(File file)
+        {
+            this.file = file;
+            if (file.exists())
+            {
+                try (InputStream in = new FileInputStream(file))
+                {
+                    checkpoints.load(in);
+                }
+                catch (IOException e)
+                {
+                    throw new NucleusException("Unable to read replication checkpoints from " + file, e);
+                }
+            }
+        }
+
+        /**
+         * Accessor for the checkpoint of a type.
+         * @param className Name of the class
+         * @return The checkpoint field value and primary key value, or null if no checkpoint
+         */
+        public synchronized Object[] getCheckpoint(String className)
+        {
+            String mark = checkpoints.getProperty(className + ".mark");
+            if (mark == null)
+            {
+                return null;
+            }
+            return new Object[] {TypedValueStrings.fromString(mark), TypedValueStrings.fromString(checkpoints.getProperty(className + ".key"))};
+        }
+
+        /**
+         * Method to set the checkpoint of a type and save the checkpoints to the file.
+         * @param className Name of the class
+         * @param mark Checkpoint field value of the last object replicated
+         * @param key Primary key value of the last object replicated
+         * @throws NucleusException if the checkpoint field value is null, since replication would then restart from the beginning
+         */
+        public synchronized void setCheckpoint(String className, Object mark, Object key)
+        {
+            if (mark == null)
+            {
+                throw new NucleusException("Unable to set replication checkpoint for " + className + " with no checkpoint field value");
+            }
+            checkpoints.setProperty(className + ".mark", TypedValueStrings.toString(mark));
+            checkpoints.setProperty(className + ".key", TypedValueStrings.toString(key));
+
+            // Write to a temporary file and move it over the checkpoints file, so a failure doesn't lose the previous checkpoints
+            File tmpFile = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpFile))
+            {
+                checkpoints.store(out, "DataNucleus replication checkpoints");
+            }
+            catch (IOException e)
+            {
+                throw new NucleusException("Unable to write replication checkpoints to " + file, e);
+            }
+            try
+            {
+                try
+                {
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException amnse)
+                {
+                    // File system can't replace atomically, so replace non-atomically
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new NucleusException("Unable to write replication checkpoints to " + file, e);
+            }
+        }
+    }
+}
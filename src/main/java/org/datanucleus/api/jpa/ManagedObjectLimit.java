@@ -0,0 +1,203 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.DetachState;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.ApiAdapter;
+import org.datanucleus.exceptions.ClassNotResolvedException;
+import org.datanucleus.util.StringUtils;
+
+/**
+ * Limit on the number of entities held in the persistence context of an EntityManager, for bulk loads.
+ * Tracks the entities made managed through persist, merge and find of the EntityManager, in the order they became managed.
+ * When more than the maximum are tracked, the persistence context is flushed (if a transaction is active) and the oldest half
+ * of the tracked entities are detached in place, so they are released from the L1 cache and the transaction and can be garbage collected.
+ * Entities of the retained classes (and their subclasses) are never tracked, so reference data stays managed.
+ * Entities that are still dirty (e.g. no transaction to flush in) or deleted are not detached, but stay tracked (as the newest) so that
+ * they are released once they can be, and the next release is deferred until more entities are tracked, so they don't cause a release on every entity.
+ */
+class ManagedObjectLimit
+{
+    private final ExecutionContext ec;
+
+    private final int maxManagedObjects;
+
+    /** Classes whose instances are never detached. */
+    private final Class[] retainedClasses;
+
+    /** Whether instances of a class are retained, keyed by the (concrete) class. */
+    private final Map<Class, Boolean> retainedByClass = new HashMap<>();
+
+    /** Tracked entities, oldest first. */
+    private final ArrayDeque<Object> managedObjects = new ArrayDeque<>();
+
+    /** The tracked entities, by identity, so each is tracked once regardless of its equals/hashCode. */
+    private final Set<Object> managedObjectSet = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    /** Number of tracked entities above which the oldest are released. */
+    private int releaseThreshold;
+
+    /**
+     * Constructor.
+     * @param ec ExecutionContext of the EntityManager
+     * @param maxManagedObjects Maximum number of tracked entities
+     * @param retainedClassNames Comma-separated names of classes whose instances are not to be detached (or null)
+     * @throws IllegalArgumentException if a retained class cannot be found
+     */
+    ManagedObjectLimit(ExecutionContext ec, int maxManagedObjects, String retainedClassNames)
+    {
+        this.ec = ec;
+        this.maxManagedObjects = maxManagedObjects;
+        this.releaseThreshold = maxManagedObjects;
+        this.retainedClasses = getRetainedClasses(ec.getClassLoaderResolver(), retainedClassNames);
+    }
+
+    /**
+     * Method to resolve the classes whose instances are not to be detached.
+     * @param clr ClassLoader resolver
+     * @param retainedClassNames Comma-separated names of the classes (or null)
+     * @return The classes
+     * @throws IllegalArgumentException if a class cannot be found
+     */
+    static Class[] getRetainedClasses(ClassLoaderResolver clr, String retainedClassNames)
+    {
+        String[] classNames = StringUtils.isWhitespace(retainedClassNames) ? new String[0] : StringUtils.split(retainedClassNames, ",");
+        Class[] classes = new Class[classNames.length];
+        for (int i=0;i<classNames.length;i++)
+        {
+            try
+            {
+                classes[i] = clr.classForName(classNames[i].trim());
+            }
+            catch (ClassNotResolvedException cnre)
+            {
+                throw new IllegalArgumentException("Class \"" + classNames[i].trim() + "\" of property '" +
+                    JPAPropertyNames.PROPERTY_JPA_MAX_MANAGED_OBJECTS_RETAINED_CLASSES + "' not found", cnre);
+            }
+        }
+        return classes;
+    }
+
+    int getMaxManagedObjects()
+    {
+        return maxManagedObjects;
+    }
+
+    /**
+     * Method to track an entity that is now managed, releasing the oldest entities if this takes the number over the limit.
+     * @param pc The entity
+     */
+    void managed(Object pc)
+    {
+        if (pc == null || isRetained(pc.getClass()) || !managedObjectSet.add(pc))
+        {
+            return;
+        }
+
+        managedObjects.add(pc);
+        if (managedObjects.size() > releaseThreshold)
+        {
+            releaseOldest();
+        }
+    }
+
+    /**
+     * Method to stop tracking all entities, for when the persistence context is cleared.
+     */
+    void clear()
+    {
+        managedObjects.clear();
+        managedObjectSet.clear();
+        releaseThreshold = maxManagedObjects;
+    }
+
+    private void releaseOldest()
+    {
+        if (ec.getTransaction().isActive())
+        {
+            ec.flush();
+        }
+
+        // Release down to half of the limit, so that the flush isn't repeated on every subsequent entity
+        ApiAdapter api = ec.getApiAdapter();
+        List<Object> releasable = new ArrayList<>();
+        List<Object> skipped = new ArrayList<>();
+        while (managedObjects.size() > maxManagedObjects / 2)
+        {
+            Object pc = managedObjects.poll();
+            if (api.getExecutionContext(pc) != ec || api.isDetached(pc))
+            {
+                // No longer managed by this context, so nothing to release
+                managedObjectSet.remove(pc);
+            }
+            else if (api.isDirty(pc) || api.isDeleted(pc))
+            {
+                // Can't be released yet, so keep tracking it
+                skipped.add(pc);
+            }
+            else
+            {
+                managedObjectSet.remove(pc);
+                releasable.add(pc);
+            }
+        }
+        managedObjects.addAll(skipped);
+        if (!releasable.isEmpty())
+        {
+            ec.detachObjects(new DetachState(api), releasable.toArray());
+        }
+
+        // Where entities couldn't be released, track at least half the limit more before trying again
+        releaseThreshold = Math.max(maxManagedObjects, managedObjects.size() + maxManagedObjects / 2);
+    }
+
+    private boolean isRetained(Class cls)
+    {
+        if (retainedClasses.length == 0)
+        {
+            return false;
+        }
+
+        Boolean retained = retainedByClass.get(cls);
+        if (retained == null)
+        {
+            retained = Boolean.FALSE;
+            for (Class retainedClass : retainedClasses)
+            {
+                if (retainedClass.isAssignableFrom(cls))
+                {
+                    retained = Boolean.TRUE;
+                    break;
+                }
+            }
+            retainedByClass.put(cls, retained);
+        }
+        return retained;
+    }
+}
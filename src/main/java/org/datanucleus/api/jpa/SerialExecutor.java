@@ -0,0 +1,83 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs its tasks one at a time, in the order submitted, on an underlying executor.
+ * Used for the asynchronous operations of an EntityManager, since its ExecutionContext must only be used by one thread at a time :
+ * each task runs on whatever thread the underlying executor provides, but never concurrently with another task of the same EntityManager,
+ * and each task sees the effects of the previous one.
+ */
+class SerialExecutor implements Executor
+{
+    private final Executor executor;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    /** The task currently submitted to the underlying executor, or null if idle. */
+    private Runnable active;
+
+    SerialExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    public synchronized void execute(final Runnable task)
+    {
+        tasks.add(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null)
+        {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext()
+    {
+        active = tasks.poll();
+        if (active != null)
+        {
+            try
+            {
+                executor.execute(active);
+            }
+            catch (RuntimeException e)
+            {
+                // Rejected (e.g executor shut down), so allow later tasks to be submitted
+                active = null;
+                throw e;
+            }
+        }
+    }
+}
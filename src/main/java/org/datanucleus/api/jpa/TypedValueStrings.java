@@ -0,0 +1,174 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.datanucleus.exceptions.NucleusException;
+
+/**
+ * Conversion of (key) values to and from Strings of the form "{javaType}:{value}", retaining the type of the value.
+ * Used where values are persisted or passed around outside of a query, such as replication checkpoints and keyset continuation tokens.
+ * Supports Strings, Characters, Booleans, UUIDs, the java.lang and java.math number types, and the java.util, java.sql and java.time date/time types,
+ * exactly as listed in fromString(). Subclasses of java.util.Date (such as DataNucleus wrappers) are converted as their java.util or java.sql type.
+ */
+final class TypedValueStrings
+{
+    /** Names of the types (other than java.util.Date and its subclasses) that can be converted, being those parsed by fromString(). */
+    private static final Set<String> SUPPORTED_TYPES = new HashSet<>(Arrays.asList(String.class.getName(), Character.class.getName(),
+        Boolean.class.getName(), UUID.class.getName(), Long.class.getName(), Integer.class.getName(), Short.class.getName(), Byte.class.getName(),
+        Double.class.getName(), Float.class.getName(), BigInteger.class.getName(), BigDecimal.class.getName(), java.time.Instant.class.getName(),
+        java.time.LocalDateTime.class.getName(), java.time.LocalDate.class.getName(), java.time.LocalTime.class.getName(),
+        java.time.OffsetDateTime.class.getName(), java.time.OffsetTime.class.getName(), java.time.ZonedDateTime.class.getName()));
+
+    private TypedValueStrings()
+    {
+    }
+
+    /**
+     * Method to return whether values of the provided type can be converted.
+     * @param type The type
+     * @return Whether supported
+     */
+    static boolean isSupportedType(Class type)
+    {
+        if (type.isPrimitive())
+        {
+            // Wrappers of all primitive types are supported
+            return type != void.class;
+        }
+        return Date.class.isAssignableFrom(type) || SUPPORTED_TYPES.contains(type.getName());
+    }
+
+    /**
+     * Method to convert a value to its typed String form.
+     * @param value The value
+     * @return The String form, or an empty String for null
+     * @throws NucleusException if the type of the value is not supported
+     */
+    static String toString(Object value)
+    {
+        if (value == null)
+        {
+            return "";
+        }
+        else if (value instanceof java.sql.Timestamp)
+        {
+            return java.sql.Timestamp.class.getName() + ":" + value;
+        }
+        else if (value instanceof java.sql.Date)
+        {
+            return java.sql.Date.class.getName() + ":" + value;
+        }
+        else if (value instanceof java.sql.Time)
+        {
+            return java.sql.Time.class.getName() + ":" + value;
+        }
+        else if (value instanceof Date)
+        {
+            return Date.class.getName() + ":" + ((Date)value).getTime();
+        }
+        else if (SUPPORTED_TYPES.contains(value.getClass().getName()))
+        {
+            return value.getClass().getName() + ":" + value;
+        }
+        throw new NucleusException("Value of type " + value.getClass().getName() + " cannot be converted to a String");
+    }
+
+    /**
+     * Method to convert a typed String form back to the value.
+     * @param str The String form
+     * @return The value, or null for an empty String
+     * @throws NucleusException if the form or the type is not supported
+     */
+    static Object fromString(String str)
+    {
+        if (str == null || str.length() == 0)
+        {
+            return null;
+        }
+        int sep = str.indexOf(':');
+        if (sep < 0)
+        {
+            throw new NucleusException("Value \"" + str + "\" is not of the form {javaType}:{value}");
+        }
+        String type = str.substring(0, sep);
+        String value = str.substring(sep+1);
+        switch (type)
+        {
+            case "java.lang.String" :
+                return value;
+            case "java.lang.Character" :
+                if (value.length() != 1)
+                {
+                    throw new NucleusException("Value \"" + str + "\" is not a single character");
+                }
+                return Character.valueOf(value.charAt(0));
+            case "java.lang.Boolean" :
+                return Boolean.valueOf(value);
+            case "java.util.UUID" :
+                return UUID.fromString(value);
+            case "java.lang.Long" :
+                return Long.valueOf(value);
+            case "java.lang.Integer" :
+                return Integer.valueOf(value);
+            case "java.lang.Short" :
+                return Short.valueOf(value);
+            case "java.lang.Byte" :
+                return Byte.valueOf(value);
+            case "java.lang.Double" :
+                return Double.valueOf(value);
+            case "java.lang.Float" :
+                return Float.valueOf(value);
+            case "java.math.BigInteger" :
+                return new BigInteger(value);
+            case "java.math.BigDecimal" :
+                return new BigDecimal(value);
+            case "java.sql.Timestamp" :
+                return java.sql.Timestamp.valueOf(value);
+            case "java.sql.Date" :
+                return java.sql.Date.valueOf(value);
+            case "java.sql.Time" :
+                return java.sql.Time.valueOf(value);
+            case "java.util.Date" :
+                return new Date(Long.parseLong(value));
+            case "java.time.Instant" :
+                return java.time.Instant.parse(value);
+            case "java.time.LocalDateTime" :
+                return java.time.LocalDateTime.parse(value);
+            case "java.time.LocalDate" :
+                return java.time.LocalDate.parse(value);
+            case "java.time.LocalTime" :
+                return java.time.LocalTime.parse(value);
+            case "java.time.OffsetDateTime" :
+                return java.time.OffsetDateTime.parse(value);
+            case "java.time.OffsetTime" :
+                return java.time.OffsetTime.parse(value);
+            case "java.time.ZonedDateTime" :
+                return java.time.ZonedDateTime.parse(value);
+            default :
+                throw new NucleusException("Value of type " + type + " cannot be converted from a String");
+        }
+    }
+}
@@ -52,6 +52,7 @@ import javax.persistence.criteria.Subquery;
 import javax.persistence.criteria.Predicate.BooleanOperator;
 
 import org.datanucleus.api.jpa.JPAEntityManagerFactory;
+import org.datanucleus.api.jpa.JPAPropertyNames;
 import org.datanucleus.store.query.expression.CreatorExpression;
 import org.datanucleus.store.query.expression.DyadicExpression;
 import org.datanucleus.store.query.expression.InvokeExpression;
@@ -69,9 +70,31 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
 
     JPAEntityManagerFactory emf;
 
+    /** Whether to generate parameters in place of literal values, so queries differing only in those values share a compilation. */
+    final boolean parameteriseLiterals;
+
     public CriteriaBuilderImpl(JPAEntityManagerFactory emf)
     {
         this.emf = emf;
+        this.parameteriseLiterals = emf.getNucleusContext().getConfiguration().getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_CRITERIA_PARAMETERISE_LITERALS, false);
+    }
+
+    /**
+     * Method to return the query expression for a literal value used in a criteria expression.
+     * When the persistence property "datanucleus.jpa.criteriaParameteriseLiterals" is enabled this is a parameter holding the value,
+     * which is bound when the query is created, otherwise (or for a null value) it is a literal.
+     * The owning criteria query names such parameters wherever they appear (result, join ON conditions, filter, grouping, having,
+     * ordering, and within CASE expressions), and printing one that has not been named throws IllegalStateException.
+     * @param value The value
+     * @return The query expression
+     */
+    org.datanucleus.store.query.expression.Expression getLiteralQueryExpression(Object value)
+    {
+        if (parameteriseLiterals && value != null)
+        {
+            return new LiteralParameterExpression(value);
+        }
+        return new Literal(value);
     }
 
     public JPAEntityManagerFactory getEntityManagerFactory()
@@ -395,7 +418,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_EQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_EQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -419,7 +442,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_NOTEQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_NOTEQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -459,7 +482,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GTEQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GTEQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -483,7 +506,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GT, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GT, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -507,7 +530,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GTEQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GTEQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -531,7 +554,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GT, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_GT, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -555,7 +578,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LTEQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LTEQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -579,7 +602,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LT, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LT, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -603,7 +626,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LTEQ, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LTEQ, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -627,7 +650,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LT, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_LT, getLiteralQueryExpression(obj));
         pred.queryExpr = queryExpr;
         return pred;
     }
@@ -651,7 +674,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_ADD, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_ADD, getLiteralQueryExpression(obj));
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -663,7 +686,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(new Literal(obj), org.datanucleus.store.query.expression.Expression.OP_ADD, ((ExpressionImpl)expr).getQueryExpression());
+            new DyadicExpression(getLiteralQueryExpression(obj), org.datanucleus.store.query.expression.Expression.OP_ADD, ((ExpressionImpl)expr).getQueryExpression());
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -687,7 +710,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<Number> sumExpr = new ExpressionImpl<>(this, Number.class);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_DIV, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_DIV, getLiteralQueryExpression(obj));
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -699,7 +722,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<Number> sumExpr = new ExpressionImpl<>(this, Number.class);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(new Literal(obj), org.datanucleus.store.query.expression.Expression.OP_DIV, ((ExpressionImpl)expr).getQueryExpression());
+            new DyadicExpression(getLiteralQueryExpression(obj), org.datanucleus.store.query.expression.Expression.OP_DIV, ((ExpressionImpl)expr).getQueryExpression());
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -723,7 +746,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_SUB, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_SUB, getLiteralQueryExpression(obj));
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -735,7 +758,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(new Literal(obj), org.datanucleus.store.query.expression.Expression.OP_SUB, ((ExpressionImpl)expr).getQueryExpression());
+            new DyadicExpression(getLiteralQueryExpression(obj), org.datanucleus.store.query.expression.Expression.OP_SUB, ((ExpressionImpl)expr).getQueryExpression());
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -759,7 +782,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_MUL, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_MUL, getLiteralQueryExpression(obj));
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -771,7 +794,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<N> sumExpr = new ExpressionImpl<>(this, expr.getJavaType());
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(new Literal(obj), org.datanucleus.store.query.expression.Expression.OP_MUL, ((ExpressionImpl)expr).getQueryExpression());
+            new DyadicExpression(getLiteralQueryExpression(obj), org.datanucleus.store.query.expression.Expression.OP_MUL, ((ExpressionImpl)expr).getQueryExpression());
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -795,7 +818,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<Integer> sumExpr = new ExpressionImpl<>(this, Integer.class);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_MOD, new Literal(obj));
+            new DyadicExpression(((ExpressionImpl)expr).getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_MOD, getLiteralQueryExpression(obj));
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -807,7 +830,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         ExpressionImpl<Integer> sumExpr = new ExpressionImpl<>(this, Integer.class);
         org.datanucleus.store.query.expression.Expression queryExpr =
-            new DyadicExpression(new Literal(obj), org.datanucleus.store.query.expression.Expression.OP_MOD, ((ExpressionImpl)expr).getQueryExpression());
+            new DyadicExpression(getLiteralQueryExpression(obj), org.datanucleus.store.query.expression.Expression.OP_MOD, ((ExpressionImpl)expr).getQueryExpression());
         sumExpr.queryExpr = queryExpr;
         return sumExpr;
     }
@@ -840,8 +863,8 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     {
         PredicateImpl pred = new PredicateImpl(this);
         org.datanucleus.store.query.expression.Expression theExpr = ((ExpressionImpl)expr).getQueryExpression();
-        DyadicExpression lowerDyadic = new DyadicExpression(theExpr, org.datanucleus.store.query.expression.Expression.OP_GTEQ, new Literal(obj0));
-        DyadicExpression upperDyadic = new DyadicExpression(theExpr, org.datanucleus.store.query.expression.Expression.OP_LTEQ, new Literal(obj1));
+        DyadicExpression lowerDyadic = new DyadicExpression(theExpr, org.datanucleus.store.query.expression.Expression.OP_GTEQ, getLiteralQueryExpression(obj0));
+        DyadicExpression upperDyadic = new DyadicExpression(theExpr, org.datanucleus.store.query.expression.Expression.OP_LTEQ, getLiteralQueryExpression(obj1));
         DyadicExpression overallDyadic = new DyadicExpression(lowerDyadic, org.datanucleus.store.query.expression.Expression.OP_AND, upperDyadic);
         pred.queryExpr = overallDyadic;
         return pred;
@@ -1132,7 +1155,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
      */
     public <E, C extends Collection<E>> Predicate isMember(E val, Expression<C> collExpr)
     {
-        List<org.datanucleus.store.query.expression.Expression> args = List.of(new Literal(val));
+        List<org.datanucleus.store.query.expression.Expression> args = List.of(getLiteralQueryExpression(val));
         org.datanucleus.store.query.expression.Expression queryExpr = new InvokeExpression(((ExpressionImpl)collExpr).getQueryExpression(), "contains", args);
 
         PredicateImpl pred = new PredicateImpl(this);
@@ -1262,7 +1285,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
      */
     public Predicate like(Expression<String> expr, String regex)
     {
-        List<org.datanucleus.store.query.expression.Expression> args = List.of(new Literal(regex));
+        List<org.datanucleus.store.query.expression.Expression> args = List.of(getLiteralQueryExpression(regex));
 
         PredicateImpl pred = new PredicateImpl(this);
         pred.queryExpr = new InvokeExpression(((ExpressionImpl)expr).getQueryExpression(), "matches", args);
@@ -1298,7 +1321,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
      */
     public Predicate like(Expression<String> expr, String regex, Expression<Character> escExpr)
     {
-        List<org.datanucleus.store.query.expression.Expression> args = List.of(new Literal(regex), ((ExpressionImpl)escExpr).getQueryExpression());
+        List<org.datanucleus.store.query.expression.Expression> args = List.of(getLiteralQueryExpression(regex), ((ExpressionImpl)escExpr).getQueryExpression());
 
         PredicateImpl pred = new PredicateImpl(this);
         pred.queryExpr = new InvokeExpression(((ExpressionImpl)expr).getQueryExpression(), "matches", args);
@@ -1310,7 +1333,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
      */
     public Predicate like(Expression<String> expr, String regex, char escChr)
     {
-        List<org.datanucleus.store.query.expression.Expression> args = List.of(new Literal(regex), new Literal(escChr));
+        List<org.datanucleus.store.query.expression.Expression> args = List.of(getLiteralQueryExpression(regex), new Literal(escChr));
 
         PredicateImpl pred = new PredicateImpl(this);
         pred.queryExpr = new InvokeExpression(((ExpressionImpl)expr).getQueryExpression(), "matches", args);
@@ -1736,7 +1759,7 @@ public class CriteriaBuilderImpl implements CriteriaBuilder, Serializable
     public <T> Expression<T> literal(T obj)
     {
         ExpressionImpl<T> expr = new ExpressionImpl<>(this, (Class<? extends T>) obj.getClass());
-        expr.queryExpr = new Literal(obj);
+        expr.queryExpr = getLiteralQueryExpression(obj);
         return expr;
     }
 
@@ -18,7 +18,11 @@ Contributors:
 package org.datanucleus.api.jpa.criteria;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.criteria.CriteriaDelete;
@@ -56,6 +60,12 @@ public class CriteriaDeleteImpl<T> implements CriteriaDelete<T>, Serializable
     /** The generic query compilation that this equates to (cached). */
     QueryCompilation compilation = null;
 
+    /** Values of the parameters generated for literals, keyed by parameter name (cached, with the JPQL). */
+    Map<String, Object> literalParameterValues = null;
+
+    /** Whether the compilation can be cached against the JPQL, given the literals in it (cached, with the JPQL). */
+    boolean cacheable = false;
+
     public CriteriaDeleteImpl(CriteriaBuilderImpl cb)
     {
         this.cb = cb;
@@ -154,6 +164,32 @@ public class CriteriaDeleteImpl<T> implements CriteriaDelete<T>, Serializable
     {
         jpqlString = null;
         compilation = null;
+        literalParameterValues = null;
+    }
+
+    /**
+     * Method to name any parameters generated for literals in the filter, in the order they appear.
+     */
+    private void nameLiteralParameters()
+    {
+        List<org.datanucleus.store.query.expression.Expression> literals = new ArrayList<>();
+        if (filter != null)
+        {
+            LiteralParameterExpression.getLiteralsForQueryExpression(filter.getQueryExpression(), literals);
+        }
+        literalParameterValues = LiteralParameterExpression.nameLiteralParameters(literals);
+        cacheable = LiteralParameterExpression.isCacheable(literals);
+    }
+
+    /**
+     * Accessor for the values of the parameters that DataNucleus generated in place of literals (such as IN-lists of literal values),
+     * keyed by parameter name. These need binding to the query when it is created.
+     * @return The values keyed by parameter name
+     */
+    public Map<String, Object> getLiteralParameterValues()
+    {
+        toString();
+        return literalParameterValues != null ? literalParameterValues : Collections.emptyMap();
     }
 
     /**
@@ -179,6 +215,11 @@ public class CriteriaDeleteImpl<T> implements CriteriaDelete<T>, Serializable
         if (compilation == null)
         {
             // Not yet compiled, so compile it
+            if (literalParameterValues == null)
+            {
+                nameLiteralParameters();
+            }
+
             Class candidateClass = from.getJavaType();
             String candidateAlias = from.getAlias();
             if (candidateAlias == null)
@@ -234,6 +275,19 @@ public class CriteriaDeleteImpl<T> implements CriteriaDelete<T>, Serializable
         return compilation;
     }
 
+    /**
+     * Accessor for a fingerprint of the structure of this criteria delete, for use as the key when caching its compilation.
+     * The compilation holds any literal values, so there is no fingerprint when the JPQL does not identify them exactly
+     * (see LiteralParameterExpression.isCacheable()).
+     * @return The fingerprint, or null if the compilation must not be cached
+     */
+    public String getFingerprint()
+    {
+        // The JPQL single-string form defines everything that the generic compilation depends on
+        String str = toString();
+        return cacheable ? str : null;
+    }
+
     /**
      * Method to return a single-string representation of the criteria delete query in JPQL.
      * @return The single-string form
@@ -242,6 +296,8 @@ public class CriteriaDeleteImpl<T> implements CriteriaDelete<T>, Serializable
     {
         if (jpqlString == null)
         {
+            nameLiteralParameters();
+
             // Generate the query string
             StringBuilder str = new StringBuilder();
             str.append("DELETE ");
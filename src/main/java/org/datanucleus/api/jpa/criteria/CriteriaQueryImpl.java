@@ -23,10 +23,13 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Predicate;
@@ -85,6 +88,15 @@ public class CriteriaQueryImpl<T> implements CriteriaQuery<T>, Serializable
     /** Parameter definition for the compilation. */
     Set<ParameterExpression<?>> params = null;
 
+    /** Whether this is the delegate of a subquery, so its literal parameters are named by the query it is part of. */
+    boolean subqueryDelegate = false;
+
+    /** Values of the parameters generated for literals, keyed by parameter name (cached, with the JPQL). */
+    Map<String, Object> literalParameterValues = null;
+
+    /** Whether the compilation can be cached against the JPQL, given the literals in it (cached, with the JPQL). */
+    boolean cacheable = false;
+
     /**
      * Constructor for a criteria query for the supplied model and result class.
      * @param cb Criteria Builder
@@ -452,6 +464,7 @@ public class CriteriaQueryImpl<T> implements CriteriaQuery<T>, Serializable
         jpqlString = null;
         compilation = null;
         params = null;
+        literalParameterValues = null;
     }
 
     @Override
@@ -719,6 +732,101 @@ public class CriteriaQueryImpl<T> implements CriteriaQuery<T>, Serializable
             FromImpl frm = (FromImpl)iter.next();
             fixJoinsForFrom(frm);
         }
+
+        if (!subqueryDelegate)
+        {
+            // Name any parameters generated for literals in the order they appear, so the JPQL is the same for the same structure
+            List<org.datanucleus.store.query.expression.Expression> literals = new ArrayList<>();
+            getLiterals(literals);
+            literalParameterValues = LiteralParameterExpression.nameLiteralParameters(literals);
+            cacheable = LiteralParameterExpression.isCacheable(literals);
+        }
+    }
+
+    /**
+     * Method to add the literals, and the parameters generated for literals, in this query and its subqueries to the list, in the order they appear.
+     * Covers the result, the ON conditions of all joins, the filter, grouping, having and ordering.
+     * @param literalParams The list to add to
+     */
+    void getLiterals(List<org.datanucleus.store.query.expression.Expression> literalParams)
+    {
+        if (result != null)
+        {
+            for (Selection<?> sel : result)
+            {
+                LiteralParameterExpression.getLiteralsForQueryExpression(((ExpressionImpl)sel).getQueryExpression(), literalParams);
+            }
+        }
+        if (from != null)
+        {
+            for (RootImpl<?> root : from)
+            {
+                getLiteralsForJoins(root, literalParams);
+            }
+        }
+        if (filter != null)
+        {
+            LiteralParameterExpression.getLiteralsForQueryExpression(filter.getQueryExpression(), literalParams);
+        }
+        if (grouping != null)
+        {
+            for (Expression<?> grp : grouping)
+            {
+                LiteralParameterExpression.getLiteralsForQueryExpression(((ExpressionImpl)grp).getQueryExpression(), literalParams);
+            }
+        }
+        if (having != null)
+        {
+            LiteralParameterExpression.getLiteralsForQueryExpression(having.getQueryExpression(), literalParams);
+        }
+        if (ordering != null)
+        {
+            for (Order order : ordering)
+            {
+                LiteralParameterExpression.getLiteralsForQueryExpression(((OrderImpl)order).getQueryExpression(), literalParams);
+            }
+        }
+        if (subqueries != null)
+        {
+            for (SubqueryImpl<?> subquery : subqueries)
+            {
+                subquery.delegate.getLiterals(literalParams);
+            }
+        }
+    }
+
+    /**
+     * Method to add the literals, and the parameters generated for literals, in the ON conditions of the joins of the provided FROM element
+     * (and their nested joins) to the list, in the order they appear.
+     * @param frm The FROM element
+     * @param literalParams The list to add to
+     */
+    private static void getLiteralsForJoins(FromImpl<?, ?> frm, List<org.datanucleus.store.query.expression.Expression> literalParams)
+    {
+        Set<Join> joins = (Set)frm.getJoins();
+        if (joins == null)
+        {
+            return;
+        }
+        for (Join join : joins)
+        {
+            if (join.getOn() != null)
+            {
+                LiteralParameterExpression.getLiteralsForQueryExpression(((PredicateImpl)join.getOn()).getQueryExpression(), literalParams);
+            }
+            getLiteralsForJoins((FromImpl)join, literalParams);
+        }
+    }
+
+    /**
+     * Accessor for the values of the parameters that DataNucleus generated in place of literals (such as IN-lists of literal values),
+     * keyed by parameter name. These need binding to the query when it is created, and are not part of getParameters().
+     * @return The values keyed by parameter name
+     */
+    public Map<String, Object> getLiteralParameterValues()
+    {
+        toString();
+        return literalParameterValues != null ? literalParameterValues : Collections.emptyMap();
     }
 
     private void fixJoinsForFrom(FromImpl frm)
@@ -742,6 +850,34 @@ public class CriteriaQueryImpl<T> implements CriteriaQuery<T>, Serializable
         }
     }
 
+    /**
+     * Accessor for a fingerprint of the structure of this criteria query, for use as the key when caching its compilation.
+     * This is the JPQL single-string form plus the types of any parameters, since that is all that the generic compilation depends on.
+     * The compilation holds any literal values, so there is no fingerprint when the JPQL does not identify them exactly
+     * (see LiteralParameterExpression.isCacheable()).
+     * @return The fingerprint, or null if the compilation must not be cached
+     */
+    public String getFingerprint()
+    {
+        String str = toString();
+        if (!cacheable)
+        {
+            return null;
+        }
+        Set<ParameterExpression<?>> parameters = getParameters();
+        if (parameters.isEmpty())
+        {
+            return str;
+        }
+
+        Map<String, String> paramTypeByName = new TreeMap<>();
+        for (ParameterExpression<?> param : parameters)
+        {
+            paramTypeByName.put(String.valueOf(param.getName()), param.getJavaType() != null ? param.getJavaType().getName() : null);
+        }
+        return str + " " + paramTypeByName;
+    }
+
     /**
      * Method to return a single-string representation of the criteria query in JPQL.
      * @return The single-string form
@@ -879,6 +1015,10 @@ public class CriteriaQueryImpl<T> implements CriteriaQuery<T>, Serializable
                 getParametersForQueryExpression(expr.getLeft(), params);
             }
         }
+        else if (expr instanceof LiteralParameterExpression)
+        {
+            // Generated for literals, so not a parameter of the criteria query
+        }
         else if (expr instanceof org.datanucleus.store.query.expression.ParameterExpression)
         {
             params.add(expr);
@@ -18,8 +18,11 @@ Contributors:
 package org.datanucleus.api.jpa.criteria;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -54,7 +57,7 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
     private CriteriaBuilderImpl cb;
 
     private RootImpl<T> from;
-    private Map sets = new HashMap();
+    private Map sets = new LinkedHashMap();
     private PredicateImpl filter;
 
     /** The JPQL single-string delete query that this equates to (cached). */
@@ -63,6 +66,12 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
     /** The generic query compilation that this equates to (cached). */
     QueryCompilation compilation = null;
 
+    /** Values of the parameters generated for literals, keyed by parameter name (cached, with the JPQL). */
+    Map<String, Object> literalParameterValues = null;
+
+    /** Whether the compilation can be cached against the JPQL, given the literals in it (cached, with the JPQL). */
+    boolean cacheable = false;
+
     public CriteriaUpdateImpl(CriteriaBuilderImpl cb)
     {
         this.cb = cb;
@@ -123,6 +132,7 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
      */
     public <Y> CriteriaUpdate<T> set(Path<Y> path, Expression<? extends Y> expr)
     {
+        discardCompiled();
         sets.put(path, expr);
         return this;
     }
@@ -132,7 +142,16 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
      */
     public <Y, X extends Y> CriteriaUpdate<T> set(Path<Y> path, X val)
     {
-        sets.put(path, val);
+        discardCompiled();
+        if (cb.parameteriseLiterals && val != null)
+        {
+            // Hold as a literal expression, so that it becomes a parameter
+            sets.put(path, new LiteralExpression<X>(cb, val));
+        }
+        else
+        {
+            sets.put(path, val);
+        }
         return this;
     }
 
@@ -204,6 +223,44 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
     {
         jpqlString = null;
         compilation = null;
+        literalParameterValues = null;
+    }
+
+    /**
+     * Method to name any parameters generated for literals in the update values and filter, in the order they appear.
+     */
+    private void nameLiteralParameters()
+    {
+        List<org.datanucleus.store.query.expression.Expression> literals = new ArrayList<>();
+        for (Object val : sets.values())
+        {
+            if (val instanceof ExpressionImpl)
+            {
+                LiteralParameterExpression.getLiteralsForQueryExpression(((ExpressionImpl)val).getQueryExpression(), literals);
+            }
+            else
+            {
+                // Value set directly, so held as a literal in the compilation
+                literals.add(new Literal(val));
+            }
+        }
+        if (filter != null)
+        {
+            LiteralParameterExpression.getLiteralsForQueryExpression(filter.getQueryExpression(), literals);
+        }
+        literalParameterValues = LiteralParameterExpression.nameLiteralParameters(literals);
+        cacheable = LiteralParameterExpression.isCacheable(literals);
+    }
+
+    /**
+     * Accessor for the values of the parameters that DataNucleus generated in place of literals (such as IN-lists of literal values),
+     * keyed by parameter name. These need binding to the query when it is created.
+     * @return The values keyed by parameter name
+     */
+    public Map<String, Object> getLiteralParameterValues()
+    {
+        toString();
+        return literalParameterValues != null ? literalParameterValues : Collections.emptyMap();
     }
 
     /**
@@ -229,6 +286,11 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
         if (compilation == null)
         {
             // Not yet compiled, so compile it
+            if (literalParameterValues == null)
+            {
+                nameLiteralParameters();
+            }
+
             Class candidateClass = from.getJavaType();
             String candidateAlias = from.getAlias();
             if (candidateAlias == null)
@@ -305,6 +367,19 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
         return compilation;
     }
 
+    /**
+     * Accessor for a fingerprint of the structure of this criteria update, for use as the key when caching its compilation.
+     * The compilation holds any literal values, so there is no fingerprint when the JPQL does not identify them exactly
+     * (see LiteralParameterExpression.isCacheable()).
+     * @return The fingerprint, or null if the compilation must not be cached
+     */
+    public String getFingerprint()
+    {
+        // The JPQL single-string form defines everything that the generic compilation depends on
+        String str = toString();
+        return cacheable ? str : null;
+    }
+
     /**
      * Method to return a single-string representation of the criteria update query in JPQL.
      * @return The single-string form
@@ -313,6 +388,8 @@ public class CriteriaUpdateImpl<T> implements CriteriaUpdate<T>, Serializable
     {
         if (jpqlString == null)
         {
+            nameLiteralParameters();
+
             // Generate the query string
             StringBuilder str = new StringBuilder();
             str.append("UPDATE ");
@@ -61,7 +61,7 @@ public class FetchImpl<Z, X> extends PathImpl<Z, X> implements Fetch<Z, X>
      */
     public <Y> Fetch<X, Y> fetch(PluralAttribute<? super X, ?, Y> attr, JoinType type)
     {
-        Fetch<X, Y> fetch = new FetchImpl<X, Y>(cb, this, (AttributeImpl<? super X, Y>) attr, joinType);
+        Fetch<X, Y> fetch = new FetchImpl<X, Y>(cb, this, (AttributeImpl<? super X, Y>) attr, type);
         if (fetches == null)
         {
             fetches = new HashSet<Fetch<X, ?>>();
@@ -83,7 +83,7 @@ public class FetchImpl<Z, X> extends PathImpl<Z, X> implements Fetch<Z, X>
      */
     public <Y> Fetch<X, Y> fetch(SingularAttribute<? super X, Y> attr, JoinType type)
     {
-        Fetch<X, Y> fetch = new FetchImpl<X, Y>(cb, this, (SingularAttributeImpl<X, Y>) attr, joinType);
+        Fetch<X, Y> fetch = new FetchImpl<X, Y>(cb, this, (SingularAttributeImpl<X, Y>) attr, type);
         if (fetches == null)
         {
             fetches = new HashSet<Fetch<X, ?>>();
@@ -542,10 +542,10 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
         if (from)
         {
             ClassExpression expr = new ClassExpression(getAlias());
+            Expression currentExpr = expr;
             if (joins != null && !joins.isEmpty())
             {
                 Iterator<Join<X, ?>> iter = joins.iterator();
-                Expression currentExpr = expr;
                 while (iter.hasNext())
                 {
                     Join<X, ?> join = iter.next();
@@ -555,15 +555,15 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
 
             if (fetchJoins != null && !fetchJoins.isEmpty())
             {
+                // Fetch joins follow on from any joins, so they don't replace them
                 List<String> tuples = new ArrayList<>();
                 tuples.add(getAlias());
 
                 Iterator<Fetch<X, ?>> iter = fetchJoins.iterator();
-                Expression currentExpr = expr;
                 while (iter.hasNext())
                 {
                     Fetch<X, ?> join = iter.next();
-                    currentExpr = processQueryExpressionForFromFetchJoin(join, currentExpr, getAlias());
+                    currentExpr = processQueryExpressionForFromFetchJoin(join, currentExpr, tuples);
                 }
             }
             return expr;
@@ -638,21 +638,28 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
         return currentExpr;
     }
 
-    private static Expression processQueryExpressionForFromFetchJoin(Fetch fetch, Expression currentExpr, String alias)
+    /**
+     * Method to add the query expression for a fetch join (and any fetch joins of the fetched attribute) to the chain of joins.
+     * Fetch joins have no alias, so a nested fetch join is expressed as the path from the root, for example "a.b.c".
+     * @param fetch The fetch join
+     * @param currentExpr The last expression in the chain of joins
+     * @param parentTuples Tuples of the path of the parent of this fetch join
+     * @return The last expression in the chain of joins after adding this fetch join
+     */
+    private static Expression processQueryExpressionForFromFetchJoin(Fetch fetch, Expression currentExpr, List<String> parentTuples)
     {
-        org.datanucleus.store.query.expression.JoinExpression.JoinType jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_INNER;
+        org.datanucleus.store.query.expression.JoinExpression.JoinType jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_INNER_FETCH;
         if (fetch.getJoinType() == JoinType.LEFT)
         {
-            jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_LEFT_OUTER;
+            jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_LEFT_OUTER_FETCH;
         }
         else if (fetch.getJoinType() == JoinType.RIGHT)
         {
-            jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_RIGHT_OUTER;
+            jt = org.datanucleus.store.query.expression.JoinExpression.JoinType.JOIN_RIGHT_OUTER_FETCH;
         }
 
         Attribute attr = fetch.getAttribute();
-        List<String> tuples = new ArrayList<>();
-        tuples.add(alias);
+        List<String> tuples = new ArrayList<>(parentTuples);
         tuples.add(attr.getName());
         PrimaryExpression primExpr = new PrimaryExpression(new ArrayList<>(tuples));
         JoinExpression joinExpr = new JoinExpression(primExpr, null, jt);
@@ -666,6 +673,17 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
         }
         currentExpr = joinExpr;
 
+        Set<Fetch> subfetches = fetch.getFetches();
+        if (subfetches != null)
+        {
+            Iterator<Fetch> iter = subfetches.iterator();
+            while (iter.hasNext())
+            {
+                Fetch subfetch = iter.next();
+                currentExpr = processQueryExpressionForFromFetchJoin(subfetch, currentExpr, tuples);
+            }
+        }
+
         return currentExpr;
     }
 
@@ -751,32 +769,7 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
 
             if (fetchJoins != null)
             {
-                Iterator<Fetch<X, ?>> iter = fetchJoins.iterator();
-                StringBuilder joinAttrName = new StringBuilder(getAlias());
-                while (iter.hasNext())
-                {
-                    Fetch<X, ?> join = iter.next();
-                    JoinType type = join.getJoinType();
-                    if (type == JoinType.INNER)
-                    {
-                        str.append(" JOIN FETCH ");
-                    }
-                    else if (type == JoinType.LEFT)
-                    {
-                        str.append(" LEFT JOIN FETCH ");
-                    }
-                    else if (type == JoinType.RIGHT)
-                    {
-                        str.append(" RIGHT JOIN FETCH ");
-                    }
-
-                    Attribute<? super X, ?> attr = join.getAttribute();
-                    joinAttrName.append('.').append(attr.getName());
-                    str.append(joinAttrName.toString()).append(" ");
-
-                    // Add on any subjoins
-                    str.append(((FromImpl)join).toString(true));
-                }
+                appendFetchJoins(str, (Set)fetchJoins, getAlias());
             }
 
             return str.toString();
@@ -792,4 +785,39 @@ public class FromImpl<Z,X> extends PathImpl<Z,X> implements From<Z,X>
             return "(unaliased type=" + getJavaType().getName() + ")";
         }
     }
+
+    /**
+     * Method to append the JPQL string form of the provided fetch joins, and any fetch joins of the fetched attributes.
+     * Fetch joins have no alias, so a nested fetch join is expressed as the path from the root, for example "a.b.c".
+     * @param str The buffer to append to
+     * @param fetches The fetch joins
+     * @param path Path of the parent of the fetch joins
+     */
+    private static void appendFetchJoins(StringBuilder str, Set<Fetch> fetches, String path)
+    {
+        Iterator<Fetch> iter = fetches.iterator();
+        while (iter.hasNext())
+        {
+            Fetch fetch = iter.next();
+            JoinType type = fetch.getJoinType();
+            if (type == JoinType.INNER)
+            {
+                str.append(" JOIN FETCH ");
+            }
+            else if (type == JoinType.LEFT)
+            {
+                str.append(" LEFT JOIN FETCH ");
+            }
+            else if (type == JoinType.RIGHT)
+            {
+                str.append(" RIGHT JOIN FETCH ");
+            }
+
+            String fetchPath = path + '.' + fetch.getAttribute().getName();
+            str.append(fetchPath);
+
+            // Add on any fetches of the fetched attribute
+            appendFetchJoins(str, fetch.getFetches(), fetchPath);
+        }
+    }
 }
\ No newline at end of file
@@ -39,12 +39,18 @@ public class InPredicate<X> extends PredicateImpl implements In<X>
 {
     private static final long serialVersionUID = -831538482168317142L;
 
+    /** Largest size that a list of literal values is padded to. Larger lists are not padded. */
+    static final int MAX_PADDED_SIZE = 1000;
+
     ExpressionImpl<? extends X> expr;
 
     List<Expression<? extends X>> values;
 
     boolean negated = false;
 
+    /** Parameter holding the values when they are all literals, set when the query expression is generated. */
+    LiteralParameterExpression literalParameter = null;
+
     public InPredicate(CriteriaBuilderImpl cb, Expression<? extends X> expr)
     {
         super(cb);
@@ -158,7 +164,15 @@ public class InPredicate<X> extends PredicateImpl implements In<X>
 
             // Generate the query expression
             DyadicExpression dyExpr = null;
-            if (values.size() == 1)
+            literalParameter = null;
+            List<Object> literalValues = getLiteralValues();
+            if (literalValues != null)
+            {
+                // All values are literals so use a single collection parameter, so the query is the same whatever the values
+                literalParameter = new LiteralParameterExpression(literalValues);
+                dyExpr = new DyadicExpression(expr.getQueryExpression(), org.datanucleus.store.query.expression.Expression.OP_IN, literalParameter);
+            }
+            else if (values.size() == 1)
             {
                 // Single value, could be value of same type, or a Collection so treat as "IN"
                 Expression valueExpr = values.get(0);
@@ -189,9 +203,48 @@ public class InPredicate<X> extends PredicateImpl implements In<X>
         return queryExpr;
     }
 
+    /**
+     * Accessor for the values when they are all literals (and none is a collection), padded by repeating the last value
+     * up to the next power of two size (up to MAX_PADDED_SIZE). This means that the few sizes of list only generate a
+     * few different datastore statements whatever the number of values.
+     * @return The (padded) literal values, or null if any value is not a literal
+     */
+    private List<Object> getLiteralValues()
+    {
+        List<Object> literalValues = new ArrayList<>(values.size());
+        for (Expression valueExpr : values)
+        {
+            if (!(valueExpr instanceof LiteralExpression))
+            {
+                return null;
+            }
+            Object value = ((LiteralExpression)valueExpr).value;
+            if (value instanceof Collection || value.getClass().isArray())
+            {
+                return null;
+            }
+            literalValues.add(value);
+        }
+
+        int paddedSize = Integer.highestOneBit(literalValues.size());
+        if (paddedSize < literalValues.size())
+        {
+            paddedSize <<= 1;
+        }
+        if (paddedSize <= MAX_PADDED_SIZE)
+        {
+            Object lastValue = literalValues.get(literalValues.size()-1);
+            while (literalValues.size() < paddedSize)
+            {
+                literalValues.add(lastValue);
+            }
+        }
+        return literalValues;
+    }
+
     /**
      * Method to print out the predicate as it would appear in JPQL single-string form.
-     * Will be of the form <pre>field IN (val1,val2[,val3])</pre>.
+     * Will be of the form <pre>field IN (val1,val2[,val3])</pre>, or <pre>field IN :param</pre> when the values are all literals.
      * @return The JPQL single string form of this predicate
      */
     public String toString()
@@ -202,18 +255,26 @@ public class InPredicate<X> extends PredicateImpl implements In<X>
             str.append("!(");
         }
 
-        str.append(JPQLQueryHelper.getJPQLForExpression(expr.getQueryExpression())).append(" IN (");
-        boolean firstValue = true;
-        for (Expression valExpr : values)
+        getQueryExpression();
+        if (literalParameter != null)
+        {
+            str.append(JPQLQueryHelper.getJPQLForExpression(expr.getQueryExpression())).append(" IN :").append(literalParameter.getId());
+        }
+        else
         {
-            if (!firstValue)
+            str.append(JPQLQueryHelper.getJPQLForExpression(expr.getQueryExpression())).append(" IN (");
+            boolean firstValue = true;
+            for (Expression valExpr : values)
             {
-                str.append(",");
+                if (!firstValue)
+                {
+                    str.append(",");
+                }
+                str.append(valExpr.toString());
+                firstValue = false;
             }
-            str.append(valExpr.toString());
-            firstValue = false;
+            str.append(")");
         }
-        str.append(")");
 
         if (negated)
         {
@@ -23,7 +23,6 @@ import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 
 import org.datanucleus.store.query.expression.Expression;
-import org.datanucleus.store.query.expression.Literal;
 
 /**
  * Representation of a Literal in a criteria query.
@@ -47,14 +46,18 @@ public class LiteralExpression<X> extends ExpressionImpl<X>
     {
         if (queryExpr == null)
         {
-            queryExpr = new Literal(value);
+            queryExpr = cb.getLiteralQueryExpression(value);
         }
         return queryExpr;
     }
 
     public String toString()
     {
-        if (value instanceof String || value instanceof Character)
+        if (getQueryExpression() instanceof LiteralParameterExpression)
+        {
+            return ":" + ((LiteralParameterExpression)queryExpr).getId();
+        }
+        else if (value instanceof String || value instanceof Character)
         {
             return "'" + value.toString() + "'";
         }
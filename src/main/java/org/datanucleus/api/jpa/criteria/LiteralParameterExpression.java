@@ -0,0 +1,259 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.criteria;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.datanucleus.store.query.compiler.PropertySymbol;
+import org.datanucleus.store.query.compiler.Symbol;
+import org.datanucleus.store.query.compiler.SymbolTable;
+import org.datanucleus.store.query.expression.CaseExpression;
+import org.datanucleus.store.query.expression.CreatorExpression;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.Literal;
+import org.datanucleus.store.query.expression.OrderExpression;
+import org.datanucleus.store.query.expression.ParameterExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+
+/**
+ * Parameter generated in place of literal values of a criteria query, with its value held here and bound when the query is created.
+ * This means that queries differing only in these values have the same JPQL and so share a compilation.
+ * The name is assigned by the owning criteria query, in the order the parameters appear in the query, so it is the same for
+ * every query of the same structure.
+ */
+class LiteralParameterExpression extends ParameterExpression
+{
+    private static final long serialVersionUID = -1540385470329811573L;
+
+    /** Prefix of the names of these parameters. */
+    static final String NAME_PREFIX = "DN_LITERAL_";
+
+    private String name;
+
+    private final Object value;
+
+    LiteralParameterExpression(Object value)
+    {
+        super(null, -1);
+        this.value = value;
+    }
+
+    Object getValue()
+    {
+        return value;
+    }
+
+    void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Accessor for the name of this parameter, as used in the JPQL.
+     * @return The name
+     * @throws IllegalStateException if not yet named by the owning criteria query, since it would not be bound
+     */
+    @Override
+    public String getId()
+    {
+        if (name == null)
+        {
+            throw new IllegalStateException("Parameter generated for literal value " + value + " has not been named by its criteria query, so cannot be used");
+        }
+        return name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LiteralParameterExpression{" + name + "}";
+    }
+
+    @Override
+    public Symbol bind(SymbolTable symtbl)
+    {
+        if (symtbl.hasSymbol(name))
+        {
+            symbol = symtbl.getSymbol(name);
+        }
+        else
+        {
+            symbol = new PropertySymbol(name);
+            symbol.setType(Symbol.PARAMETER);
+            symtbl.addSymbol(symbol);
+        }
+        return symbol;
+    }
+
+    /**
+     * Method to add the literals, and the parameters generated for literals, in the provided query expression to the list,
+     * in the order they appear.
+     * @param expr The query expression
+     * @param params The list to add to
+     */
+    static void getLiteralsForQueryExpression(Expression expr, List<Expression> params)
+    {
+        if (expr == null)
+        {
+            return;
+        }
+
+        if (expr instanceof LiteralParameterExpression || expr instanceof Literal)
+        {
+            params.add(expr);
+        }
+        else if (expr instanceof DyadicExpression || expr instanceof PrimaryExpression || expr instanceof OrderExpression)
+        {
+            getLiteralsForQueryExpression(expr.getLeft(), params);
+            getLiteralsForQueryExpression(expr.getRight(), params);
+        }
+        else if (expr instanceof InvokeExpression)
+        {
+            getLiteralsForQueryExpression(expr.getLeft(), params);
+            List<Expression> args = ((InvokeExpression)expr).getArguments();
+            if (args != null)
+            {
+                for (Expression arg : args)
+                {
+                    getLiteralsForQueryExpression(arg, params);
+                }
+            }
+        }
+        else if (expr instanceof CaseExpression)
+        {
+            CaseExpression caseExpr = (CaseExpression)expr;
+            getLiteralsForQueryExpression(caseExpr.getLeft(), params);
+            List<CaseExpression.ExpressionPair> conditions = caseExpr.getConditions();
+            if (conditions != null)
+            {
+                for (CaseExpression.ExpressionPair condition : conditions)
+                {
+                    getLiteralsForQueryExpression(condition.getWhenExpression(), params);
+                    getLiteralsForQueryExpression(condition.getActionExpression(), params);
+                }
+            }
+            getLiteralsForQueryExpression(caseExpr.getElseExpression(), params);
+        }
+        else if (expr instanceof CreatorExpression)
+        {
+            List<Expression> args = ((CreatorExpression)expr).getArguments();
+            if (args != null)
+            {
+                for (Expression arg : args)
+                {
+                    getLiteralsForQueryExpression(arg, params);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to name the provided literal parameters in order, returning their values keyed by name.
+     * @param params The literals and literal parameters, in the order they appear in the query (may include the same parameter more than once)
+     * @return The values keyed by parameter name
+     */
+    static Map<String, Object> nameLiteralParameters(List<Expression> params)
+    {
+        Map<String, Object> values = new LinkedHashMap<>();
+        Set<LiteralParameterExpression> named = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Expression expr : params)
+        {
+            if (expr instanceof LiteralParameterExpression)
+            {
+                LiteralParameterExpression param = (LiteralParameterExpression)expr;
+                if (named.add(param))
+                {
+                    String paramName = NAME_PREFIX + values.size();
+                    param.setName(paramName);
+                    values.put(paramName, param.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Method to return whether the compilation of a criteria query with the provided literals can be cached against its JPQL.
+     * The compilation holds the literals, so this is only the case when the JPQL of every (non-parameter) literal identifies its value exactly
+     * (so not for dates, which are printed truncated, or entities, which are printed using their toString), and when every literal parameter
+     * value is a simple value (so the cache never holds entities).
+     * @param params The literals and literal parameters of the query
+     * @return Whether the compilation can be cached
+     */
+    static boolean isCacheable(List<Expression> params)
+    {
+        for (Expression expr : params)
+        {
+            if (expr instanceof LiteralParameterExpression)
+            {
+                if (!isSimpleValue(((LiteralParameterExpression)expr).getValue()))
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                Object value = ((Literal)expr).getLiteral();
+                if (value instanceof String || value instanceof Character)
+                {
+                    if (value.toString().indexOf('\'') >= 0)
+                    {
+                        // Quote is not escaped in the JPQL, so the literal boundaries are ambiguous
+                        return false;
+                    }
+                }
+                else if (value != null && !(value instanceof Boolean) && !(value instanceof Integer) && !(value instanceof Long) &&
+                    !(value instanceof Short) && !(value instanceof Byte) && !(value instanceof Double) && !(value instanceof Float) &&
+                    !(value instanceof BigInteger) && !(value instanceof BigDecimal))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSimpleValue(Object value)
+    {
+        if (value instanceof Collection)
+        {
+            for (Object elem : (Collection)value)
+            {
+                if (!isSimpleValue(elem))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return value == null || value instanceof Number || value instanceof String || value instanceof Character || value instanceof Boolean ||
+            value instanceof Enum || value instanceof java.util.Date || value instanceof java.util.Calendar ||
+            value instanceof java.time.temporal.TemporalAccessor || value instanceof UUID;
+    }
+}
@@ -60,6 +60,7 @@ public class SubqueryImpl<T> extends ExpressionImpl<T> implements Subquery<T>
         super(cb, type);
         this.parent = (CriteriaQueryImpl<?>) query;
         this.delegate = new CriteriaQueryImpl<T>(cb, type);
+        this.delegate.subqueryDelegate = true;
         String variableName = "SUB" + random.nextInt();
         this.queryExpr = new VariableExpression(variableName);
     }
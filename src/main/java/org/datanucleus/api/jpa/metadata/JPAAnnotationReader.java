@@ -26,8 +26,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.AccessType;
 import javax.persistence.AssociationOverride;
@@ -74,6 +76,7 @@ import javax.persistence.UniqueConstraint;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.PropertyNames;
+import org.datanucleus.api.jpa.AbstractJPAGraph;
 import org.datanucleus.api.jpa.JPAEntityGraph;
 import org.datanucleus.api.jpa.JPASubgraph;
 import org.datanucleus.api.jpa.annotations.Extension;
@@ -805,69 +808,8 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
                         // Fallback to entity name; TODO What if more than 1 graph?
                         graphName = cmd.getEntityName();
                     }
-                    JPAEntityGraph eg = new JPAEntityGraph(mmgr, graphName, cls);
-                    boolean includeAll = graphs[j].includeAllAttributes();
-                    if (includeAll)
-                    {
-                        eg.setIncludeAll();
-                    }
-
-                    // Add nodes for graph
-                    Map<String, String> attributeNameBySubgraphName = new HashMap();
-                    NamedAttributeNode[] nodes = graphs[j].attributeNodes();
-                    if (nodes != null && nodes.length > 0)
-                    {
-                        for (int k=0;k<nodes.length;k++)
-                        {
-                            String attributeName = nodes[k].value();
-                            String subgraphName = nodes[k].subgraph();
-                            eg.addAttributeNodes(attributeName);
-                            // TODO Use keySubgraph
-                            if (!StringUtils.isWhitespace(subgraphName))
-                            {
-                                attributeNameBySubgraphName.put(subgraphName, attributeName);
-                            }
-                        }
-                    }
-
-                    // Add subgraphs for graph
-                    NamedSubgraph[] subgraphs = graphs[j].subgraphs();
-                    if (subgraphs != null && subgraphs.length > 0)
-                    {
-                        for (int k=0;k<subgraphs.length;k++)
-                        {
-                            String subgraphName = subgraphs[k].name();
-                            String attributeName = attributeNameBySubgraphName.get(subgraphName);
-                            JPASubgraph subgraph = (JPASubgraph) eg.addSubgraph(attributeName, subgraphs[k].type());
-                            NamedAttributeNode[] subnodes = subgraphs[k].attributeNodes();
-                            if (subnodes != null && subnodes.length > 0)
-                            {
-                                for (int l=0;l<subnodes.length;l++)
-                                {
-                                    subgraph.addAttributeNodes(subnodes[l].value());
-                                }
-                            }
-                        }
-                    }
-                    NamedSubgraph[] subclassSubgraphs = graphs[j].subclassSubgraphs();
-                    if (subclassSubgraphs != null && subclassSubgraphs.length > 0)
-                    {
-                        if (subgraphs != null)
-                        {
-                            for (int k=0;k<subgraphs.length;k++)
-                            {
-                                JPASubgraph subgraph = (JPASubgraph) eg.addSubclassSubgraph(subgraphs[k].type());
-                                NamedAttributeNode[] subnodes = subgraphs[k].attributeNodes();
-                                if (subnodes != null && subnodes.length > 0)
-                                {
-                                    for (int l=0;l<subnodes.length;l++)
-                                    {
-                                        subgraph.addAttributeNodes(subnodes[l].value());
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    JPAEntityGraph eg = newEntityGraph(graphName, cls, graphs[j].includeAllAttributes(), graphs[j].attributeNodes(), graphs[j].subgraphs(),
+                        graphs[j].subclassSubgraphs());
                     ((JPAMetaDataManager)mmgr).registerEntityGraph(eg);
                 }
             }
@@ -878,62 +820,9 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
                 {
                     graphName = cmd.getEntityName();
                 }
-                JPAEntityGraph eg = new JPAEntityGraph(mmgr, graphName, cls);
-                boolean includeAll = (Boolean) annotationValues.get("includeAllAttributes");
-                if (includeAll)
-                {
-                    eg.setIncludeAll();
-                }
-                Map<String, String> attributeNameBySubgraphName = new HashMap();
-                NamedAttributeNode[] nodes = (NamedAttributeNode[]) annotationValues.get("attributeNodes");
-                if (nodes != null && nodes.length > 0)
-                {
-                    for (int k=0;k<nodes.length;k++)
-                    {
-                        String attributeName = nodes[k].value();
-                        String subgraphName = nodes[k].subgraph();
-                        eg.addAttributeNodes(attributeName);
-                        // TODO Use keySubgraph
-                        if (!StringUtils.isWhitespace(subgraphName))
-                        {
-                            attributeNameBySubgraphName.put(subgraphName, attributeName);
-                        }
-                    }
-                }
-                NamedSubgraph[] subgraphs = (NamedSubgraph[])annotationValues.get("subgraphs");
-                if (subgraphs != null && subgraphs.length > 0)
-                {
-                    for (int k=0;k<subgraphs.length;k++)
-                    {
-                        String subgraphName = subgraphs[k].name();
-                        String attributeName = attributeNameBySubgraphName.get(subgraphName);
-                        JPASubgraph subgraph = (JPASubgraph) eg.addSubgraph(attributeName, subgraphs[k].type());
-                        NamedAttributeNode[] subnodes = subgraphs[k].attributeNodes();
-                        if (subnodes != null && subnodes.length > 0)
-                        {
-                            for (int l=0;l<subnodes.length;l++)
-                            {
-                                subgraph.addAttributeNodes(subnodes[l].value());
-                            }
-                        }
-                    }
-                }
-                NamedSubgraph[] subclassSubgraphs = (NamedSubgraph[])annotationValues.get("subclassSubgraphs");
-                if (subclassSubgraphs != null && subclassSubgraphs.length > 0)
-                {
-                    for (int k=0;k<subclassSubgraphs.length;k++)
-                    {
-                        JPASubgraph subgraph = (JPASubgraph) eg.addSubclassSubgraph(subclassSubgraphs[k].type());
-                        NamedAttributeNode[] subnodes = subclassSubgraphs[k].attributeNodes();
-                        if (subnodes != null && subnodes.length > 0)
-                        {
-                            for (int l=0;l<subnodes.length;l++)
-                            {
-                                subgraph.addAttributeNodes(subnodes[l].value());
-                            }
-                        }
-                    }
-                }
+                JPAEntityGraph eg = newEntityGraph(graphName, cls, (Boolean)annotationValues.get("includeAllAttributes"),
+                    (NamedAttributeNode[])annotationValues.get("attributeNodes"), (NamedSubgraph[])annotationValues.get("subgraphs"),
+                    (NamedSubgraph[])annotationValues.get("subclassSubgraphs"));
                 ((JPAMetaDataManager)mmgr).registerEntityGraph(eg);
             }
             else if (annName.equals(JPAAnnotationUtils.SECONDARY_TABLES))
@@ -2178,7 +2067,7 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
 
                                         // Register the TypeConverter under the name of the AttributeConverter class
                                         TypeConverter conv = new JPATypeConverter(entityConv);
-                                        typeMgr.registerConverter(converterCls.getName(), conv, attrType, dbType, false, null);
+                                        ((JPAMetaDataManager)mmgr).registerAttributeConverter(converterCls.getName(), conv, attrType, dbType, false, null);
                                     }
 
                                     if (StringUtils.isWhitespace(convAttrName))
@@ -2281,7 +2170,7 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
 
                                     // Register the TypeConverter under the name of the AttributeConverter class
                                     conv = new JPATypeConverter(entityConv);
-                                    typeMgr.registerConverter(converterCls.getName(), conv, attrType, dbType, false, null);
+                                    ((JPAMetaDataManager)mmgr).registerAttributeConverter(converterCls.getName(), conv, attrType, dbType, false, null);
                                 }
                                 else
                                 {
@@ -3493,6 +3382,118 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
         // TODO Support uniqueConstraints
     }
 
+    /**
+     * Method to create the EntityGraph defined by a NamedEntityGraph annotation.
+     * Subgraphs are resolved by name from the attribute nodes at any level (for values and for map keys), so the graph has the full depth of the definition.
+     * @param graphName Name of the graph
+     * @param cls The entity class
+     * @param includeAll Whether to include all attributes
+     * @param nodes The attribute nodes of the graph
+     * @param subgraphs The subgraphs that the attribute nodes can refer to
+     * @param subclassSubgraphs The subgraphs for subclasses of the entity
+     * @return The EntityGraph
+     */
+    private JPAEntityGraph newEntityGraph(String graphName, Class cls, boolean includeAll, NamedAttributeNode[] nodes, NamedSubgraph[] subgraphs,
+            NamedSubgraph[] subclassSubgraphs)
+    {
+        JPAEntityGraph eg = new JPAEntityGraph(mmgr, graphName, cls);
+        if (includeAll)
+        {
+            eg.setIncludeAll();
+        }
+
+        // There can be multiple subgraphs with the same name, for different types of the attribute
+        Map<String, List<NamedSubgraph>> subgraphsByName = new HashMap<>();
+        if (subgraphs != null)
+        {
+            for (int i=0;i<subgraphs.length;i++)
+            {
+                List<NamedSubgraph> namedSubgraphs = subgraphsByName.get(subgraphs[i].name());
+                if (namedSubgraphs == null)
+                {
+                    namedSubgraphs = new ArrayList<>();
+                    subgraphsByName.put(subgraphs[i].name(), namedSubgraphs);
+                }
+                namedSubgraphs.add(subgraphs[i]);
+            }
+        }
+
+        Set<String> subgraphNamesInUse = new HashSet<>();
+        addEntityGraphAttributeNodes(eg, nodes, subgraphsByName, subgraphNamesInUse);
+
+        if (subclassSubgraphs != null)
+        {
+            for (int i=0;i<subclassSubgraphs.length;i++)
+            {
+                JPASubgraph subgraph = (JPASubgraph) eg.addSubclassSubgraph(subclassSubgraphs[i].type());
+                addEntityGraphAttributeNodes(subgraph, subclassSubgraphs[i].attributeNodes(), subgraphsByName, subgraphNamesInUse);
+            }
+        }
+        return eg;
+    }
+
+    /**
+     * Method to add the provided attribute nodes to a graph, together with the (named) subgraphs and key subgraphs they refer to.
+     * A subgraph referring back to a subgraph currently being added is not expanded again, so recursive definitions terminate.
+     * @param graph The graph (or subgraph)
+     * @param nodes The attribute nodes
+     * @param subgraphsByName The subgraphs of the entity graph, keyed by name
+     * @param subgraphNamesInUse Names of the subgraphs currently being added
+     */
+    private void addEntityGraphAttributeNodes(AbstractJPAGraph graph, NamedAttributeNode[] nodes, Map<String, List<NamedSubgraph>> subgraphsByName,
+            Set<String> subgraphNamesInUse)
+    {
+        if (nodes == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<nodes.length;i++)
+        {
+            String attributeName = nodes[i].value();
+            graph.addAttributeNodes(attributeName);
+            addEntityGraphSubgraphs(graph, attributeName, nodes[i].subgraph(), false, subgraphsByName, subgraphNamesInUse);
+            addEntityGraphSubgraphs(graph, attributeName, nodes[i].keySubgraph(), true, subgraphsByName, subgraphNamesInUse);
+        }
+    }
+
+    private void addEntityGraphSubgraphs(AbstractJPAGraph graph, String attributeName, String subgraphName, boolean key,
+            Map<String, List<NamedSubgraph>> subgraphsByName, Set<String> subgraphNamesInUse)
+    {
+        if (StringUtils.isWhitespace(subgraphName))
+        {
+            return;
+        }
+        List<NamedSubgraph> namedSubgraphs = subgraphsByName.get(subgraphName);
+        if (namedSubgraphs == null)
+        {
+            NucleusLogger.METADATA.warn("EntityGraph " + graph.getClassType().getName() + " attribute \"" + attributeName +
+                "\" refers to subgraph \"" + subgraphName + "\" yet this is not defined. Ignored");
+            return;
+        }
+        if (!subgraphNamesInUse.add(subgraphName))
+        {
+            return;
+        }
+
+        for (NamedSubgraph namedSubgraph : namedSubgraphs)
+        {
+            // A type of void means the type of the attribute
+            Class type = namedSubgraph.type();
+            JPASubgraph subgraph;
+            if (key)
+            {
+                subgraph = (JPASubgraph) (type == void.class ? graph.addKeySubgraph(attributeName) : graph.addKeySubgraph(attributeName, type));
+            }
+            else
+            {
+                subgraph = (JPASubgraph) (type == void.class ? graph.addSubgraph(attributeName) : graph.addSubgraph(attributeName, type));
+            }
+            addEntityGraphAttributeNodes(subgraph, namedSubgraph.attributeNodes(), subgraphsByName, subgraphNamesInUse);
+        }
+        subgraphNamesInUse.remove(subgraphName);
+    }
+
     /**
      * Check if a class is persistable, by looking at its annotations.
      * @param annotations Annotations for the class
@@ -3585,12 +3586,12 @@ public class JPAAnnotationReader extends AbstractAnnotationReader
                     {
                         // Not yet cached an instance of this converter so create one
                         typeConv = new JPATypeConverter(JPATypeConverterUtils.createAttributeConverterInstance(mmgr.getNucleusContext(), cls));
-                        typeMgr.registerConverter(cls.getName(), typeConv, attrType, dbType, autoApply, attrType.getName());
+                        ((JPAMetaDataManager)mmgr).registerAttributeConverter(cls.getName(), typeConv, attrType, dbType, autoApply, attrType.getName());
                     }
                     else
                     {
                         // Update the "autoApply" in case we simply registered the converter for a member
-                        typeMgr.registerConverter(cls.getName(), typeConv, attrType, dbType, autoApply, attrType.getName());
+                        ((JPAMetaDataManager)mmgr).registerAttributeConverter(cls.getName(), typeConv, attrType, dbType, autoApply, attrType.getName());
                     }
                     if (NucleusLogger.METADATA.isDebugEnabled())
                     {
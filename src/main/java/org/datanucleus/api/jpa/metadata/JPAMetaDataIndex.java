@@ -0,0 +1,750 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.api.jpa.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.persistence.AttributeNode;
+import javax.persistence.Subgraph;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.Configuration;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.api.jpa.JPAEntityGraph;
+import org.datanucleus.api.jpa.JPAPropertyNames;
+import org.datanucleus.exceptions.ClassNotResolvedException;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.FileMetaData;
+import org.datanucleus.metadata.MetaDataUtils;
+import org.datanucleus.metadata.PackageMetaData;
+import org.datanucleus.metadata.PersistenceFileMetaData;
+import org.datanucleus.metadata.PersistenceUnitMetaData;
+import org.datanucleus.store.types.converters.TypeConverter;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Index of the metadata of a persistence-unit, built at build time so that the EntityManagerFactory can start without parsing
+ * the mapping files nor reading the annotations of the entity classes.
+ * The index holds the metadata as registered by the JPAMetaDataManager when loading the persistence-unit (before it is populated
+ * and initialised), together with the named entity graphs and the AttributeConverters registered while reading it.
+ * Named queries, stored procedures, sequences, table generators and result set mappings are part of the metadata so are included.
+ * <p>
+ * The index is stored as the resource "META-INF/datanucleus/{unit-name}.metadata-index" and is generated by running this class
+ * after the classes are compiled (and enhanced, if enhancing at build time), for example using exec-maven-plugin in the "process-classes" phase
+ * <pre>
+ * java -cp {classpath} org.datanucleus.api.jpa.metadata.JPAMetaDataIndex {unit-name} target/classes
+ * </pre>
+ * The index records a hash of the persistence-unit definition, the persistence properties affecting metadata, the mapping files and
+ * the bytecode of the indexed classes, as well as the class files under the root of the persistence-unit when unlisted classes are included
+ * (so only a root that is a directory or jar file is supported in that case). Since the metadata is stored using Java serialisation,
+ * the hash also includes the version of datanucleus-core.
+ * When the EntityManagerFactory starts it is only used when this hash matches, otherwise the metadata is loaded as normal
+ * (as it also is if the metadata of the index cannot be deserialised or registered).
+ * Loading of the index is enabled by default, and can be disabled with the persistence property "datanucleus.jpa.metadataIndex".
+ */
+public class JPAMetaDataIndex
+{
+    /** Prefix of the name of the index resource, to which the name of the persistence-unit is appended. */
+    public static final String INDEX_RESOURCE_PREFIX = "META-INF/datanucleus/";
+
+    /** Suffix of the name of the index resource. */
+    public static final String INDEX_RESOURCE_SUFFIX = ".metadata-index";
+
+    /** Mapping file that is part of the persistence-unit when present, even if not listed. */
+    private static final String DEFAULT_MAPPING_FILE = "META-INF/orm.xml";
+
+    /** Persistence properties that affect the metadata loaded, so are part of the hash. */
+    private static final String[] METADATA_PROPERTIES = new String[] {PropertyNames.PROPERTY_METADATA_ALLOW_XML, PropertyNames.PROPERTY_METADATA_ALLOW_ANNOTATIONS,
+        PropertyNames.PROPERTY_METADATA_DEFAULT_NULLABLE, PropertyNames.PROPERTY_METADATA_USE_DISCRIMINATOR_DEFAULT_CLASS_NAME,
+        PropertyNames.PROPERTY_METADATA_USE_DISCRIMINATOR_FOR_SINGLE_TABLE, PropertyNames.PROPERTY_METADATA_SCANNER};
+
+    private static final int MAGIC = 0x444E4A49;
+
+    static
+    {
+        Localiser.registerBundle("org.datanucleus.api.jpa.Localisation", JPAMetaDataIndex.class.getClassLoader());
+    }
+
+    /** Version of the index format. Included in the hash, so an index of an earlier format is never used. */
+    private static final int VERSION = 1;
+
+    /** Hash of the inputs of the metadata of the persistence-unit. */
+    String hash;
+
+    /** Names of the classes that have metadata in the index. */
+    List<String> classNames = new ArrayList<>();
+
+    /** URL strings of the metadata files, as registered with the metadata manager. */
+    List<String> fileURLStrings = new ArrayList<>();
+
+    /** Serialised form of each metadata file, before being populated. */
+    List<byte[]> fileBytes = new ArrayList<>();
+
+    /** AttributeConverters registered while reading the metadata, in registration order. */
+    List<AttributeConverterRegistration> attributeConverters = new ArrayList<>();
+
+    /** Named entity graphs registered while reading the metadata. */
+    List<JPAEntityGraph> entityGraphs = new ArrayList<>();
+
+    /**
+     * Registration of an AttributeConverter with the TypeManager, under the name of the AttributeConverter class.
+     */
+    static class AttributeConverterRegistration
+    {
+        String converterClassName;
+        String attrTypeName;
+        String dbTypeName;
+        boolean autoApply;
+        String autoApplyType;
+    }
+
+    /**
+     * Method to record a metadata file registered with the metadata manager, serialising it in its current (unpopulated) form.
+     * @param fileURLString URL string of the file
+     * @param filemd The metadata of the file
+     */
+    void addFileMetaData(String fileURLString, FileMetaData filemd)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(filemd);
+            out.close();
+
+            fileURLStrings.add(fileURLString);
+            fileBytes.add(bytes.toByteArray());
+        }
+        catch (IOException ioe)
+        {
+            throw new NucleusException("Unable to serialise metadata of " + fileURLString + " for metadata index", ioe);
+        }
+
+        for (int i=0;i<filemd.getNoOfPackages();i++)
+        {
+            PackageMetaData pmd = filemd.getPackage(i);
+            for (int j=0;j<pmd.getNoOfClasses();j++)
+            {
+                String className = pmd.getClass(j).getFullClassName();
+                if (!classNames.contains(className))
+                {
+                    classNames.add(className);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to record an AttributeConverter registered with the TypeManager while reading the metadata.
+     * @param converterClassName Name of the AttributeConverter class
+     * @param attrType The attribute type
+     * @param dbType The datastore type
+     * @param autoApply Whether to apply the converter to all attributes of this type
+     * @param autoApplyType Name of the type that the converter is auto-applied to (if any)
+     */
+    void addAttributeConverter(String converterClassName, Class attrType, Class dbType, boolean autoApply, String autoApplyType)
+    {
+        AttributeConverterRegistration reg = new AttributeConverterRegistration();
+        reg.converterClassName = converterClassName;
+        reg.attrTypeName = attrType.getName();
+        reg.dbTypeName = dbType.getName();
+        reg.autoApply = autoApply;
+        reg.autoApplyType = autoApplyType;
+        attributeConverters.add(reg);
+    }
+
+    /**
+     * Method to record a named entity graph registered while reading the metadata.
+     * @param eg The entity graph
+     */
+    void addEntityGraph(JPAEntityGraph eg)
+    {
+        entityGraphs.add(eg);
+    }
+
+    /**
+     * Method to deserialise the metadata files of this index, ready for registering with the metadata manager.
+     * @param clr ClassLoader resolver
+     * @return The metadata of the files, in the order of fileURLStrings
+     * @throws IOException if a file cannot be deserialised (for example serialised by a different version of datanucleus-core)
+     */
+    List<FileMetaData> getFileMetaData(final ClassLoaderResolver clr) throws IOException
+    {
+        List<FileMetaData> fileMetaData = new ArrayList<>(fileBytes.size());
+        for (byte[] bytes : fileBytes)
+        {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))
+            {
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+                {
+                    try
+                    {
+                        return clr.classForName(desc.getName());
+                    }
+                    catch (ClassNotResolvedException cnre)
+                    {
+                        return super.resolveClass(desc);
+                    }
+                }
+            })
+            {
+                fileMetaData.add((FileMetaData)in.readObject());
+            }
+            catch (ClassNotFoundException | RuntimeException | LinkageError e)
+            {
+                throw new IOException(e);
+            }
+        }
+        return fileMetaData;
+    }
+
+    /**
+     * Method to register the AttributeConverters of this index with the TypeManager, as they were registered when reading the metadata.
+     * @param mmgr Metadata manager
+     * @param clr ClassLoader resolver
+     */
+    void registerAttributeConverters(JPAMetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        for (AttributeConverterRegistration reg : attributeConverters)
+        {
+            TypeConverter conv = mmgr.getNucleusContext().getTypeManager().getTypeConverterForName(reg.converterClassName);
+            if (conv == null)
+            {
+                conv = new JPATypeConverter(JPATypeConverterUtils.createAttributeConverterInstance(mmgr.getNucleusContext(),
+                    clr.classForName(reg.converterClassName)));
+            }
+            mmgr.getNucleusContext().getTypeManager().registerConverter(reg.converterClassName, conv, clr.classForName(reg.attrTypeName),
+                clr.classForName(reg.dbTypeName), reg.autoApply, reg.autoApplyType);
+        }
+    }
+
+    /**
+     * Accessor for the name of the index resource for a persistence-unit.
+     * @param unitName Name of the persistence-unit
+     * @return The resource name
+     */
+    public static String getResourceName(String unitName)
+    {
+        return INDEX_RESOURCE_PREFIX + unitName + INDEX_RESOURCE_SUFFIX;
+    }
+
+    /**
+     * Method to read the index of a persistence-unit from the CLASSPATH, if present and its hash matches the current inputs of the metadata.
+     * @param mmgr Metadata manager, used for the entity graphs
+     * @param pumd The persistence-unit
+     * @param clr ClassLoader resolver
+     * @return The index, or null if not present or not matching
+     */
+    static JPAMetaDataIndex load(JPAMetaDataManager mmgr, PersistenceUnitMetaData pumd, ClassLoaderResolver clr)
+    {
+        String resourceName = getResourceName(pumd.getName());
+        URL indexURL = clr.getResource(resourceName, null);
+        if (indexURL == null)
+        {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(indexURL.openStream())))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                NucleusLogger.METADATA.warn(Localiser.msg("MetaData.IndexStale", indexURL, pumd.getName()));
+                return null;
+            }
+
+            JPAMetaDataIndex index = new JPAMetaDataIndex();
+            index.hash = in.readUTF();
+            int numClasses = in.readInt();
+            for (int i=0;i<numClasses;i++)
+            {
+                index.classNames.add(in.readUTF());
+            }
+            if (!index.hash.equals(getHash(pumd, mmgr.getNucleusContext(), index.classNames, clr)))
+            {
+                NucleusLogger.METADATA.warn(Localiser.msg("MetaData.IndexStale", indexURL, pumd.getName()));
+                return null;
+            }
+
+            int numConverters = in.readInt();
+            for (int i=0;i<numConverters;i++)
+            {
+                AttributeConverterRegistration reg = new AttributeConverterRegistration();
+                reg.converterClassName = in.readUTF();
+                reg.attrTypeName = in.readUTF();
+                reg.dbTypeName = in.readUTF();
+                reg.autoApply = in.readBoolean();
+                reg.autoApplyType = in.readBoolean() ? in.readUTF() : null;
+                index.attributeConverters.add(reg);
+            }
+
+            int numFiles = in.readInt();
+            for (int i=0;i<numFiles;i++)
+            {
+                index.fileURLStrings.add(in.readUTF());
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                index.fileBytes.add(bytes);
+            }
+
+            int numGraphs = in.readInt();
+            for (int i=0;i<numGraphs;i++)
+            {
+                index.entityGraphs.add(readEntityGraph(in, mmgr, clr));
+            }
+            return index;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            NucleusLogger.METADATA.warn(Localiser.msg("MetaData.IndexInvalid", indexURL, pumd.getName(), e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Method to write this index.
+     * @param os The stream to write to
+     * @throws IOException if an error occurs writing
+     */
+    void write(OutputStream os) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(os)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(hash);
+            out.writeInt(classNames.size());
+            for (String className : classNames)
+            {
+                out.writeUTF(className);
+            }
+
+            out.writeInt(attributeConverters.size());
+            for (AttributeConverterRegistration reg : attributeConverters)
+            {
+                out.writeUTF(reg.converterClassName);
+                out.writeUTF(reg.attrTypeName);
+                out.writeUTF(reg.dbTypeName);
+                out.writeBoolean(reg.autoApply);
+                out.writeBoolean(reg.autoApplyType != null);
+                if (reg.autoApplyType != null)
+                {
+                    out.writeUTF(reg.autoApplyType);
+                }
+            }
+
+            out.writeInt(fileBytes.size());
+            for (int i=0;i<fileBytes.size();i++)
+            {
+                out.writeUTF(fileURLStrings.get(i));
+                out.writeInt(fileBytes.get(i).length);
+                out.write(fileBytes.get(i));
+            }
+
+            out.writeInt(entityGraphs.size());
+            for (JPAEntityGraph eg : entityGraphs)
+            {
+                writeEntityGraph(out, eg);
+            }
+        }
+    }
+
+    /**
+     * Method to compute the hash of the inputs of the metadata of a persistence-unit : the version of datanucleus-core (whose classes are serialised),
+     * its definition, the properties affecting metadata, its mapping files, the bytecode of the classes with metadata, and (when unlisted classes
+     * are included) the classes under its root that are scanned for annotations.
+     * @param pumd The persistence-unit
+     * @param nucCtx The context
+     * @param classNames Names of the classes with metadata
+     * @param clr ClassLoader resolver
+     * @return The hash, or null if the scanned classes cannot be determined (so an index cannot be used)
+     * @throws IOException if an input cannot be read
+     */
+    static String getHash(PersistenceUnitMetaData pumd, NucleusContext nucCtx, List<String> classNames, ClassLoaderResolver clr) throws IOException
+    {
+        Configuration conf = nucCtx.getConfiguration();
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            throw new NucleusException("Unable to compute hash of metadata index", nsae);
+        }
+
+        updateDigest(digest, String.valueOf(VERSION));
+        updateDigest(digest, getCoreVersion(nucCtx));
+        updateDigest(digest, String.valueOf(ObjectStreamClass.lookup(FileMetaData.class).getSerialVersionUID()));
+        updateDigest(digest, pumd.getName());
+        updateDigest(digest, String.valueOf(pumd.getExcludeUnlistedClasses()));
+        if (pumd.getClassNames() != null)
+        {
+            for (String className : new TreeSet<String>(pumd.getClassNames()))
+            {
+                updateDigest(digest, className);
+            }
+        }
+        for (String propName : METADATA_PROPERTIES)
+        {
+            updateDigest(digest, propName + "=" + conf.getProperty(propName));
+        }
+        if (!pumd.getExcludeUnlistedClasses() && !updateDigestForScannedClasses(digest, pumd.getRootURI()))
+        {
+            return null;
+        }
+
+        Set<String> mappingFiles = new TreeSet<>();
+        mappingFiles.add(DEFAULT_MAPPING_FILE);
+        if (pumd.getMappingFiles() != null)
+        {
+            mappingFiles.addAll(pumd.getMappingFiles());
+        }
+        for (String mappingFile : mappingFiles)
+        {
+            updateDigest(digest, mappingFile);
+            Enumeration<URL> urls = clr.getResources(mappingFile, null);
+            while (urls.hasMoreElements())
+            {
+                updateDigest(digest, urls.nextElement());
+            }
+        }
+
+        for (String className : classNames)
+        {
+            updateDigest(digest, className);
+            URL classURL = clr.getResource(className.replace('.', '/') + ".class", null);
+            if (classURL != null)
+            {
+                updateDigest(digest, classURL);
+            }
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    }
+
+    /**
+     * Accessor for the version of datanucleus-core, with which the metadata of an index is serialised.
+     * @param nucCtx The context
+     * @return The version (or "unknown" if it cannot be determined)
+     */
+    private static String getCoreVersion(NucleusContext nucCtx)
+    {
+        String version = nucCtx.getPluginManager().getVersionForBundle("org.datanucleus");
+        if (version == null)
+        {
+            version = FileMetaData.class.getPackage().getImplementationVersion();
+        }
+        return version != null ? version : "unknown";
+    }
+
+    /**
+     * Method to add the class files under the root of a persistence-unit (those scanned for annotations when unlisted classes are included)
+     * to the digest, using their name, size and timestamp (or CRC when in a jar) so that adding or changing a class changes the hash.
+     * @param digest The digest
+     * @param rootURI Root of the persistence-unit
+     * @return Whether the class files could be listed
+     * @throws IOException if the root cannot be read
+     */
+    private static boolean updateDigestForScannedClasses(MessageDigest digest, URI rootURI) throws IOException
+    {
+        if (rootURI == null)
+        {
+            // Nothing to scan
+            return true;
+        }
+
+        String scheme = rootURI.getScheme();
+        if ("file".equals(scheme))
+        {
+            File root = new File(rootURI);
+            if (root.isDirectory())
+            {
+                Path rootPath = root.toPath();
+                Set<String> classFiles = new TreeSet<>();
+                try (Stream<Path> paths = Files.walk(rootPath))
+                {
+                    Iterator<Path> pathIter = paths.iterator();
+                    while (pathIter.hasNext())
+                    {
+                        Path path = pathIter.next();
+                        if (path.toString().endsWith(".class") && Files.isRegularFile(path))
+                        {
+                            classFiles.add(rootPath.relativize(path).toString().replace(File.separatorChar, '/') + ":" + Files.size(path) + ":" +
+                                Files.getLastModifiedTime(path).toMillis());
+                        }
+                    }
+                }
+                for (String classFile : classFiles)
+                {
+                    updateDigest(digest, classFile);
+                }
+                return true;
+            }
+            return updateDigestForJarClasses(digest, root);
+        }
+        else if ("jar".equals(scheme))
+        {
+            // "jar:file:/path/to/file.jar!/"
+            String jarURIStr = rootURI.getRawSchemeSpecificPart();
+            int sepIndex = jarURIStr.indexOf("!/");
+            URI jarFileURI = URI.create(sepIndex >= 0 ? jarURIStr.substring(0, sepIndex) : jarURIStr);
+            if ("file".equals(jarFileURI.getScheme()))
+            {
+                return updateDigestForJarClasses(digest, new File(jarFileURI));
+            }
+        }
+        return false;
+    }
+
+    private static boolean updateDigestForJarClasses(MessageDigest digest, File file) throws IOException
+    {
+        if (!file.isFile())
+        {
+            return false;
+        }
+        Set<String> classFiles = new TreeSet<>();
+        try (JarFile jarFile = new JarFile(file))
+        {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements())
+            {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".class"))
+                {
+                    classFiles.add(entry.getName() + ":" + entry.getSize() + ":" + entry.getCrc());
+                }
+            }
+        }
+        for (String classFile : classFiles)
+        {
+            updateDigest(digest, classFile);
+        }
+        return true;
+    }
+
+    private static void updateDigest(MessageDigest digest, String str)
+    {
+        digest.update(str.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+
+    private static void updateDigest(MessageDigest digest, URL url) throws IOException
+    {
+        try (InputStream in = url.openStream())
+        {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, len);
+            }
+        }
+    }
+
+    private static void writeEntityGraph(DataOutputStream out, JPAEntityGraph<?> eg) throws IOException
+    {
+        out.writeUTF(eg.getName());
+        out.writeUTF(eg.getClassType().getName());
+        out.writeBoolean(eg.getIncludeAllAttributes());
+        writeAttributeNodes(out, eg.getAttributeNodes());
+        writeSubgraphs(out, eg.getSubclassSubgraphs());
+    }
+
+    private static void writeAttributeNodes(DataOutputStream out, List<AttributeNode<?>> nodes) throws IOException
+    {
+        if (nodes == null)
+        {
+            out.writeInt(0);
+            return;
+        }
+
+        out.writeInt(nodes.size());
+        for (AttributeNode<?> node : nodes)
+        {
+            out.writeUTF(node.getAttributeName());
+            writeSubgraphs(out, node.getSubgraphs());
+            writeSubgraphs(out, node.getKeySubgraphs());
+        }
+    }
+
+    private static void writeSubgraphs(DataOutputStream out, Map<Class, Subgraph> subgraphsByType) throws IOException
+    {
+        out.writeInt(subgraphsByType.size());
+        for (Subgraph subgraph : subgraphsByType.values())
+        {
+            out.writeUTF(subgraph.getClassType().getName());
+            writeAttributeNodes(out, subgraph.getAttributeNodes());
+        }
+    }
+
+    private static JPAEntityGraph readEntityGraph(DataInputStream in, JPAMetaDataManager mmgr, ClassLoaderResolver clr) throws IOException
+    {
+        String name = in.readUTF();
+        JPAEntityGraph eg = new JPAEntityGraph(mmgr, name, clr.classForName(in.readUTF()));
+        if (in.readBoolean())
+        {
+            eg.setIncludeAll();
+        }
+        readAttributeNodes(in, eg, clr);
+
+        int numSubclassSubgraphs = in.readInt();
+        for (int i=0;i<numSubclassSubgraphs;i++)
+        {
+            Subgraph subgraph = eg.addSubclassSubgraph(clr.classForName(in.readUTF()));
+            readAttributeNodes(in, subgraph, clr);
+        }
+        return eg;
+    }
+
+    private static void readAttributeNodes(DataInputStream in, Subgraph graph, ClassLoaderResolver clr) throws IOException
+    {
+        int numNodes = in.readInt();
+        for (int i=0;i<numNodes;i++)
+        {
+            String attrName = in.readUTF();
+            graph.addAttributeNodes(attrName);
+
+            int numSubgraphs = in.readInt();
+            for (int j=0;j<numSubgraphs;j++)
+            {
+                Subgraph subgraph = graph.addSubgraph(attrName, clr.classForName(in.readUTF()));
+                readAttributeNodes(in, subgraph, clr);
+            }
+            int numKeySubgraphs = in.readInt();
+            for (int j=0;j<numKeySubgraphs;j++)
+            {
+                Subgraph subgraph = graph.addKeySubgraph(attrName, clr.classForName(in.readUTF()));
+                readAttributeNodes(in, subgraph, clr);
+            }
+        }
+    }
+
+    /**
+     * Build-time entry point, writing the index of a persistence-unit to an output directory (typically "target/classes").
+     * The persistence-unit is found from the "META-INF/persistence.xml" files in the CLASSPATH, and its metadata loaded as when starting
+     * an EntityManagerFactory, but without connecting to the datastore.
+     * Progress is logged using the DataNucleus logger, and failures are thrown, so that this can also be run within the build process
+     * (for example with exec-maven-plugin "java" goal).
+     * @param args The name of the persistence-unit, and the output directory
+     * @throws IOException if the index cannot be written
+     * @throws NucleusUserException if the arguments are invalid, the persistence-unit is not found, or its index cannot be built
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            throw new NucleusUserException("Usage : JPAMetaDataIndex {persistence-unit-name} {output-directory}");
+        }
+        String unitName = args[0];
+
+        Map<String, Object> startupProps = new HashMap<>();
+        PersistenceNucleusContext nucCtx = new PersistenceNucleusContextImpl("JPA", startupProps);
+        ClassLoaderResolver clr = nucCtx.getClassLoaderResolver(null);
+        PersistenceUnitMetaData pumd = null;
+        PersistenceFileMetaData[] files = MetaDataUtils.parsePersistenceFiles(nucCtx.getPluginManager(), null, false, true, clr);
+        if (files != null)
+        {
+            for (int i=0;i<files.length && pumd == null;i++)
+            {
+                for (PersistenceUnitMetaData unitmd : files[i].getPersistenceUnits())
+                {
+                    if (unitmd.getName().equals(unitName))
+                    {
+                        pumd = unitmd;
+                        pumd.clearJarFiles(); // Jar files not applicable to J2SE [JPA 6.3]
+                        break;
+                    }
+                }
+            }
+        }
+        if (pumd == null)
+        {
+            nucCtx.close();
+            throw new NucleusUserException(Localiser.msg("EMF.PersistenceUnitNotFound", unitName));
+        }
+
+        // Load the metadata as the EntityManagerFactory would, recording it in the index rather than using any existing index
+        if (pumd.getProperties() != null)
+        {
+            nucCtx.getConfiguration().setPersistenceProperties((Map)pumd.getProperties());
+        }
+        nucCtx.getConfiguration().setProperty(JPAPropertyNames.PROPERTY_JPA_METADATA_INDEX, "false");
+        JPAMetaDataManager mmgr = (JPAMetaDataManager)nucCtx.getMetaDataManager();
+        mmgr.setAllowXML(nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_ALLOW_XML));
+        mmgr.setAllowAnnotations(nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_ALLOW_ANNOTATIONS));
+        mmgr.setValidate(nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_XML_VALIDATE));
+        mmgr.setDefaultNullable(nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_DEFAULT_NULLABLE));
+
+        JPAMetaDataIndex index = new JPAMetaDataIndex();
+        mmgr.setMetaDataIndex(index);
+        mmgr.loadPersistenceUnit(pumd, null);
+        mmgr.setMetaDataIndex(null);
+        index.hash = getHash(pumd, nucCtx, index.classNames, clr);
+        if (index.hash == null)
+        {
+            nucCtx.close();
+            throw new NucleusUserException(Localiser.msg("MetaData.IndexNotSupported", unitName, pumd.getRootURI()));
+        }
+
+        File indexFile = new File(args[1], getResourceName(unitName));
+        indexFile.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(indexFile))
+        {
+            index.write(out);
+        }
+        NucleusLogger.METADATA.info(Localiser.msg("MetaData.IndexWritten", unitName, indexFile, index.fileBytes.size(), index.classNames.size()));
+        nucCtx.close();
+    }
+}
@@ -17,11 +17,14 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.api.jpa.metadata;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.PostLoad;
 import javax.persistence.PostPersist;
@@ -33,7 +36,9 @@ import javax.persistence.PreUpdate;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.NucleusContext;
+import org.datanucleus.api.jpa.JPACallbackDispatch;
 import org.datanucleus.api.jpa.JPAEntityGraph;
+import org.datanucleus.api.jpa.JPAPropertyNames;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.ClassMetaData;
 import org.datanucleus.metadata.DiscriminatorMetaData;
@@ -43,7 +48,9 @@ import org.datanucleus.metadata.FileMetaData;
 import org.datanucleus.metadata.MetaDataManagerImpl;
 import org.datanucleus.metadata.MetaDataFileType;
 import org.datanucleus.metadata.PackageMetaData;
+import org.datanucleus.metadata.PersistenceUnitMetaData;
 import org.datanucleus.metadata.xml.XmlMetaDataParser;
+import org.datanucleus.store.types.converters.TypeConverter;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 
@@ -61,9 +68,15 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
     /** EventListeners. Use a list to preserve ordering. */
     protected List<EventListenerMetaData> eventListeners = new ArrayList<>();
 
+    /** Resolved lifecycle callback dispatch tables, keyed by the entity class. */
+    protected Map<Class, JPACallbackDispatch> callbackDispatchByClass = new ConcurrentHashMap<>();
+
     /** Listeners for notification of when an EntityGraph is registered. */
     protected List<JPAEntityGraphRegistrationListener> entityGraphListeners = new ArrayList<JPAEntityGraphRegistrationListener>();
 
+    /** Metadata index being built, recording the metadata registered. Null when not building an index. */
+    protected transient JPAMetaDataIndex metaDataIndex = null;
+
     /**
      * Constructor.
      * @param ctxt NucleusContext that this metadata manager operates in
@@ -101,6 +114,10 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
 
     public synchronized void registerEntityGraph(JPAEntityGraph eg)
     {
+        if (metaDataIndex != null)
+        {
+            metaDataIndex.addEntityGraph(eg);
+        }
         for (JPAEntityGraphRegistrationListener listener : entityGraphListeners)
         {
             listener.entityGraphRegistered(eg);
@@ -116,6 +133,128 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
         return eventListeners;
     }
 
+    /**
+     * Accessor for the resolved lifecycle callback dispatch table for the specified class.
+     * @param cls The entity class
+     * @return The dispatch table, or null if not yet resolved
+     */
+    public JPACallbackDispatch getCallbackDispatch(Class cls)
+    {
+        return callbackDispatchByClass.get(cls);
+    }
+
+    /**
+     * Method to cache the resolved lifecycle callback dispatch table for the specified class.
+     * @param cls The entity class
+     * @param dispatch The dispatch table
+     */
+    public void setCallbackDispatch(Class cls, JPACallbackDispatch dispatch)
+    {
+        callbackDispatchByClass.put(cls, dispatch);
+    }
+
+    /**
+     * Method to register an AttributeConverter (wrapped as a TypeConverter) with the TypeManager, under the name of the AttributeConverter class.
+     * @param converterClassName Name of the AttributeConverter class
+     * @param conv The TypeConverter
+     * @param attrType The attribute type
+     * @param dbType The datastore type
+     * @param autoApply Whether to apply the converter to all attributes of this type
+     * @param autoApplyType Name of the type that the converter is auto-applied to (if any)
+     */
+    public void registerAttributeConverter(String converterClassName, TypeConverter conv, Class attrType, Class dbType, boolean autoApply, String autoApplyType)
+    {
+        if (metaDataIndex != null)
+        {
+            metaDataIndex.addAttributeConverter(converterClassName, attrType, dbType, autoApply, autoApplyType);
+        }
+        nucleusContext.getTypeManager().registerConverter(converterClassName, conv, attrType, dbType, autoApply, autoApplyType);
+    }
+
+    /**
+     * Method to set the metadata index being built, recording the metadata registered from now on. Null to stop recording.
+     * @param index The index being built
+     */
+    public void setMetaDataIndex(JPAMetaDataIndex index)
+    {
+        this.metaDataIndex = index;
+    }
+
+    /**
+     * Method to load the metadata of the persistence-unit. Uses the metadata index of the persistence-unit in the CLASSPATH when present
+     * and matching the current classes and mapping files, so the mapping files aren't parsed and the annotations aren't read.
+     * If the metadata of the index cannot be deserialised or registered, the metadata is loaded as normal.
+     * @param pumd The persistence-unit
+     * @param loader ClassLoader to use
+     * @return The metadata of the files loaded
+     */
+    @Override
+    public FileMetaData[] loadPersistenceUnit(PersistenceUnitMetaData pumd, ClassLoader loader)
+    {
+        if (metaDataIndex == null && nucleusContext.getConfiguration().getBooleanProperty(JPAPropertyNames.PROPERTY_JPA_METADATA_INDEX, true))
+        {
+            long startTime = System.currentTimeMillis();
+            ClassLoaderResolver clr = nucleusContext.getClassLoaderResolver(loader);
+            JPAMetaDataIndex index = JPAMetaDataIndex.load(this, pumd, clr);
+            if (index != null)
+            {
+                List<FileMetaData> fileMetaData = null;
+                try
+                {
+                    fileMetaData = index.getFileMetaData(clr);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    NucleusLogger.METADATA.warn(Localiser.msg("MetaData.IndexInvalid", JPAMetaDataIndex.getResourceName(pumd.getName()), pumd.getName(),
+                        e.getMessage()));
+                }
+
+                if (fileMetaData != null)
+                {
+                    try
+                    {
+                        // Repeat what loading the persistence-unit does after reading the metadata, so the metadata is populated and initialised as normal
+                        index.registerAttributeConverters(this, clr);
+                        for (int i=0;i<fileMetaData.size();i++)
+                        {
+                            FileMetaData filemd = fileMetaData.get(i);
+                            filemd.setMetaDataManager(this);
+                            registerFile(index.fileURLStrings.get(i), filemd, clr);
+                        }
+                        initialiseFileMetaDataForUse(fileMetaData, clr);
+                    }
+                    catch (RuntimeException | LinkageError e)
+                    {
+                        // Metadata of the index that cannot be used (e.g. deserialised from another version), so remove it and load as normal
+                        NucleusLogger.METADATA.warn(Localiser.msg("MetaData.IndexInvalid", JPAMetaDataIndex.getResourceName(pumd.getName()), pumd.getName(),
+                            e.toString()));
+                        for (String className : index.classNames)
+                        {
+                            unloadMetaDataForClass(className);
+                        }
+                        for (String fileURLString : index.fileURLStrings)
+                        {
+                            fileMetaDataByURLString.remove(fileURLString);
+                        }
+                        return super.loadPersistenceUnit(pumd, loader);
+                    }
+
+                    // Only once the metadata is usable, since registered entity graphs can't be removed
+                    for (JPAEntityGraph eg : index.entityGraphs)
+                    {
+                        registerEntityGraph(eg);
+                    }
+
+                    NucleusLogger.METADATA.info(Localiser.msg("MetaData.IndexLoaded", pumd.getName(), fileMetaData.size(), index.classNames.size(),
+                        System.currentTimeMillis() - startTime));
+                    return fileMetaData.toArray(new FileMetaData[fileMetaData.size()]);
+                }
+            }
+        }
+
+        return super.loadPersistenceUnit(pumd, loader);
+    }
+
     /**
      * Utility to parse a file, using the "jpa" MetaData handler.
      * @param fileURL URL of the file
@@ -142,6 +281,9 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
     {
         if (cmd.getListeners() != null)
         {
+            // Any dispatch table already resolved against the previous metadata is now stale
+            callbackDispatchByClass.clear();
+
             List<EventListenerMetaData> classListeners = cmd.getListeners();
 
             for (EventListenerMetaData elmd : classListeners)
@@ -173,6 +315,10 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
         }
 
         fileMetaDataByURLString.put(fileURLString, filemd);
+        if (metaDataIndex != null)
+        {
+            metaDataIndex.addFileMetaData(fileURLString, filemd);
+        }
 
         registerQueriesForFile(filemd);
         registerStoredProcQueriesForFile(filemd);
@@ -184,6 +330,7 @@ public class JPAMetaDataManager extends MetaDataManagerImpl
         {
             List<EventListenerMetaData> fileListeners = filemd.getListeners();
             eventListeners.addAll(fileListeners);
+            callbackDispatchByClass.clear();
             for (EventListenerMetaData elmd : fileListeners)
             {
                 // Load up all listener methods of the listener
@@ -1095,7 +1095,7 @@ public class JPAXmlMetaDataHandler extends AbstractXmlMetaDataHandler
 
                             // Register the TypeConverter under the name of the AttributeConverter class
                             TypeConverter conv = new JPATypeConverter(entityConv);
-                            typeMgr.registerConverter(converterClassName, conv, attrType, dbType, false, null);
+                            ((JPAMetaDataManager)mmgr).registerAttributeConverter(converterClassName, conv, attrType, dbType, false, null);
                         }
                     }
                 }
@@ -1122,12 +1122,12 @@ public class JPAXmlMetaDataHandler extends AbstractXmlMetaDataHandler
                         {
                             // Not yet cached an instance of this converter so create one
                             typeConv = new JPATypeConverter(JPATypeConverterUtils.createAttributeConverterInstance(mmgr.getNucleusContext(), entityConvCls));
-                            typeMgr.registerConverter(converterClassName, typeConv, attrType, dbType, autoApply, attrType.getName());
+                            ((JPAMetaDataManager)mmgr).registerAttributeConverter(converterClassName, typeConv, attrType, dbType, autoApply, attrType.getName());
                         }
                         else
                         {
                             // Update the "autoApply" in case we simply registered this converter for a member
-                            typeMgr.registerConverter(converterClassName, typeConv, attrType, dbType, autoApply, attrType.getName());
+                            ((JPAMetaDataManager)mmgr).registerAttributeConverter(converterClassName, typeConv, attrType, dbType, autoApply, attrType.getName());
                         }
                     }
                 }
@@ -61,8 +61,7 @@ public class AttributeImpl<X, Y> implements Attribute<X, Y>
      */
     public ManagedType<X> getDeclaringType()
     {
-        Class<X> ownerCls = owner.getModel().getClassLoaderResolver().classForName(mmd.getClassName(true));
-        return owner.getModel().managedType(ownerCls);
+        return (ManagedType<X>) owner.getModel().getManagedTypeForClassName(mmd.getClassName(true));
     }
 
     /* (non-Javadoc)
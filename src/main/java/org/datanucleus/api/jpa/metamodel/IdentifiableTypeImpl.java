@@ -163,7 +163,7 @@ public class IdentifiableTypeImpl<X> extends ManagedTypeImpl<X> implements Ident
         AbstractClassMetaData superCmd = cmd.getSuperAbstractClassMetaData();
         if (superCmd != null)
         {
-            return (IdentifiableType<? super X>)model.managedType(model.getClassLoaderResolver().classForName(superCmd.getFullClassName()));
+            return (IdentifiableType<? super X>)model.getManagedTypeForClassName(superCmd.getFullClassName());
         }
         return null;
     }
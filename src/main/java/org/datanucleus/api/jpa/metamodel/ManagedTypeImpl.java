@@ -18,13 +18,12 @@ Contributors:
 package org.datanucleus.api.jpa.metamodel;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.CollectionAttribute;
@@ -52,7 +51,11 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
     /** The metamodel being used, where we need to look up related classes. */
     protected MetamodelImpl model;
 
-    protected Map<String, Attribute<X, ?>> attributes = new HashMap<String, Attribute<X, ?>>();
+    /** Attributes for the members managed by this class (not including those of superclasses). Not modified after construction. */
+    protected Map<String, Attribute<X, ?>> attributes;
+
+    /** Index of all attributes of this type including those inherited, built on first use. */
+    private volatile AttributeIndex<X> attributeIndex;
 
     /**
      * Constructor for a managed type.
@@ -68,11 +71,100 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
 
         ClassLoaderResolver clr = model.getClassLoaderResolver();
         AbstractMemberMetaData[] mmds = cmd.getManagedMembers();
+        Map<String, Attribute<X, ?>> attrs = new HashMap<String, Attribute<X, ?>>(mmds.length * 2);
         for (int i=0;i<mmds.length;i++)
         {
             Attribute<X, ?> attr = createAttributeForMember(mmds[i], clr, this);
-            attributes.put(mmds[i].getName(), attr);
+            attrs.put(mmds[i].getName(), attr);
+        }
+        this.attributes = Collections.unmodifiableMap(attrs);
+    }
+
+    /**
+     * Immutable index of the attributes of a type, including those inherited from its supertypes, and the declared/singular/plural subsets.
+     * Built once per type on first use since the attributes of a type and its supertypes don't change.
+     */
+    static class AttributeIndex<X>
+    {
+        final Map<String, Attribute<? super X, ?>> attributesByName;
+        final Set<Attribute<? super X, ?>> attributes;
+        final Set<SingularAttribute<? super X, ?>> singularAttributes;
+        final Set<PluralAttribute<? super X, ?, ?>> pluralAttributes;
+        final Set<Attribute<X, ?>> declaredAttributes;
+        final Set<SingularAttribute<X, ?>> declaredSingularAttributes;
+        final Set<PluralAttribute<X, ?, ?>> declaredPluralAttributes;
+
+        AttributeIndex(ManagedTypeImpl<X> type)
+        {
+            Map<String, Attribute<? super X, ?>> byName = new HashMap<>();
+            ManagedTypeImpl supertype = (ManagedTypeImpl) type.getSuperclass();
+            if (supertype != null)
+            {
+                // Inherit from the (already flattened) supertype, with attributes of this type overriding
+                byName.putAll(supertype.getAttributeIndex().attributesByName);
+            }
+            byName.putAll(type.attributes);
+
+            Set<Attribute<? super X, ?>> all = new HashSet<>();
+            Set<SingularAttribute<? super X, ?>> singular = new HashSet<>();
+            Set<PluralAttribute<? super X, ?, ?>> plural = new HashSet<>();
+            for (Attribute<? super X, ?> attr : byName.values())
+            {
+                all.add(attr);
+                if (attr instanceof SingularAttribute)
+                {
+                    singular.add((SingularAttribute<? super X, ?>) attr);
+                }
+                else if (attr instanceof PluralAttribute)
+                {
+                    plural.add((PluralAttribute<? super X, ?, ?>) attr);
+                }
+            }
+
+            Set<Attribute<X, ?>> declared = new HashSet<>();
+            Set<SingularAttribute<X, ?>> declaredSingular = new HashSet<>();
+            Set<PluralAttribute<X, ?, ?>> declaredPlural = new HashSet<>();
+            for (Attribute<X, ?> attr : type.attributes.values())
+            {
+                AbstractMemberMetaData mmd = ((AttributeImpl<X, ?>) attr).getMetadata();
+                if (mmd.getMemberRepresented().getDeclaringClass() == type.cls)
+                {
+                    declared.add(attr);
+                    if (attr instanceof SingularAttribute)
+                    {
+                        declaredSingular.add((SingularAttribute<X, ?>) attr);
+                    }
+                    else if (attr instanceof PluralAttribute)
+                    {
+                        declaredPlural.add((PluralAttribute<X, ?, ?>) attr);
+                    }
+                }
+            }
+
+            this.attributesByName = Collections.unmodifiableMap(byName);
+            this.attributes = Collections.unmodifiableSet(all);
+            this.singularAttributes = Collections.unmodifiableSet(singular);
+            this.pluralAttributes = Collections.unmodifiableSet(plural);
+            this.declaredAttributes = Collections.unmodifiableSet(declared);
+            this.declaredSingularAttributes = Collections.unmodifiableSet(declaredSingular);
+            this.declaredPluralAttributes = Collections.unmodifiableSet(declaredPlural);
+        }
+    }
+
+    /**
+     * Accessor for the index of attributes of this type (including inherited attributes), building it if not yet built.
+     * @return The attribute index
+     */
+    AttributeIndex<X> getAttributeIndex()
+    {
+        AttributeIndex<X> index = attributeIndex;
+        if (index == null)
+        {
+            // Benign race : concurrent callers may each build an index, but they are equivalent and immutable
+            index = new AttributeIndex<>(this);
+            attributeIndex = index;
         }
+        return index;
     }
 
     public static Attribute createAttributeForMember(AbstractMemberMetaData mmd, ClassLoaderResolver clr, ManagedTypeImpl mt)
@@ -161,8 +253,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
         AbstractClassMetaData superCmd = cmd.getSuperAbstractClassMetaData();
         if (superCmd != null)
         {
-            Class superCls = model.getClassLoaderResolver().classForName(superCmd.getFullClassName());
-            return model.managedType(superCls);
+            return (ManagedType<Object>) model.getManagedTypeForClassName(superCmd.getFullClassName());
         }
         return null;
     }
@@ -172,15 +263,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Attribute<? super X, ?> getAttribute(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        Attribute<? super X, ?> theAttr = getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getAttribute(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class " + cmd.getFullClassName());
         }
         return theAttr;
@@ -191,17 +276,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<Attribute<? super X, ?>> getAttributes()
     {
-        Set<Attribute<? super X, ?>> set = new HashSet<Attribute<? super X,?>>();
-        set.addAll(attributes.values());
-
-        ManagedType supertype = getSuperclass();
-        if (supertype != null)
-        {
-            // Relay to the supertype
-            Set<Attribute<? super X, ?>> superattrs = supertype.getAttributes();
-            set.addAll(superattrs);
-        }
-        return set;
+        return getAttributeIndex().attributes;
     }
 
     /* (non-Javadoc)
@@ -215,8 +290,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -229,23 +303,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<Attribute<X, ?>> getDeclaredAttributes()
     {
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-
-        Set<Attribute<X, ?>> attrs = new HashSet<Attribute<X,?>>();
-        Iterator iter = attributes.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Map.Entry<String, Attribute<X, ?>> entry = (Entry<String, Attribute<X, ?>>) iter.next();
-            AttributeImpl<X, ?> attr = (AttributeImpl<X, ?>) entry.getValue();
-            AbstractMemberMetaData mmd = attr.getMetadata();
-
-            if (mmd.getMemberRepresented().getDeclaringClass() == thisCls)
-            {
-                attrs.add(attr);
-            }
-        }
-
-        return attrs;
+        return getAttributeIndex().declaredAttributes;
     }
 
     /* (non-Javadoc)
@@ -253,15 +311,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public <E> CollectionAttribute<? super X, E> getCollection(String attr, Class<E> elementType)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getCollection(attr, elementType);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -282,15 +334,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public CollectionAttribute<? super X, ?> getCollection(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getCollection(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -322,8 +368,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " doesn't have a collection with element of type " + elementType.getName());
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -347,8 +392,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " isnt a collection");
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -361,15 +405,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public <E> ListAttribute<? super X, E> getList(String attr, Class<E> elementType)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getList(attr, elementType);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -390,15 +428,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public ListAttribute<? super X, ?> getList(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getList(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -430,8 +462,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " doesn't have a List with element of type " + elementType.getName());
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -455,8 +486,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " isnt a List");
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -469,15 +499,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public <K, V> MapAttribute<? super X, K, V> getMap(String attr, Class<K> keyType, Class<V> valueType)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getMap(attr, keyType, valueType);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -506,15 +530,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public MapAttribute<? super X, ?, ?> getMap(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getMap(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -553,8 +571,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " doesn't have a Map with Value of type " + valueType.getName());
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -578,8 +595,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " isnt a Map");
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -592,15 +608,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public <E> SetAttribute<? super X, E> getSet(String attr, Class<E> elementType)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getSet(attr, elementType);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -621,15 +631,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public SetAttribute<? super X, ?> getSet(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getSet(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -661,8 +665,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " doesn't have a Set with element of type " + elementType.getName());
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -686,8 +689,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " isnt a Set");
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -700,15 +702,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public <Y> SingularAttribute<? super X, Y> getSingularAttribute(String attr, Class<Y> type)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getSingularAttribute(attr, type);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
@@ -724,15 +720,9 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public SingularAttribute<? super X, ?> getSingularAttribute(String attr)
     {
-        AttributeImpl<X, ?> theAttr = (AttributeImpl<X, ?>) attributes.get(attr);
+        AttributeImpl<X, ?> theAttr = (AttributeImpl) getAttributeIndex().attributesByName.get(attr);
         if (theAttr == null)
         {
-            ManagedType supertype = getSuperclass();
-            if (supertype != null)
-            {
-                // Relay to the supertype
-                return supertype.getSingularAttribute(attr);
-            }
             throw new IllegalArgumentException("Attribute " + attr + " was not found in class");
         }
         return (SingularAttribute<X, ?>)theAttr;
@@ -743,27 +733,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<SingularAttribute<? super X, ?>> getSingularAttributes()
     {
-        Set<SingularAttribute<? super X, ?>> attrs = new HashSet<SingularAttribute<? super X,?>>();
-        Iterator iter = attributes.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Map.Entry<String, Attribute<X, ?>> entry = (Entry<String, Attribute<X, ?>>) iter.next();
-            AttributeImpl<X, ?> attr = (AttributeImpl<X, ?>) entry.getValue();
-            if (attr instanceof SingularAttribute)
-            {
-                attrs.add((SingularAttribute<? super X, ?>) attr);
-            }
-        }
-
-        ManagedType supertype = getSuperclass();
-        if (supertype != null)
-        {
-            // Relay to the supertype
-            Set superattrs = supertype.getSingularAttributes();
-            attrs.addAll(superattrs);
-        }
-
-        return attrs;
+        return getAttributeIndex().singularAttributes;
     }
 
     /* (non-Javadoc)
@@ -783,8 +753,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
             throw new IllegalArgumentException("Attribute " + attr + " isnt of type " + type.getName());
         }
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -804,8 +773,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
         }
         AbstractMemberMetaData mmd = theAttr.getMetadata();
 
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        if (mmd.getMemberRepresented().getDeclaringClass() != thisCls)
+        if (mmd.getMemberRepresented().getDeclaringClass() != cls)
         {
             throw new IllegalArgumentException("Attribute " + attr + " isn't defined in " + cmd.getFullClassName());
         }
@@ -818,24 +786,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<SingularAttribute<X, ?>> getDeclaredSingularAttributes()
     {
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        Set<SingularAttribute<X, ?>> attrs = new HashSet<SingularAttribute<X,?>>();
-        Iterator iter = attributes.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Map.Entry<String, Attribute<X, ?>> entry = (Entry<String, Attribute<X, ?>>) iter.next();
-            AttributeImpl<X, ?> attr = (AttributeImpl<X, ?>) entry.getValue();
-            if (attr instanceof SingularAttribute)
-            {
-                AbstractMemberMetaData mmd = attr.getMetadata();
-                if (mmd.getMemberRepresented().getDeclaringClass() == thisCls)
-                {
-                    attrs.add((SingularAttribute<X, ?>) attr);
-                }
-            }
-        }
-
-        return attrs;
+        return getAttributeIndex().declaredSingularAttributes;
     }
 
     /* (non-Javadoc)
@@ -843,27 +794,7 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<PluralAttribute<? super X, ?, ?>> getPluralAttributes()
     {
-        Set<PluralAttribute<? super X, ?, ?>> attrs = new HashSet<PluralAttribute<? super X, ?, ?>>();
-        Iterator iter = attributes.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Map.Entry<String, Attribute<X, ?>> entry = (Entry<String, Attribute<X, ?>>) iter.next();
-            AttributeImpl<X, ?> attr = (AttributeImpl<X, ?>) entry.getValue();
-            if (attr instanceof PluralAttribute)
-            {
-                attrs.add((PluralAttribute<X, ?, ?>) attr);
-            }
-        }
-
-        ManagedType supertype = getSuperclass();
-        if (supertype != null)
-        {
-            // Relay to the supertype
-            Set superattrs = supertype.getPluralAttributes();
-            attrs.addAll(superattrs);
-        }
-
-        return attrs;
+        return getAttributeIndex().pluralAttributes;
     }
 
     /* (non-Javadoc)
@@ -871,23 +802,6 @@ public class ManagedTypeImpl<X> extends TypeImpl<X> implements ManagedType<X>
      */
     public Set<PluralAttribute<X, ?, ?>> getDeclaredPluralAttributes()
     {
-        Class thisCls = model.getClassLoaderResolver().classForName(cmd.getFullClassName());
-        Set<PluralAttribute<X, ?, ?>> attrs = new HashSet<PluralAttribute<X, ?, ?>>();
-        Iterator iter = attributes.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Map.Entry<String, Attribute<X, ?>> entry = (Entry<String, Attribute<X, ?>>) iter.next();
-            AttributeImpl<X, ?> attr = (AttributeImpl<X, ?>) entry.getValue();
-            if (attr instanceof PluralAttribute)
-            {
-                AbstractMemberMetaData mmd = attr.getMetadata();
-                if (mmd.getMemberRepresented().getDeclaringClass() == thisCls)
-                {
-                    attrs.add((PluralAttribute<X, ?, ?>) attr);
-                }
-            }
-        }
-
-        return attrs;
+        return getAttributeIndex().declaredPluralAttributes;
     }
-}
\ No newline at end of file
+}
@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EmbeddableType;
@@ -44,6 +45,8 @@ import org.datanucleus.metadata.PackageMetaData;
 
 /**
  * Implementation of JPA Criteria "Metamodel".
+ * The managed types are created on demand, the first time they are requested, and are safe for concurrent use.
+ * Only the types of classes that have a static metamodel class ("{className}_") are created up front, so as to populate that class.
  */
 public class MetamodelImpl implements Metamodel
 {
@@ -51,24 +54,21 @@ public class MetamodelImpl implements Metamodel
 
     ClassLoaderResolver clr;
 
-    /** The entity types handled here. */
-    Map<String, EntityType<?>> entityTypes = new HashMap<>();
+    /** Metadata for the known managed classes, keyed by class name. Not modified after construction. */
+    Map<String, AbstractClassMetaData> managedClassMetaData = new HashMap<>();
 
-    /** The MappedSuperclass types handled here. */
-    Map<String, MappedSuperclassTypeImpl<?>> mappedSuperTypes = new HashMap<>();
-
-    /** The Embeddable types handled here. */
-    Map<String, EmbeddableType<?>> embeddedTypes = new HashMap<>();
+    /** The managed (entity, mapped-superclass, embeddable) types created so far, keyed by class name. */
+    Map<String, ManagedTypeImpl<?>> managedTypes = new ConcurrentHashMap<>();
 
     /** Basic types, can act as a cache. */
-    Map<String, Type<?>> basicTypes = new HashMap<>();
+    Map<String, Type<?>> basicTypes = new ConcurrentHashMap<>();
 
     public MetamodelImpl(MetaDataManager mmgr)
     {
         this.mmgr = mmgr;
         this.clr = mmgr.getNucleusContext().getClassLoaderResolver(null);
 
-        // Load up known types
+        // Find known types
         FileMetaData[] filemds = mmgr.getFileMetaData();
         for (int i=0;i<filemds.length;i++)
         {
@@ -78,81 +78,47 @@ public class MetamodelImpl implements Metamodel
                 for (int k=0;k<pmd.getNoOfClasses();k++)
                 {
                     ClassMetaData cmd = pmd.getClass(k);
-                    Class cls = clr.classForName(cmd.getFullClassName());
-                    if (cmd.isEmbeddedOnly())
-                    {
-                        EmbeddableTypeImpl type = new EmbeddableTypeImpl(cls, cmd, this);
-                        embeddedTypes.put(cmd.getFullClassName(), type);
-                    }
-                    else if (cmd.isMappedSuperclass())
-                    {
-                        MappedSuperclassTypeImpl type = new MappedSuperclassTypeImpl(cls, cmd, this);
-                        mappedSuperTypes.put(cmd.getFullClassName(), type);
-                    }
-                    else
-                    {
-                        EntityTypeImpl type = new EntityTypeImpl(cls, cmd, this);
-                        entityTypes.put(cmd.getFullClassName(), type);
-                    }
+                    managedClassMetaData.put(cmd.getFullClassName(), cmd);
                 }
             }
         }
 
-        for (int i=0;i<filemds.length;i++)
+        for (AbstractClassMetaData cmd : managedClassMetaData.values())
         {
-            for (int j=0;j<filemds[i].getNoOfPackages();j++)
+            // Initialise metamodel class
+            Class metaCls = null;
+            try
             {
-                PackageMetaData pmd = filemds[i].getPackage(j);
-                for (int k=0;k<pmd.getNoOfClasses();k++)
-                {
-                    ClassMetaData cmd = pmd.getClass(k);
-                    ManagedType managedType = null;
-                    if (cmd.isEmbeddedOnly())
-                    {
-                        managedType = embeddedTypes.get(cmd.getFullClassName());
-                    }
-                    else if (cmd.isMappedSuperclass())
-                    {
-                        managedType = mappedSuperTypes.get(cmd.getFullClassName());
-                    }
-                    else
-                    {
-                        managedType = entityTypes.get(cmd.getFullClassName());
-                    }
+                metaCls = clr.classForName(cmd.getFullClassName() + "_");
+            }
+            catch (ClassNotResolvedException cnre)
+            {
+                continue;
+            }
 
-                    // Initialise metamodel class
-                    Class metaCls = null;
-                    try
+            ManagedType managedType = getManagedTypeForClassName(cmd.getFullClassName());
+            AbstractMemberMetaData[] mmds = cmd.getManagedMembers();
+            for (int l=0;l<mmds.length;l++)
+            {
+                try
+                {
+                    Field metaField = metaCls.getField(mmds[l].getName());
+                    if (mmds[l].getPersistenceModifier() == FieldPersistenceModifier.PERSISTENT)
                     {
-                        metaCls = clr.classForName(cmd.getFullClassName() + "_");
-                        AbstractMemberMetaData[] mmds = cmd.getManagedMembers();
-                        for (int l=0;l<mmds.length;l++)
+                        Attribute attr = managedType.getAttribute(mmds[l].getName());
+                        try
                         {
-                            try
-                            {
-                                Field metaField = metaCls.getField(mmds[l].getName());
-                                if (mmds[l].getPersistenceModifier() == FieldPersistenceModifier.PERSISTENT)
-                                {
-                                    Attribute attr = managedType.getAttribute(mmds[l].getName());
-                                    try
-                                    {
-                                        metaField.set(null, attr);
-                                    }
-                                    catch (Exception e)
-                                    {
-                                        JPAEntityManagerFactory.LOGGER.debug("Exception in setting metamodel", e);
-                                    }
-                                }
-                            }
-                            catch (NoSuchFieldException nsfe)
-                            {
-                            }
+                            metaField.set(null, attr);
+                        }
+                        catch (Exception e)
+                        {
+                            JPAEntityManagerFactory.LOGGER.debug("Exception in setting metamodel", e);
                         }
-                    }
-                    catch (ClassNotResolvedException cnre)
-                    {
                     }
                 }
+                catch (NoSuchFieldException nsfe)
+                {
+                }
             }
         }
     }
@@ -162,15 +128,53 @@ public class MetamodelImpl implements Metamodel
         return clr;
     }
 
+    /**
+     * Accessor for the managed type for the specified class name, creating it if not yet created.
+     * @param className Name of the class
+     * @return The managed type, or null if the class is not managed
+     */
+    public ManagedTypeImpl<?> getManagedTypeForClassName(String className)
+    {
+        ManagedTypeImpl<?> type = managedTypes.get(className);
+        if (type != null)
+        {
+            return type;
+        }
+
+        AbstractClassMetaData cmd = managedClassMetaData.get(className);
+        if (cmd == null)
+        {
+            return null;
+        }
+
+        Class cls = clr.classForName(className);
+        if (cmd.isEmbeddedOnly())
+        {
+            type = new EmbeddableTypeImpl(cls, cmd, this);
+        }
+        else if (cmd.isMappedSuperclass())
+        {
+            type = new MappedSuperclassTypeImpl(cls, cmd, this);
+        }
+        else
+        {
+            type = new EntityTypeImpl(cls, cmd, this);
+        }
+
+        // Only one instance of a type is published, in case another thread created it concurrently
+        ManagedTypeImpl<?> existingType = managedTypes.putIfAbsent(className, type);
+        return existingType != null ? existingType : type;
+    }
+
     /* (non-Javadoc)
      * @see javax.persistence.metamodel.Metamodel#embeddable(java.lang.Class)
      */
     public <X> EmbeddableType<X> embeddable(Class<X> cls)
     {
-        EmbeddableType<X> type = (EmbeddableType<X>)embeddedTypes.get(cls.getName());
-        if (type != null)
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cls.getName());
+        if (type instanceof EmbeddableType)
         {
-            return type;
+            return (EmbeddableType<X>)type;
         }
         throw new IllegalArgumentException("Type " + cls.getName() + " is not a known embeddable type");
     }
@@ -182,8 +186,12 @@ public class MetamodelImpl implements Metamodel
         {
             return null;
         }
-        Class cls = clr.classForName(cmd.getFullClassName());
-        return embeddable(cls);
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cmd.getFullClassName());
+        if (type instanceof EmbeddableType)
+        {
+            return (EmbeddableType<X>)type;
+        }
+        throw new IllegalArgumentException("Type " + cmd.getFullClassName() + " is not a known embeddable type");
     }
 
     /* (non-Javadoc)
@@ -192,7 +200,13 @@ public class MetamodelImpl implements Metamodel
     public Set<EmbeddableType<?>> getEmbeddables()
     {
         Set<EmbeddableType<?>> results = new HashSet<>();
-        results.addAll(embeddedTypes.values());
+        for (AbstractClassMetaData cmd : managedClassMetaData.values())
+        {
+            if (cmd.isEmbeddedOnly())
+            {
+                results.add((EmbeddableType<?>) getManagedTypeForClassName(cmd.getFullClassName()));
+            }
+        }
         return results;
     }
 
@@ -201,10 +215,10 @@ public class MetamodelImpl implements Metamodel
      */
     public <X> EntityType<X> entity(Class<X> cls)
     {
-        EntityType<X> type = (EntityType<X>)entityTypes.get(cls.getName());
-        if (type != null)
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cls.getName());
+        if (type instanceof EntityType)
         {
-            return type;
+            return (EntityType<X>)type;
         }
         throw new IllegalArgumentException("Type " + cls.getName() + " is not a known entity type");
     }
@@ -216,8 +230,12 @@ public class MetamodelImpl implements Metamodel
         {
             return null;
         }
-        Class cls = clr.classForName(cmd.getFullClassName());
-        return entity(cls);
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cmd.getFullClassName());
+        if (type instanceof EntityType)
+        {
+            return (EntityType<X>)type;
+        }
+        throw new IllegalArgumentException("Type " + cmd.getFullClassName() + " is not a known entity type");
     }
 
     /* (non-Javadoc)
@@ -226,7 +244,13 @@ public class MetamodelImpl implements Metamodel
     public Set<EntityType<?>> getEntities()
     {
         Set<EntityType<?>> results = new HashSet<>();
-        results.addAll(entityTypes.values());
+        for (AbstractClassMetaData cmd : managedClassMetaData.values())
+        {
+            if (!cmd.isEmbeddedOnly() && !cmd.isMappedSuperclass())
+            {
+                results.add((EntityType<?>) getManagedTypeForClassName(cmd.getFullClassName()));
+            }
+        }
         return results;
     }
 
@@ -235,20 +259,10 @@ public class MetamodelImpl implements Metamodel
      */
     public <X> ManagedType<X> managedType(Class<X> cls)
     {
-        ManagedType<X> type = (EntityType<X>)entityTypes.get(cls.getName());
-        if (type != null)
-        {
-            return type;
-        }
-        type = (EmbeddableType<X>)embeddedTypes.get(cls.getName());
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cls.getName());
         if (type != null)
         {
-            return type;
-        }
-        type = (MappedSuperclassType<X>)mappedSuperTypes.get(cls.getName());
-        if (type != null)
-        {
-            return type;
+            return (ManagedType<X>)type;
         }
 
         throw new IllegalArgumentException("Type " + cls.getName() + " is not a known managed type");
@@ -261,8 +275,12 @@ public class MetamodelImpl implements Metamodel
         {
             return null;
         }
-        Class cls = clr.classForName(cmd.getFullClassName());
-        return managedType(cls);
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cmd.getFullClassName());
+        if (type != null)
+        {
+            return (ManagedType<X>)type;
+        }
+        throw new IllegalArgumentException("Type " + cmd.getFullClassName() + " is not a known managed type");
     }
 
     /* (non-Javadoc)
@@ -271,9 +289,10 @@ public class MetamodelImpl implements Metamodel
     public Set<ManagedType<?>> getManagedTypes()
     {
         Set<ManagedType<?>> results = new HashSet<>();
-        results.addAll(entityTypes.values());
-        results.addAll(embeddedTypes.values());
-        results.addAll(mappedSuperTypes.values());
+        for (String className : managedClassMetaData.keySet())
+        {
+            results.add(getManagedTypeForClassName(className));
+        }
         return results;
     }
 
@@ -285,21 +304,19 @@ public class MetamodelImpl implements Metamodel
      */
     public <X> Type<X> getType(Class<X> cls)
     {
-        try
+        ManagedTypeImpl<?> type = getManagedTypeForClassName(cls.getName());
+        if (type != null)
         {
-            return managedType(cls);
+            return (Type<X>)type;
         }
-        catch (IllegalArgumentException ex)
-        {
-            // Not persistable type
-            if (basicTypes.containsKey(cls.getName()))
-            {
-                return (Type<X>)basicTypes.get(cls.getName());
-            }
 
-            Type<X> basic = new TypeImpl<X>(cls);
+        // Not persistable type
+        Type<X> basic = (Type<X>)basicTypes.get(cls.getName());
+        if (basic == null)
+        {
+            basic = new TypeImpl<X>(cls);
             basicTypes.put(cls.getName(), basic);
-            return basic;
         }
+        return basic;
     }
-}
\ No newline at end of file
+}
@@ -19,6 +19,7 @@ Contributors:
 package org.datanucleus.api.jpa.state;
 
 import org.datanucleus.FetchPlan;
+import org.datanucleus.api.jpa.JPALazyLoadGroup;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.state.IllegalStateTransitionException;
 import org.datanucleus.state.LifeCycleState;
@@ -90,6 +91,12 @@ class Hollow extends LifeCycleState
             throw new NucleusUserException(Localiser.msg("027000"), sm.getInternalObjectId());
         }
 
+        if (!isLoaded)
+        {
+            // Load the fields together with other entities of the same query result where configured
+            JPALazyLoadGroup.loadUnloadedFields(sm);
+        }
+
         if (!tx.getOptimistic() && tx.isActive())
         {
             return changeState(sm, P_CLEAN);
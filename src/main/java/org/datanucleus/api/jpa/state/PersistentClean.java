@@ -21,6 +21,7 @@ Contributors:
 package org.datanucleus.api.jpa.state;
 
 import org.datanucleus.FetchPlan;
+import org.datanucleus.api.jpa.JPALazyLoadGroup;
 import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.state.LifeCycleState;
 import org.datanucleus.state.DNStateManager;
@@ -108,6 +109,17 @@ class PersistentClean extends LifeCycleState
         return changeState(sm, HOLLOW);
     }
 
+    @Override
+    public LifeCycleState transitionReadField(DNStateManager sm, boolean isLoaded)
+    {
+        if (!isLoaded)
+        {
+            // Load the lazy field together with other entities of the same query result where configured
+            JPALazyLoadGroup.loadUnloadedFields(sm);
+        }
+        return this;
+    }
+
     @Override
     public LifeCycleState transitionWriteField(DNStateManager sm)
     {
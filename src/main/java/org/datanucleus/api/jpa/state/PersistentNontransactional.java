@@ -19,6 +19,7 @@ Contributors:
 package org.datanucleus.api.jpa.state;
 
 import org.datanucleus.FetchPlan;
+import org.datanucleus.api.jpa.JPALazyLoadGroup;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.state.IllegalStateTransitionException;
 import org.datanucleus.state.LifeCycleState;
@@ -116,6 +117,11 @@ class PersistentNontransactional extends LifeCycleState
             return changeState(sm, P_CLEAN);
         }
 
+        if (!isLoaded)
+        {
+            // Load the lazy field together with other entities of the same query result where configured
+            JPALazyLoadGroup.loadUnloadedFields(sm);
+        }
         return this;
     }
 